@@ -0,0 +1,94 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import concurrent.Download;
+import concurrent.SimulatedClock;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A benchmark of the goodput of one history transfer over the loopback, under a seeded network impairment.
+ * The node requests the history from itself, so one process plays both sides,
+ * and the impairment applies to every packet in both directions.
+ * With a speed, the transfer runs on a simulated clock moved a tick at a time, that many times faster than real time,
+ * so a long delay on the link doesn't make the run any longer, and the time is measured on that clock.
+ *
+ * Usage: Goodput messages udpport GO_BACK_N|SELECTIVE_REPEAT fec impairment|none [speed]
+ * Prints one line: the time in milliseconds, the goodput, the packets resent, and what the impairment did.
+ */
+public class Goodput {
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    /**
+     * Run the transfer and print the result, exit with 1 if the history didn't arrive intact.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.parseInt(args[0]);
+        String udpport = args[1];
+        ChatProcotol.Data.transferMode mode = ChatProcotol.Data.transferMode.valueOf(args[2]);
+        int fec = Integer.parseInt(args[3]);
+        if (!args[4].equals("none")) {
+            Chat.impairment = new Impairment(args[4]);
+        }
+        if (args.length > 5) {
+            SimulatedClock clock = new SimulatedClock();
+            Chat.setClock(clock);
+            startClock(clock, Double.parseDouble(args[5]));
+        }
+
+        Chat.udp = new UDPTransport(Integer.parseInt(udpport));
+        Chat.dispatcher = new UDPDispatcher(Chat.udp, Chat.THREADS);
+        new Thread(Chat.dispatcher).start();
+
+        for (int i = 1; i <= messages; i++) {
+            Chat.history.add(ChatProcotol.Chat.newBuilder().setFrom("bench").setMessage("This is Grrrr " + i)
+                    .setIsBcast(true).setTimestamp(i).build());
+        }
+        ChatProcotol.Chat last = Chat.history.get().get(messages - 1);
+        int bytes = Chat.snapshots.get().getBytes().length;
+
+        long start = Chat.time.millis();
+        new UDPSender(LOCALHOST, udpport, mode, Collections.<String, ChatProcotol.Data.Mark>emptyMap(), fec,
+                ChatProcotol.Data.compression.NONE).run();
+        Download download = null;
+        while (!Chat.historyFromOthers.isEmpty()) {
+            if (download == null && !Chat.currentDownloads.isEmpty()) {
+                download = Chat.currentDownloads.values().iterator().next();
+            }
+            Thread.sleep(1);
+        }
+        long elapsed = Math.max(1, Chat.time.millis() - start);
+
+        boolean ok = (Chat.history.size() == messages && Chat.history.get().get(messages - 1).equals(last));
+        System.out.println("mode: " + mode + " fec: " + fec + " time: " + elapsed + " ms"
+                + " goodput: " + (bytes / elapsed) + " KB/s"
+                + " retransmitted: " + (download == null ? "-" : download.getRetransmissions()
+                + "/" + download.getTransmissions())
+                + " impairment: " + (Chat.impairment == null ? "none" : Chat.impairment) + " ok: " + ok);
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Move the simulated clock a tick at a time, speed times faster than real time.
+     *
+     * @param clock
+     * @param speed
+     */
+    private static void startClock(SimulatedClock clock, double speed) {
+        long pause = (long) (TimeUnit.MILLISECONDS.toNanos(TransferScheduler.TICK) / speed);
+        Thread clockThread = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(pause);
+                clock.advance(TransferScheduler.TICK, TimeUnit.MILLISECONDS);
+            }
+        });
+        clockThread.setDaemon(true);
+        clockThread.start();
+    }
+}
@@ -0,0 +1,153 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A benchmark of importing a downloaded history from its chunks, the time and the bytes allocated per import.
+ * The copy way joins the chunks into a temporary array byte by byte before parsing, like the old finishData,
+ * the rope way parses straight from the chunks joined into a rope, without copying them,
+ * and the streaming way hands the chunks to a HistoryDecoder one at a time, the way a download imports them now.
+ * The allocation is measured on the thread itself, which needs a HotSpot JVM.
+ *
+ * Usage: HistoryParse messages chunksize [iterations]
+ * Prints one line for each way: the milliseconds and the megabytes allocated per import.
+ */
+public class HistoryParse {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * A way to import the chunks, returning the number of messages imported.
+     */
+    private interface Import {
+        int run(List<ByteString> chunks) throws Exception;
+    }
+
+    /**
+     * Warm every way up, then time them one after another.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.parseInt(args[0]);
+        int chunkSize = Integer.parseInt(args[1]);
+        int iterations = (args.length > 2 ? Integer.parseInt(args[2]) : 50);
+
+        List<ChatProcotol.Chat> history = new ArrayList<>();
+        for (int i = 1; i <= messages; i++) {
+            history.add(ChatProcotol.Chat.newBuilder().setFrom("bench").setMessage("This is Grrrr " + i)
+                    .setIsBcast(true).setTimestamp(i).build());
+        }
+        byte[] bytes = HistorySnapshot.serialize(history);
+        List<ByteString> chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            chunks.add(ByteString.copyFrom(bytes, offset, Math.min(chunkSize, bytes.length - offset)));
+        }
+        System.out.println("history: " + bytes.length + " bytes in " + chunks.size() + " chunks");
+
+        measure("copy", HistoryParse::copy, chunks, messages, iterations);
+        measure("rope", HistoryParse::rope, chunks, messages, iterations);
+        measure("streaming", HistoryParse::streaming, chunks, messages, iterations);
+        System.exit(0);
+    }
+
+    /**
+     * Run one way as many times as the iterations after as many warm-up runs, and print its averages.
+     *
+     * @param name
+     * @param way
+     * @param chunks
+     * @param messages
+     * @param iterations
+     * @throws Exception
+     */
+    private static void measure(String name, Import way, List<ByteString> chunks, int messages, int iterations)
+            throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            check(way.run(chunks), messages);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long allocated = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            check(way.run(chunks), messages);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / iterations;
+        double megabytes = (THREADS.getThreadAllocatedBytes(thread) - allocated) / 1048576.0 / iterations;
+
+        System.out.println(String.format("%-10s %8.2f ms %8.2f MB", name, millis, megabytes));
+    }
+
+    /**
+     * Make sure every message was imported.
+     *
+     * @param imported
+     * @param messages
+     */
+    private static void check(int imported, int messages) {
+        if (imported != messages) {
+            throw new IllegalStateException("imported " + imported + " of " + messages + " messages.");
+        }
+    }
+
+    /**
+     * Copy every chunk into a temporary array byte by byte and parse it.
+     *
+     * @param chunks
+     * @return int
+     * @throws Exception
+     */
+    private static int copy(List<ByteString> chunks) throws Exception {
+        int size = 0;
+        for (ByteString chunk : chunks) {
+            size += chunk.size();
+        }
+        byte[] temp = new byte[size];
+        int position = 0;
+        for (ByteString chunk : chunks) {
+            for (byte b : chunk.toByteArray()) {
+                temp[position++] = b;
+            }
+        }
+
+        return ChatProcotol.History.parseFrom(temp).getHistoryCount();
+    }
+
+    /**
+     * Join the chunks into a rope and parse it without copying them.
+     *
+     * @param chunks
+     * @return int
+     * @throws Exception
+     */
+    private static int rope(List<ByteString> chunks) throws Exception {
+        CodedInputStream input = ByteString.copyFrom(chunks).newCodedInput();
+
+        return ChatProcotol.History.parseFrom(input).getHistoryCount();
+    }
+
+    /**
+     * Hand the chunks to a decoder importing them into user's history as they come.
+     *
+     * @param chunks
+     * @return int
+     */
+    private static int streaming(List<ByteString> chunks) {
+        HistoryDecoder decoder = new HistoryDecoder(Collections.<String, ChatProcotol.Data.Mark>emptyMap());
+        for (int i = 0; i < chunks.size(); i++) {
+            decoder.accept(chunks.get(i), i == chunks.size() - 1);
+        }
+
+        return Chat.history.size();
+    }
+}
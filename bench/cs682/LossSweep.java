@@ -0,0 +1,97 @@
+package cs682;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sweep of the completion time of a history transfer over loss rates,
+ * with Go-Back-N and Selective Repeat, each with and without forward error correction.
+ * Every run is a Goodput benchmark in a JVM of its own on a port of its own,
+ * so the runs don't share the history, the estimators or the sockets, and each one has its own seed.
+ *
+ * Usage: LossSweep messages baseport [runs] [loss,loss,...]
+ * Prints one row for each loss rate, the fastest and the slowest run of each column in seconds.
+ */
+public class LossSweep {
+
+    private static final String[] MODES = {"GO_BACK_N", "SELECTIVE_REPEAT"};
+    private static final String DEFAULT_LOSSES = "0.01,0.03,0.05,0.1";
+
+    /**
+     * Run the sweep and print the table.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        String messages = args[0];
+        int port = Integer.parseInt(args[1]);
+        int runs = (args.length > 2 ? Integer.parseInt(args[2]) : 3);
+        String[] losses = (args.length > 3 ? args[3] : DEFAULT_LOSSES).split(",");
+
+        System.out.println(String.format("%-6s %-15s %-15s %-15s %s",
+                "loss", "GBN", "GBN+FEC", "SR", "SR+FEC"));
+        for (String loss : losses) {
+            StringBuilder row = new StringBuilder(String.format("%-6s", loss));
+            for (String mode : MODES) {
+                for (int fec : new int[] {0, Chat.FEC_BLOCK}) {
+                    List<Double> times = new ArrayList<>();
+                    for (int run = 1; run <= runs; run++) {
+                        String impairment = "loss=" + loss + ",seed=" + run;
+                        times.add(goodput(messages, String.valueOf(port++), mode, fec, impairment));
+                    }
+                    row.append(String.format(" %-15s", String.format("%.2f-%.2f",
+                            Collections.min(times), Collections.max(times))));
+                }
+            }
+            System.out.println(row.toString().trim());
+        }
+    }
+
+    /**
+     * Run a Goodput benchmark in a new JVM with the same class path, and return its time.
+     *
+     * @param messages
+     * @param port
+     * @param mode
+     * @param fec
+     * @param impairment
+     * @return double
+     *      - the time of the transfer in seconds
+     * @throws Exception
+     *      - if the run fails or the history doesn't arrive intact
+     */
+    private static double goodput(String messages, String port, String mode, int fec, String impairment)
+            throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Goodput.class.getName(), messages, port, mode, String.valueOf(fec), impairment)
+                .redirectErrorStream(true).start();
+
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("mode: ")) {
+                    result = line;
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("run failed: " + mode + " fec " + fec + " " + impairment);
+        }
+
+        String[] fields = result.split(" ");
+        for (int i = 0; i < fields.length - 1; i++) {
+            if (fields[i].equals("time:")) {
+                return Long.parseLong(fields[i + 1]) / 1000.0;
+            }
+        }
+
+        throw new IllegalStateException("no time in: " + result);
+    }
+}
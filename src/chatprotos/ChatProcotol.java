@@ -840,6 +840,229 @@ public final class ChatProcotol {
      * <code>bool is_last = 4;</code>
      */
     boolean getIsLast();
+
+    /**
+     * <pre>
+     * REQUEST: largest data size per packet the requester can receive, INFO: data size per packet of the Merkle tree asked for
+     * </pre>
+     *
+     * <code>int32 chunk_size = 5;</code>
+     */
+    int getChunkSize();
+
+    /**
+     * <pre>
+     * REQUEST: how the sender recovers lost packets
+     * </pre>
+     *
+     * <code>.Data.transferMode mode = 6;</code>
+     */
+    int getModeValue();
+    /**
+     * <pre>
+     * REQUEST: how the sender recovers lost packets
+     * </pre>
+     *
+     * <code>.Data.transferMode mode = 6;</code>
+     */
+    chatprotos.ChatProcotol.Data.transferMode getMode();
+
+    /**
+     * <pre>
+     * ACK: bit i is set when packet seq_no + 2 + i has been received out of order
+     * </pre>
+     *
+     * <code>bytes sack = 7;</code>
+     */
+    com.google.protobuf.ByteString getSack();
+
+    /**
+     * <pre>
+     * REQUEST: only the messages with a timestamp greater than this, 0 for the entire history, the smallest of the marks for the nodes which don't know them
+     * </pre>
+     *
+     * <code>int64 since = 8;</code>
+     */
+    long getSince();
+
+    /**
+     * <pre>
+     * INFO: digest of the history, REQUEST: only a range of the history with this digest, or resume the transfer with this snapshot id, DATA and PARITY: snapshot id of the transfer, on the first packet and the first block, STREAM: snapshot id of the history to stream
+     * </pre>
+     *
+     * <code>bytes digest = 9;</code>
+     */
+    com.google.protobuf.ByteString getDigest();
+
+    /**
+     * <pre>
+     * REQUEST: first byte of the range, STREAM in Chat: first byte to stream
+     * </pre>
+     *
+     * <code>int32 offset = 10;</code>
+     */
+    int getOffset();
+
+    /**
+     * <pre>
+     * INFO: size of the history in bytes, REQUEST: size of the range, PARITY: XOR of the sizes of the chunks, STREAM: size of the history to stream
+     * </pre>
+     *
+     * <code>int32 length = 11;</code>
+     */
+    int getLength();
+
+    /**
+     * <pre>
+     * REQUEST: longest time in milliseconds the requester holds an acknowledgement back
+     * </pre>
+     *
+     * <code>int32 ack_delay = 12;</code>
+     */
+    int getAckDelay();
+
+    /**
+     * <pre>
+     * REQUEST: number of DATA packets in a block protected by one PARITY packet, 0 for none, PARITY: number of DATA packets in its block
+     * </pre>
+     *
+     * <code>int32 fec = 13;</code>
+     */
+    int getFec();
+
+    /**
+     * <pre>
+     * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+     * </pre>
+     *
+     * <code>.Data.compression codec = 14;</code>
+     */
+    int getCodecValue();
+    /**
+     * <pre>
+     * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+     * </pre>
+     *
+     * <code>.Data.compression codec = 14;</code>
+     */
+    chatprotos.ChatProcotol.Data.compression getCodec();
+
+    /**
+     * <pre>
+     * REQUEST: sequence number of the last packet the requester has in order, the transfer resumes after it
+     * </pre>
+     *
+     * <code>int32 resume = 15;</code>
+     */
+    int getResume();
+
+    /**
+     * <pre>
+     * DATA and PARITY: CRC-32C of the data, 0 from the nodes which don't send one
+     * </pre>
+     *
+     * <code>fixed32 crc = 16;</code>
+     */
+    int getCrc();
+
+    /**
+     * <pre>
+     * INFO: Merkle root of the history, one leaf per packet
+     * </pre>
+     *
+     * <code>bytes root = 17;</code>
+     */
+    com.google.protobuf.ByteString getRoot();
+
+    /**
+     * <pre>
+     * DATA and PARITY: hashes to check a range against the Merkle root, on the first block of a range
+     * </pre>
+     *
+     * <code>bytes proof = 18;</code>
+     */
+    com.google.protobuf.ByteString getProof();
+
+    /**
+     * <pre>
+     * STREAM: TCP port to stream the history from
+     * </pre>
+     *
+     * <code>int32 tcp_port = 19;</code>
+     */
+    int getTcpPort();
+
+    /**
+     * <pre>
+     * REQUEST and ACK: number of packets the requester can take after the last one it has in order
+     * </pre>
+     *
+     * <code>int32 window = 20;</code>
+     */
+    int getWindow();
+
+    /**
+     * <pre>
+     * every packet of a transfer: id the requester picked for it, 0 for a node without one
+     * </pre>
+     *
+     * <code>int32 session = 21;</code>
+     */
+    int getSession();
+
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+    int getMarksCount();
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+    boolean containsMarks(
+        java.lang.String key);
+    /**
+     * Use {@link #getMarksMap()} instead.
+     */
+    @java.lang.Deprecated
+    java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+    getMarks();
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+    java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+    getMarksMap();
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+
+    chatprotos.ChatProcotol.Data.Mark getMarksOrDefault(
+        java.lang.String key,
+        chatprotos.ChatProcotol.Data.Mark defaultValue);
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+
+    chatprotos.ChatProcotol.Data.Mark getMarksOrThrow(
+        java.lang.String key);
   }
   /**
    * Protobuf type {@code Data}
@@ -858,6 +1081,23 @@ public final class ChatProcotol {
       seqNo_ = 0;
       data_ = com.google.protobuf.ByteString.EMPTY;
       isLast_ = false;
+      chunkSize_ = 0;
+      mode_ = 0;
+      sack_ = com.google.protobuf.ByteString.EMPTY;
+      since_ = 0L;
+      digest_ = com.google.protobuf.ByteString.EMPTY;
+      offset_ = 0;
+      length_ = 0;
+      ackDelay_ = 0;
+      fec_ = 0;
+      codec_ = 0;
+      resume_ = 0;
+      crc_ = 0;
+      root_ = com.google.protobuf.ByteString.EMPTY;
+      proof_ = com.google.protobuf.ByteString.EMPTY;
+      tcpPort_ = 0;
+      window_ = 0;
+      session_ = 0;
     }
 
     @java.lang.Override
@@ -912,6 +1152,106 @@ public final class ChatProcotol {
               isLast_ = input.readBool();
               break;
             }
+            case 40: {
+
+              chunkSize_ = input.readInt32();
+              break;
+            }
+            case 48: {
+              int rawValue = input.readEnum();
+
+              mode_ = rawValue;
+              break;
+            }
+            case 58: {
+
+              sack_ = input.readBytes();
+              break;
+            }
+            case 64: {
+
+              since_ = input.readInt64();
+              break;
+            }
+            case 74: {
+
+              digest_ = input.readBytes();
+              break;
+            }
+            case 80: {
+
+              offset_ = input.readInt32();
+              break;
+            }
+            case 88: {
+
+              length_ = input.readInt32();
+              break;
+            }
+            case 96: {
+
+              ackDelay_ = input.readInt32();
+              break;
+            }
+            case 104: {
+
+              fec_ = input.readInt32();
+              break;
+            }
+            case 112: {
+              int rawValue = input.readEnum();
+
+              codec_ = rawValue;
+              break;
+            }
+            case 120: {
+
+              resume_ = input.readInt32();
+              break;
+            }
+            case 133: {
+
+              crc_ = input.readFixed32();
+              break;
+            }
+            case 138: {
+
+              root_ = input.readBytes();
+              break;
+            }
+            case 146: {
+
+              proof_ = input.readBytes();
+              break;
+            }
+            case 152: {
+
+              tcpPort_ = input.readInt32();
+              break;
+            }
+            case 160: {
+
+              window_ = input.readInt32();
+              break;
+            }
+            case 168: {
+
+              session_ = input.readInt32();
+              break;
+            }
+            case 178: {
+              if (!((mutable_bitField0_ & 0x00200000) == 0x00200000)) {
+                marks_ = com.google.protobuf.MapField.newMapField(
+                    MarksDefaultEntryHolder.defaultEntry);
+                mutable_bitField0_ |= 0x00200000;
+              }
+              com.google.protobuf.MapEntry<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+              marks__ = input.readMessage(
+                  MarksDefaultEntryHolder.defaultEntry.getParserForType(), extensionRegistry);
+              marks_.getMutableMap().put(
+                  marks__.getKey(), marks__.getValue());
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -929,6 +1269,17 @@ public final class ChatProcotol {
       return chatprotos.ChatProcotol.internal_static_Data_descriptor;
     }
 
+    @SuppressWarnings({"rawtypes"})
+    protected com.google.protobuf.MapField internalGetMapField(
+        int number) {
+      switch (number) {
+        case 22:
+          return internalGetMarks();
+        default:
+          throw new RuntimeException(
+              "Invalid map field number: " + number);
+      }
+    }
     protected com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
         internalGetFieldAccessorTable() {
       return chatprotos.ChatProcotol.internal_static_Data_fieldAccessorTable
@@ -953,6 +1304,18 @@ public final class ChatProcotol {
        * <code>DATA = 2;</code>
        */
       DATA(2),
+      /**
+       * <code>INFO = 3;</code>
+       */
+      INFO(3),
+      /**
+       * <code>PARITY = 4;</code>
+       */
+      PARITY(4),
+      /**
+       * <code>STREAM = 5;</code>
+       */
+      STREAM(5),
       UNRECOGNIZED(-1),
       ;
 
@@ -968,6 +1331,18 @@ public final class ChatProcotol {
        * <code>DATA = 2;</code>
        */
       public static final int DATA_VALUE = 2;
+      /**
+       * <code>INFO = 3;</code>
+       */
+      public static final int INFO_VALUE = 3;
+      /**
+       * <code>PARITY = 4;</code>
+       */
+      public static final int PARITY_VALUE = 4;
+      /**
+       * <code>STREAM = 5;</code>
+       */
+      public static final int STREAM_VALUE = 5;
 
 
       public final int getNumber() {
@@ -991,6 +1366,9 @@ public final class ChatProcotol {
           case 0: return REQUEST;
           case 1: return ACK;
           case 2: return DATA;
+          case 3: return INFO;
+          case 4: return PARITY;
+          case 5: return STREAM;
           default: return null;
         }
       }
@@ -1043,507 +1421,2796 @@ public final class ChatProcotol {
       // @@protoc_insertion_point(enum_scope:Data.packetType)
     }
 
-    public static final int TYPE_FIELD_NUMBER = 1;
-    private int type_;
-    /**
-     * <code>.Data.packetType type = 1;</code>
-     */
-    public int getTypeValue() {
-      return type_;
-    }
     /**
-     * <code>.Data.packetType type = 1;</code>
+     * Protobuf enum {@code Data.compression}
      */
-    public chatprotos.ChatProcotol.Data.packetType getType() {
-      chatprotos.ChatProcotol.Data.packetType result = chatprotos.ChatProcotol.Data.packetType.valueOf(type_);
-      return result == null ? chatprotos.ChatProcotol.Data.packetType.UNRECOGNIZED : result;
-    }
+    public enum compression
+        implements com.google.protobuf.ProtocolMessageEnum {
+      /**
+       * <code>NONE = 0;</code>
+       */
+      NONE(0),
+      /**
+       * <code>DEFLATE = 1;</code>
+       */
+      DEFLATE(1),
+      UNRECOGNIZED(-1),
+      ;
 
-    public static final int SEQ_NO_FIELD_NUMBER = 2;
-    private int seqNo_;
-    /**
-     * <code>int32 seq_no = 2;</code>
-     */
-    public int getSeqNo() {
-      return seqNo_;
-    }
+      /**
+       * <code>NONE = 0;</code>
+       */
+      public static final int NONE_VALUE = 0;
+      /**
+       * <code>DEFLATE = 1;</code>
+       */
+      public static final int DEFLATE_VALUE = 1;
 
-    public static final int DATA_FIELD_NUMBER = 3;
-    private com.google.protobuf.ByteString data_;
-    /**
-     * <code>bytes data = 3;</code>
-     */
-    public com.google.protobuf.ByteString getData() {
-      return data_;
-    }
 
-    public static final int IS_LAST_FIELD_NUMBER = 4;
-    private boolean isLast_;
-    /**
-     * <code>bool is_last = 4;</code>
-     */
-    public boolean getIsLast() {
-      return isLast_;
-    }
+      public final int getNumber() {
+        if (this == UNRECOGNIZED) {
+          throw new java.lang.IllegalArgumentException(
+              "Can't get the number of an unknown enum value.");
+        }
+        return value;
+      }
 
-    private byte memoizedIsInitialized = -1;
-    public final boolean isInitialized() {
-      byte isInitialized = memoizedIsInitialized;
-      if (isInitialized == 1) return true;
-      if (isInitialized == 0) return false;
+      /**
+       * @deprecated Use {@link #forNumber(int)} instead.
+       */
+      @java.lang.Deprecated
+      public static compression valueOf(int value) {
+        return forNumber(value);
+      }
 
-      memoizedIsInitialized = 1;
-      return true;
-    }
+      public static compression forNumber(int value) {
+        switch (value) {
+          case 0: return NONE;
+          case 1: return DEFLATE;
+          default: return null;
+        }
+      }
 
-    public void writeTo(com.google.protobuf.CodedOutputStream output)
-                        throws java.io.IOException {
-      if (type_ != chatprotos.ChatProcotol.Data.packetType.REQUEST.getNumber()) {
-        output.writeEnum(1, type_);
+      public static com.google.protobuf.Internal.EnumLiteMap<compression>
+          internalGetValueMap() {
+        return internalValueMap;
       }
-      if (seqNo_ != 0) {
-        output.writeInt32(2, seqNo_);
+      private static final com.google.protobuf.Internal.EnumLiteMap<
+          compression> internalValueMap =
+            new com.google.protobuf.Internal.EnumLiteMap<compression>() {
+              public compression findValueByNumber(int number) {
+                return compression.forNumber(number);
+              }
+            };
+
+      public final com.google.protobuf.Descriptors.EnumValueDescriptor
+          getValueDescriptor() {
+        return getDescriptor().getValues().get(ordinal());
       }
-      if (!data_.isEmpty()) {
-        output.writeBytes(3, data_);
+      public final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptorForType() {
+        return getDescriptor();
       }
-      if (isLast_ != false) {
-        output.writeBool(4, isLast_);
+      public static final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptor() {
+        return chatprotos.ChatProcotol.Data.getDescriptor().getEnumTypes().get(1);
       }
-      unknownFields.writeTo(output);
-    }
 
-    public int getSerializedSize() {
-      int size = memoizedSize;
-      if (size != -1) return size;
+      private static final compression[] VALUES = values();
 
-      size = 0;
-      if (type_ != chatprotos.ChatProcotol.Data.packetType.REQUEST.getNumber()) {
-        size += com.google.protobuf.CodedOutputStream
-          .computeEnumSize(1, type_);
+      public static compression valueOf(
+          com.google.protobuf.Descriptors.EnumValueDescriptor desc) {
+        if (desc.getType() != getDescriptor()) {
+          throw new java.lang.IllegalArgumentException(
+            "EnumValueDescriptor is not for this type.");
+        }
+        if (desc.getIndex() == -1) {
+          return UNRECOGNIZED;
+        }
+        return VALUES[desc.getIndex()];
       }
-      if (seqNo_ != 0) {
-        size += com.google.protobuf.CodedOutputStream
-          .computeInt32Size(2, seqNo_);
+
+      private final int value;
+
+      private compression(int value) {
+        this.value = value;
       }
-      if (!data_.isEmpty()) {
-        size += com.google.protobuf.CodedOutputStream
-          .computeBytesSize(3, data_);
+
+      // @@protoc_insertion_point(enum_scope:Data.compression)
+    }
+
+    /**
+     * Protobuf enum {@code Data.transferMode}
+     */
+    public enum transferMode
+        implements com.google.protobuf.ProtocolMessageEnum {
+      /**
+       * <code>GO_BACK_N = 0;</code>
+       */
+      GO_BACK_N(0),
+      /**
+       * <code>SELECTIVE_REPEAT = 1;</code>
+       */
+      SELECTIVE_REPEAT(1),
+      UNRECOGNIZED(-1),
+      ;
+
+      /**
+       * <code>GO_BACK_N = 0;</code>
+       */
+      public static final int GO_BACK_N_VALUE = 0;
+      /**
+       * <code>SELECTIVE_REPEAT = 1;</code>
+       */
+      public static final int SELECTIVE_REPEAT_VALUE = 1;
+
+
+      public final int getNumber() {
+        if (this == UNRECOGNIZED) {
+          throw new java.lang.IllegalArgumentException(
+              "Can't get the number of an unknown enum value.");
+        }
+        return value;
       }
-      if (isLast_ != false) {
-        size += com.google.protobuf.CodedOutputStream
-          .computeBoolSize(4, isLast_);
+
+      /**
+       * @deprecated Use {@link #forNumber(int)} instead.
+       */
+      @java.lang.Deprecated
+      public static transferMode valueOf(int value) {
+        return forNumber(value);
       }
-      size += unknownFields.getSerializedSize();
-      memoizedSize = size;
-      return size;
-    }
 
-    @java.lang.Override
-    public boolean equals(final java.lang.Object obj) {
-      if (obj == this) {
-       return true;
+      public static transferMode forNumber(int value) {
+        switch (value) {
+          case 0: return GO_BACK_N;
+          case 1: return SELECTIVE_REPEAT;
+          default: return null;
+        }
       }
-      if (!(obj instanceof chatprotos.ChatProcotol.Data)) {
-        return super.equals(obj);
+
+      public static com.google.protobuf.Internal.EnumLiteMap<transferMode>
+          internalGetValueMap() {
+        return internalValueMap;
       }
-      chatprotos.ChatProcotol.Data other = (chatprotos.ChatProcotol.Data) obj;
+      private static final com.google.protobuf.Internal.EnumLiteMap<
+          transferMode> internalValueMap =
+            new com.google.protobuf.Internal.EnumLiteMap<transferMode>() {
+              public transferMode findValueByNumber(int number) {
+                return transferMode.forNumber(number);
+              }
+            };
 
-      boolean result = true;
-      result = result && type_ == other.type_;
-      result = result && (getSeqNo()
-          == other.getSeqNo());
-      result = result && getData()
-          .equals(other.getData());
-      result = result && (getIsLast()
-          == other.getIsLast());
-      result = result && unknownFields.equals(other.unknownFields);
-      return result;
-    }
+      public final com.google.protobuf.Descriptors.EnumValueDescriptor
+          getValueDescriptor() {
+        return getDescriptor().getValues().get(ordinal());
+      }
+      public final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptorForType() {
+        return getDescriptor();
+      }
+      public static final com.google.protobuf.Descriptors.EnumDescriptor
+          getDescriptor() {
+        return chatprotos.ChatProcotol.Data.getDescriptor().getEnumTypes().get(2);
+      }
 
-    @java.lang.Override
-    public int hashCode() {
-      if (memoizedHashCode != 0) {
-        return memoizedHashCode;
+      private static final transferMode[] VALUES = values();
+
+      public static transferMode valueOf(
+          com.google.protobuf.Descriptors.EnumValueDescriptor desc) {
+        if (desc.getType() != getDescriptor()) {
+          throw new java.lang.IllegalArgumentException(
+            "EnumValueDescriptor is not for this type.");
+        }
+        if (desc.getIndex() == -1) {
+          return UNRECOGNIZED;
+        }
+        return VALUES[desc.getIndex()];
       }
-      int hash = 41;
-      hash = (19 * hash) + getDescriptor().hashCode();
-      hash = (37 * hash) + TYPE_FIELD_NUMBER;
-      hash = (53 * hash) + type_;
-      hash = (37 * hash) + SEQ_NO_FIELD_NUMBER;
-      hash = (53 * hash) + getSeqNo();
-      hash = (37 * hash) + DATA_FIELD_NUMBER;
-      hash = (53 * hash) + getData().hashCode();
-      hash = (37 * hash) + IS_LAST_FIELD_NUMBER;
-      hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
-          getIsLast());
-      hash = (29 * hash) + unknownFields.hashCode();
-      memoizedHashCode = hash;
-      return hash;
-    }
 
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        java.nio.ByteBuffer data)
-        throws com.google.protobuf.InvalidProtocolBufferException {
-      return PARSER.parseFrom(data);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        java.nio.ByteBuffer data,
-        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-        throws com.google.protobuf.InvalidProtocolBufferException {
-      return PARSER.parseFrom(data, extensionRegistry);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        com.google.protobuf.ByteString data)
-        throws com.google.protobuf.InvalidProtocolBufferException {
-      return PARSER.parseFrom(data);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        com.google.protobuf.ByteString data,
-        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-        throws com.google.protobuf.InvalidProtocolBufferException {
-      return PARSER.parseFrom(data, extensionRegistry);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(byte[] data)
-        throws com.google.protobuf.InvalidProtocolBufferException {
-      return PARSER.parseFrom(data);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        byte[] data,
-        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-        throws com.google.protobuf.InvalidProtocolBufferException {
-      return PARSER.parseFrom(data, extensionRegistry);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(java.io.InputStream input)
-        throws java.io.IOException {
-      return com.google.protobuf.GeneratedMessageV3
-          .parseWithIOException(PARSER, input);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        java.io.InputStream input,
-        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-        throws java.io.IOException {
-      return com.google.protobuf.GeneratedMessageV3
-          .parseWithIOException(PARSER, input, extensionRegistry);
-    }
-    public static chatprotos.ChatProcotol.Data parseDelimitedFrom(java.io.InputStream input)
-        throws java.io.IOException {
-      return com.google.protobuf.GeneratedMessageV3
-          .parseDelimitedWithIOException(PARSER, input);
-    }
-    public static chatprotos.ChatProcotol.Data parseDelimitedFrom(
-        java.io.InputStream input,
-        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-        throws java.io.IOException {
-      return com.google.protobuf.GeneratedMessageV3
-          .parseDelimitedWithIOException(PARSER, input, extensionRegistry);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        com.google.protobuf.CodedInputStream input)
-        throws java.io.IOException {
-      return com.google.protobuf.GeneratedMessageV3
-          .parseWithIOException(PARSER, input);
-    }
-    public static chatprotos.ChatProcotol.Data parseFrom(
-        com.google.protobuf.CodedInputStream input,
-        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-        throws java.io.IOException {
-      return com.google.protobuf.GeneratedMessageV3
-          .parseWithIOException(PARSER, input, extensionRegistry);
-    }
+      private final int value;
 
-    public Builder newBuilderForType() { return newBuilder(); }
-    public static Builder newBuilder() {
-      return DEFAULT_INSTANCE.toBuilder();
-    }
-    public static Builder newBuilder(chatprotos.ChatProcotol.Data prototype) {
-      return DEFAULT_INSTANCE.toBuilder().mergeFrom(prototype);
-    }
-    public Builder toBuilder() {
-      return this == DEFAULT_INSTANCE
-          ? new Builder() : new Builder().mergeFrom(this);
+      private transferMode(int value) {
+        this.value = value;
+      }
+
+      // @@protoc_insertion_point(enum_scope:Data.transferMode)
     }
 
-    @java.lang.Override
-    protected Builder newBuilderForType(
-        com.google.protobuf.GeneratedMessageV3.BuilderParent parent) {
-      Builder builder = new Builder(parent);
-      return builder;
+    public interface MarkOrBuilder extends
+        // @@protoc_insertion_point(interface_extends:Data.Mark)
+        com.google.protobuf.MessageOrBuilder {
+
+      /**
+       * <pre>
+       * timestamp of the latest message from the sender
+       * </pre>
+       *
+       * <code>int64 timestamp = 1;</code>
+       */
+      long getTimestamp();
+
+      /**
+       * <pre>
+       * number of messages from the sender
+       * </pre>
+       *
+       * <code>int32 count = 2;</code>
+       */
+      int getCount();
     }
     /**
-     * Protobuf type {@code Data}
+     * Protobuf type {@code Data.Mark}
      */
-    public static final class Builder extends
-        com.google.protobuf.GeneratedMessageV3.Builder<Builder> implements
-        // @@protoc_insertion_point(builder_implements:Data)
-        chatprotos.ChatProcotol.DataOrBuilder {
+    public  static final class Mark extends
+        com.google.protobuf.GeneratedMessageV3 implements
+        // @@protoc_insertion_point(message_implements:Data.Mark)
+        MarkOrBuilder {
+    private static final long serialVersionUID = 0L;
+      // Use Mark.newBuilder() to construct.
+      private Mark(com.google.protobuf.GeneratedMessageV3.Builder<?> builder) {
+        super(builder);
+      }
+      private Mark() {
+        timestamp_ = 0L;
+        count_ = 0;
+      }
+
+      @java.lang.Override
+      public final com.google.protobuf.UnknownFieldSet
+      getUnknownFields() {
+        return this.unknownFields;
+      }
+      private Mark(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        this();
+        if (extensionRegistry == null) {
+          throw new java.lang.NullPointerException();
+        }
+        int mutable_bitField0_ = 0;
+        com.google.protobuf.UnknownFieldSet.Builder unknownFields =
+            com.google.protobuf.UnknownFieldSet.newBuilder();
+        try {
+          boolean done = false;
+          while (!done) {
+            int tag = input.readTag();
+            switch (tag) {
+              case 0:
+                done = true;
+                break;
+              default: {
+                if (!parseUnknownFieldProto3(
+                    input, unknownFields, extensionRegistry, tag)) {
+                  done = true;
+                }
+                break;
+              }
+              case 8: {
+
+                timestamp_ = input.readInt64();
+                break;
+              }
+              case 16: {
+
+                count_ = input.readInt32();
+                break;
+              }
+            }
+          }
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          throw e.setUnfinishedMessage(this);
+        } catch (java.io.IOException e) {
+          throw new com.google.protobuf.InvalidProtocolBufferException(
+              e).setUnfinishedMessage(this);
+        } finally {
+          this.unknownFields = unknownFields.build();
+          makeExtensionsImmutable();
+        }
+      }
       public static final com.google.protobuf.Descriptors.Descriptor
           getDescriptor() {
-        return chatprotos.ChatProcotol.internal_static_Data_descriptor;
+        return chatprotos.ChatProcotol.internal_static_Data_Mark_descriptor;
+      }
+
+      protected com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return chatprotos.ChatProcotol.internal_static_Data_Mark_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                chatprotos.ChatProcotol.Data.Mark.class, chatprotos.ChatProcotol.Data.Mark.Builder.class);
+      }
+
+      public static final int TIMESTAMP_FIELD_NUMBER = 1;
+      private long timestamp_;
+      /**
+       * <pre>
+       * timestamp of the latest message from the sender
+       * </pre>
+       *
+       * <code>int64 timestamp = 1;</code>
+       */
+      public long getTimestamp() {
+        return timestamp_;
+      }
+
+      public static final int COUNT_FIELD_NUMBER = 2;
+      private int count_;
+      /**
+       * <pre>
+       * number of messages from the sender
+       * </pre>
+       *
+       * <code>int32 count = 2;</code>
+       */
+      public int getCount() {
+        return count_;
+      }
+
+      private byte memoizedIsInitialized = -1;
+      public final boolean isInitialized() {
+        byte isInitialized = memoizedIsInitialized;
+        if (isInitialized == 1) return true;
+        if (isInitialized == 0) return false;
+
+        memoizedIsInitialized = 1;
+        return true;
+      }
+
+      public void writeTo(com.google.protobuf.CodedOutputStream output)
+                          throws java.io.IOException {
+        if (timestamp_ != 0L) {
+          output.writeInt64(1, timestamp_);
+        }
+        if (count_ != 0) {
+          output.writeInt32(2, count_);
+        }
+        unknownFields.writeTo(output);
+      }
+
+      public int getSerializedSize() {
+        int size = memoizedSize;
+        if (size != -1) return size;
+
+        size = 0;
+        if (timestamp_ != 0L) {
+          size += com.google.protobuf.CodedOutputStream
+            .computeInt64Size(1, timestamp_);
+        }
+        if (count_ != 0) {
+          size += com.google.protobuf.CodedOutputStream
+            .computeInt32Size(2, count_);
+        }
+        size += unknownFields.getSerializedSize();
+        memoizedSize = size;
+        return size;
+      }
+
+      @java.lang.Override
+      public boolean equals(final java.lang.Object obj) {
+        if (obj == this) {
+         return true;
+        }
+        if (!(obj instanceof chatprotos.ChatProcotol.Data.Mark)) {
+          return super.equals(obj);
+        }
+        chatprotos.ChatProcotol.Data.Mark other = (chatprotos.ChatProcotol.Data.Mark) obj;
+
+        boolean result = true;
+        result = result && (getTimestamp()
+            == other.getTimestamp());
+        result = result && (getCount()
+            == other.getCount());
+        result = result && unknownFields.equals(other.unknownFields);
+        return result;
+      }
+
+      @java.lang.Override
+      public int hashCode() {
+        if (memoizedHashCode != 0) {
+          return memoizedHashCode;
+        }
+        int hash = 41;
+        hash = (19 * hash) + getDescriptor().hashCode();
+        hash = (37 * hash) + TIMESTAMP_FIELD_NUMBER;
+        hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+            getTimestamp());
+        hash = (37 * hash) + COUNT_FIELD_NUMBER;
+        hash = (53 * hash) + getCount();
+        hash = (29 * hash) + unknownFields.hashCode();
+        memoizedHashCode = hash;
+        return hash;
+      }
+
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          java.nio.ByteBuffer data)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return PARSER.parseFrom(data);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          java.nio.ByteBuffer data,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return PARSER.parseFrom(data, extensionRegistry);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          com.google.protobuf.ByteString data)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return PARSER.parseFrom(data);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          com.google.protobuf.ByteString data,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return PARSER.parseFrom(data, extensionRegistry);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(byte[] data)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return PARSER.parseFrom(data);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          byte[] data,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws com.google.protobuf.InvalidProtocolBufferException {
+        return PARSER.parseFrom(data, extensionRegistry);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(java.io.InputStream input)
+          throws java.io.IOException {
+        return com.google.protobuf.GeneratedMessageV3
+            .parseWithIOException(PARSER, input);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          java.io.InputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        return com.google.protobuf.GeneratedMessageV3
+            .parseWithIOException(PARSER, input, extensionRegistry);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseDelimitedFrom(java.io.InputStream input)
+          throws java.io.IOException {
+        return com.google.protobuf.GeneratedMessageV3
+            .parseDelimitedWithIOException(PARSER, input);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseDelimitedFrom(
+          java.io.InputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        return com.google.protobuf.GeneratedMessageV3
+            .parseDelimitedWithIOException(PARSER, input, extensionRegistry);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          com.google.protobuf.CodedInputStream input)
+          throws java.io.IOException {
+        return com.google.protobuf.GeneratedMessageV3
+            .parseWithIOException(PARSER, input);
+      }
+      public static chatprotos.ChatProcotol.Data.Mark parseFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        return com.google.protobuf.GeneratedMessageV3
+            .parseWithIOException(PARSER, input, extensionRegistry);
+      }
+
+      public Builder newBuilderForType() { return newBuilder(); }
+      public static Builder newBuilder() {
+        return DEFAULT_INSTANCE.toBuilder();
+      }
+      public static Builder newBuilder(chatprotos.ChatProcotol.Data.Mark prototype) {
+        return DEFAULT_INSTANCE.toBuilder().mergeFrom(prototype);
+      }
+      public Builder toBuilder() {
+        return this == DEFAULT_INSTANCE
+            ? new Builder() : new Builder().mergeFrom(this);
+      }
+
+      @java.lang.Override
+      protected Builder newBuilderForType(
+          com.google.protobuf.GeneratedMessageV3.BuilderParent parent) {
+        Builder builder = new Builder(parent);
+        return builder;
+      }
+      /**
+       * Protobuf type {@code Data.Mark}
+       */
+      public static final class Builder extends
+          com.google.protobuf.GeneratedMessageV3.Builder<Builder> implements
+          // @@protoc_insertion_point(builder_implements:Data.Mark)
+          chatprotos.ChatProcotol.Data.MarkOrBuilder {
+        public static final com.google.protobuf.Descriptors.Descriptor
+            getDescriptor() {
+          return chatprotos.ChatProcotol.internal_static_Data_Mark_descriptor;
+        }
+
+        protected com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
+            internalGetFieldAccessorTable() {
+          return chatprotos.ChatProcotol.internal_static_Data_Mark_fieldAccessorTable
+              .ensureFieldAccessorsInitialized(
+                  chatprotos.ChatProcotol.Data.Mark.class, chatprotos.ChatProcotol.Data.Mark.Builder.class);
+        }
+
+        // Construct using chatprotos.ChatProcotol.Data.Mark.newBuilder()
+        private Builder() {
+          maybeForceBuilderInitialization();
+        }
+
+        private Builder(
+            com.google.protobuf.GeneratedMessageV3.BuilderParent parent) {
+          super(parent);
+          maybeForceBuilderInitialization();
+        }
+        private void maybeForceBuilderInitialization() {
+          if (com.google.protobuf.GeneratedMessageV3
+                  .alwaysUseFieldBuilders) {
+          }
+        }
+        public Builder clear() {
+          super.clear();
+          timestamp_ = 0L;
+
+          count_ = 0;
+
+          return this;
+        }
+
+        public com.google.protobuf.Descriptors.Descriptor
+            getDescriptorForType() {
+          return chatprotos.ChatProcotol.internal_static_Data_Mark_descriptor;
+        }
+
+        public chatprotos.ChatProcotol.Data.Mark getDefaultInstanceForType() {
+          return chatprotos.ChatProcotol.Data.Mark.getDefaultInstance();
+        }
+
+        public chatprotos.ChatProcotol.Data.Mark build() {
+          chatprotos.ChatProcotol.Data.Mark result = buildPartial();
+          if (!result.isInitialized()) {
+            throw newUninitializedMessageException(result);
+          }
+          return result;
+        }
+
+        public chatprotos.ChatProcotol.Data.Mark buildPartial() {
+          chatprotos.ChatProcotol.Data.Mark result = new chatprotos.ChatProcotol.Data.Mark(this);
+          result.timestamp_ = timestamp_;
+          result.count_ = count_;
+          onBuilt();
+          return result;
+        }
+
+        public Builder clone() {
+          return (Builder) super.clone();
+        }
+        public Builder setField(
+            com.google.protobuf.Descriptors.FieldDescriptor field,
+            java.lang.Object value) {
+          return (Builder) super.setField(field, value);
+        }
+        public Builder clearField(
+            com.google.protobuf.Descriptors.FieldDescriptor field) {
+          return (Builder) super.clearField(field);
+        }
+        public Builder clearOneof(
+            com.google.protobuf.Descriptors.OneofDescriptor oneof) {
+          return (Builder) super.clearOneof(oneof);
+        }
+        public Builder setRepeatedField(
+            com.google.protobuf.Descriptors.FieldDescriptor field,
+            int index, java.lang.Object value) {
+          return (Builder) super.setRepeatedField(field, index, value);
+        }
+        public Builder addRepeatedField(
+            com.google.protobuf.Descriptors.FieldDescriptor field,
+            java.lang.Object value) {
+          return (Builder) super.addRepeatedField(field, value);
+        }
+        public Builder mergeFrom(com.google.protobuf.Message other) {
+          if (other instanceof chatprotos.ChatProcotol.Data.Mark) {
+            return mergeFrom((chatprotos.ChatProcotol.Data.Mark)other);
+          } else {
+            super.mergeFrom(other);
+            return this;
+          }
+        }
+
+        public Builder mergeFrom(chatprotos.ChatProcotol.Data.Mark other) {
+          if (other == chatprotos.ChatProcotol.Data.Mark.getDefaultInstance()) return this;
+          if (other.getTimestamp() != 0L) {
+            setTimestamp(other.getTimestamp());
+          }
+          if (other.getCount() != 0) {
+            setCount(other.getCount());
+          }
+          this.mergeUnknownFields(other.unknownFields);
+          onChanged();
+          return this;
+        }
+
+        public final boolean isInitialized() {
+          return true;
+        }
+
+        public Builder mergeFrom(
+            com.google.protobuf.CodedInputStream input,
+            com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+            throws java.io.IOException {
+          chatprotos.ChatProcotol.Data.Mark parsedMessage = null;
+          try {
+            parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+          } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+            parsedMessage = (chatprotos.ChatProcotol.Data.Mark) e.getUnfinishedMessage();
+            throw e.unwrapIOException();
+          } finally {
+            if (parsedMessage != null) {
+              mergeFrom(parsedMessage);
+            }
+          }
+          return this;
+        }
+
+        private long timestamp_ ;
+        /**
+         * <pre>
+         * timestamp of the latest message from the sender
+         * </pre>
+         *
+         * <code>int64 timestamp = 1;</code>
+         */
+        public long getTimestamp() {
+          return timestamp_;
+        }
+        /**
+         * <pre>
+         * timestamp of the latest message from the sender
+         * </pre>
+         *
+         * <code>int64 timestamp = 1;</code>
+         */
+        public Builder setTimestamp(long value) {
+          
+          timestamp_ = value;
+          onChanged();
+          return this;
+        }
+        /**
+         * <pre>
+         * timestamp of the latest message from the sender
+         * </pre>
+         *
+         * <code>int64 timestamp = 1;</code>
+         */
+        public Builder clearTimestamp() {
+          
+          timestamp_ = 0L;
+          onChanged();
+          return this;
+        }
+
+        private int count_ ;
+        /**
+         * <pre>
+         * number of messages from the sender
+         * </pre>
+         *
+         * <code>int32 count = 2;</code>
+         */
+        public int getCount() {
+          return count_;
+        }
+        /**
+         * <pre>
+         * number of messages from the sender
+         * </pre>
+         *
+         * <code>int32 count = 2;</code>
+         */
+        public Builder setCount(int value) {
+          
+          count_ = value;
+          onChanged();
+          return this;
+        }
+        /**
+         * <pre>
+         * number of messages from the sender
+         * </pre>
+         *
+         * <code>int32 count = 2;</code>
+         */
+        public Builder clearCount() {
+          
+          count_ = 0;
+          onChanged();
+          return this;
+        }
+        public final Builder setUnknownFields(
+            final com.google.protobuf.UnknownFieldSet unknownFields) {
+          return super.setUnknownFieldsProto3(unknownFields);
+        }
+
+        public final Builder mergeUnknownFields(
+            final com.google.protobuf.UnknownFieldSet unknownFields) {
+          return super.mergeUnknownFields(unknownFields);
+        }
+
+
+        // @@protoc_insertion_point(builder_scope:Data.Mark)
+      }
+
+      // @@protoc_insertion_point(class_scope:Data.Mark)
+      private static final chatprotos.ChatProcotol.Data.Mark DEFAULT_INSTANCE;
+      static {
+        DEFAULT_INSTANCE = new chatprotos.ChatProcotol.Data.Mark();
+      }
+
+      public static chatprotos.ChatProcotol.Data.Mark getDefaultInstance() {
+        return DEFAULT_INSTANCE;
+      }
+
+      private static final com.google.protobuf.Parser<Mark>
+          PARSER = new com.google.protobuf.AbstractParser<Mark>() {
+        public Mark parsePartialFrom(
+            com.google.protobuf.CodedInputStream input,
+            com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+            throws com.google.protobuf.InvalidProtocolBufferException {
+          return new Mark(input, extensionRegistry);
+        }
+      };
+
+      public static com.google.protobuf.Parser<Mark> parser() {
+        return PARSER;
+      }
+
+      @java.lang.Override
+      public com.google.protobuf.Parser<Mark> getParserForType() {
+        return PARSER;
+      }
+
+      public chatprotos.ChatProcotol.Data.Mark getDefaultInstanceForType() {
+        return DEFAULT_INSTANCE;
+      }
+
+    }
+
+    private int bitField0_;
+    public static final int TYPE_FIELD_NUMBER = 1;
+    private int type_;
+    /**
+     * <code>.Data.packetType type = 1;</code>
+     */
+    public int getTypeValue() {
+      return type_;
+    }
+    /**
+     * <code>.Data.packetType type = 1;</code>
+     */
+    public chatprotos.ChatProcotol.Data.packetType getType() {
+      chatprotos.ChatProcotol.Data.packetType result = chatprotos.ChatProcotol.Data.packetType.valueOf(type_);
+      return result == null ? chatprotos.ChatProcotol.Data.packetType.UNRECOGNIZED : result;
+    }
+
+    public static final int SEQ_NO_FIELD_NUMBER = 2;
+    private int seqNo_;
+    /**
+     * <code>int32 seq_no = 2;</code>
+     */
+    public int getSeqNo() {
+      return seqNo_;
+    }
+
+    public static final int DATA_FIELD_NUMBER = 3;
+    private com.google.protobuf.ByteString data_;
+    /**
+     * <code>bytes data = 3;</code>
+     */
+    public com.google.protobuf.ByteString getData() {
+      return data_;
+    }
+
+    public static final int IS_LAST_FIELD_NUMBER = 4;
+    private boolean isLast_;
+    /**
+     * <code>bool is_last = 4;</code>
+     */
+    public boolean getIsLast() {
+      return isLast_;
+    }
+
+    public static final int CHUNK_SIZE_FIELD_NUMBER = 5;
+    private int chunkSize_;
+    /**
+     * <pre>
+     * REQUEST: largest data size per packet the requester can receive, INFO: data size per packet of the Merkle tree asked for
+     * </pre>
+     *
+     * <code>int32 chunk_size = 5;</code>
+     */
+    public int getChunkSize() {
+      return chunkSize_;
+    }
+
+    public static final int MODE_FIELD_NUMBER = 6;
+    private int mode_;
+    /**
+     * <pre>
+     * REQUEST: how the sender recovers lost packets
+     * </pre>
+     *
+     * <code>.Data.transferMode mode = 6;</code>
+     */
+    public int getModeValue() {
+      return mode_;
+    }
+    /**
+     * <pre>
+     * REQUEST: how the sender recovers lost packets
+     * </pre>
+     *
+     * <code>.Data.transferMode mode = 6;</code>
+     */
+    public chatprotos.ChatProcotol.Data.transferMode getMode() {
+      chatprotos.ChatProcotol.Data.transferMode result = chatprotos.ChatProcotol.Data.transferMode.valueOf(mode_);
+      return result == null ? chatprotos.ChatProcotol.Data.transferMode.UNRECOGNIZED : result;
+    }
+
+    public static final int SACK_FIELD_NUMBER = 7;
+    private com.google.protobuf.ByteString sack_;
+    /**
+     * <pre>
+     * ACK: bit i is set when packet seq_no + 2 + i has been received out of order
+     * </pre>
+     *
+     * <code>bytes sack = 7;</code>
+     */
+    public com.google.protobuf.ByteString getSack() {
+      return sack_;
+    }
+
+    public static final int SINCE_FIELD_NUMBER = 8;
+    private long since_;
+    /**
+     * <pre>
+     * REQUEST: only the messages with a timestamp greater than this, 0 for the entire history, the smallest of the marks for the nodes which don't know them
+     * </pre>
+     *
+     * <code>int64 since = 8;</code>
+     */
+    public long getSince() {
+      return since_;
+    }
+
+    public static final int DIGEST_FIELD_NUMBER = 9;
+    private com.google.protobuf.ByteString digest_;
+    /**
+     * <pre>
+     * INFO: digest of the history, REQUEST: only a range of the history with this digest, or resume the transfer with this snapshot id, DATA and PARITY: snapshot id of the transfer, on the first packet and the first block, STREAM: snapshot id of the history to stream
+     * </pre>
+     *
+     * <code>bytes digest = 9;</code>
+     */
+    public com.google.protobuf.ByteString getDigest() {
+      return digest_;
+    }
+
+    public static final int OFFSET_FIELD_NUMBER = 10;
+    private int offset_;
+    /**
+     * <pre>
+     * REQUEST: first byte of the range, STREAM in Chat: first byte to stream
+     * </pre>
+     *
+     * <code>int32 offset = 10;</code>
+     */
+    public int getOffset() {
+      return offset_;
+    }
+
+    public static final int LENGTH_FIELD_NUMBER = 11;
+    private int length_;
+    /**
+     * <pre>
+     * INFO: size of the history in bytes, REQUEST: size of the range, PARITY: XOR of the sizes of the chunks, STREAM: size of the history to stream
+     * </pre>
+     *
+     * <code>int32 length = 11;</code>
+     */
+    public int getLength() {
+      return length_;
+    }
+
+    public static final int ACK_DELAY_FIELD_NUMBER = 12;
+    private int ackDelay_;
+    /**
+     * <pre>
+     * REQUEST: longest time in milliseconds the requester holds an acknowledgement back
+     * </pre>
+     *
+     * <code>int32 ack_delay = 12;</code>
+     */
+    public int getAckDelay() {
+      return ackDelay_;
+    }
+
+    public static final int FEC_FIELD_NUMBER = 13;
+    private int fec_;
+    /**
+     * <pre>
+     * REQUEST: number of DATA packets in a block protected by one PARITY packet, 0 for none, PARITY: number of DATA packets in its block
+     * </pre>
+     *
+     * <code>int32 fec = 13;</code>
+     */
+    public int getFec() {
+      return fec_;
+    }
+
+    public static final int CODEC_FIELD_NUMBER = 14;
+    private int codec_;
+    /**
+     * <pre>
+     * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+     * </pre>
+     *
+     * <code>.Data.compression codec = 14;</code>
+     */
+    public int getCodecValue() {
+      return codec_;
+    }
+    /**
+     * <pre>
+     * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+     * </pre>
+     *
+     * <code>.Data.compression codec = 14;</code>
+     */
+    public chatprotos.ChatProcotol.Data.compression getCodec() {
+      chatprotos.ChatProcotol.Data.compression result = chatprotos.ChatProcotol.Data.compression.valueOf(codec_);
+      return result == null ? chatprotos.ChatProcotol.Data.compression.UNRECOGNIZED : result;
+    }
+
+    public static final int RESUME_FIELD_NUMBER = 15;
+    private int resume_;
+    /**
+     * <pre>
+     * REQUEST: sequence number of the last packet the requester has in order, the transfer resumes after it
+     * </pre>
+     *
+     * <code>int32 resume = 15;</code>
+     */
+    public int getResume() {
+      return resume_;
+    }
+
+    public static final int CRC_FIELD_NUMBER = 16;
+    private int crc_;
+    /**
+     * <pre>
+     * DATA and PARITY: CRC-32C of the data, 0 from the nodes which don't send one
+     * </pre>
+     *
+     * <code>fixed32 crc = 16;</code>
+     */
+    public int getCrc() {
+      return crc_;
+    }
+
+    public static final int ROOT_FIELD_NUMBER = 17;
+    private com.google.protobuf.ByteString root_;
+    /**
+     * <pre>
+     * INFO: Merkle root of the history, one leaf per packet
+     * </pre>
+     *
+     * <code>bytes root = 17;</code>
+     */
+    public com.google.protobuf.ByteString getRoot() {
+      return root_;
+    }
+
+    public static final int PROOF_FIELD_NUMBER = 18;
+    private com.google.protobuf.ByteString proof_;
+    /**
+     * <pre>
+     * DATA and PARITY: hashes to check a range against the Merkle root, on the first block of a range
+     * </pre>
+     *
+     * <code>bytes proof = 18;</code>
+     */
+    public com.google.protobuf.ByteString getProof() {
+      return proof_;
+    }
+
+    public static final int TCP_PORT_FIELD_NUMBER = 19;
+    private int tcpPort_;
+    /**
+     * <pre>
+     * STREAM: TCP port to stream the history from
+     * </pre>
+     *
+     * <code>int32 tcp_port = 19;</code>
+     */
+    public int getTcpPort() {
+      return tcpPort_;
+    }
+
+    public static final int WINDOW_FIELD_NUMBER = 20;
+    private int window_;
+    /**
+     * <pre>
+     * REQUEST and ACK: number of packets the requester can take after the last one it has in order
+     * </pre>
+     *
+     * <code>int32 window = 20;</code>
+     */
+    public int getWindow() {
+      return window_;
+    }
+
+    public static final int SESSION_FIELD_NUMBER = 21;
+    private int session_;
+    /**
+     * <pre>
+     * every packet of a transfer: id the requester picked for it, 0 for a node without one
+     * </pre>
+     *
+     * <code>int32 session = 21;</code>
+     */
+    public int getSession() {
+      return session_;
+    }
+
+    public static final int MARKS_FIELD_NUMBER = 22;
+    private static final class MarksDefaultEntryHolder {
+      static final com.google.protobuf.MapEntry<
+          java.lang.String, chatprotos.ChatProcotol.Data.Mark> defaultEntry =
+              com.google.protobuf.MapEntry
+              .<java.lang.String, chatprotos.ChatProcotol.Data.Mark>newDefaultInstance(
+                  chatprotos.ChatProcotol.internal_static_Data_MarksEntry_descriptor, 
+                  com.google.protobuf.WireFormat.FieldType.STRING,
+                  "",
+                  com.google.protobuf.WireFormat.FieldType.MESSAGE,
+                  chatprotos.ChatProcotol.Data.Mark.getDefaultInstance());
+    }
+    private com.google.protobuf.MapField<
+        java.lang.String, chatprotos.ChatProcotol.Data.Mark> marks_;
+    private com.google.protobuf.MapField<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+    internalGetMarks() {
+      if (marks_ == null) {
+        return com.google.protobuf.MapField.emptyMapField(
+            MarksDefaultEntryHolder.defaultEntry);
+      }
+      return marks_;
+    }
+
+    public int getMarksCount() {
+      return internalGetMarks().getMap().size();
+    }
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+
+    public boolean containsMarks(
+        java.lang.String key) {
+      if (key == null) { throw new java.lang.NullPointerException(); }
+      return internalGetMarks().getMap().containsKey(key);
+    }
+    /**
+     * Use {@link #getMarksMap()} instead.
+     */
+    @java.lang.Deprecated
+    public java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> getMarks() {
+      return getMarksMap();
+    }
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+
+    public java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> getMarksMap() {
+      return internalGetMarks().getMap();
+    }
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+
+    public chatprotos.ChatProcotol.Data.Mark getMarksOrDefault(
+        java.lang.String key,
+        chatprotos.ChatProcotol.Data.Mark defaultValue) {
+      if (key == null) { throw new java.lang.NullPointerException(); }
+      java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> map =
+          internalGetMarks().getMap();
+      return map.containsKey(key) ? map.get(key) : defaultValue;
+    }
+    /**
+     * <pre>
+     * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+     * </pre>
+     *
+     * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+     */
+
+    public chatprotos.ChatProcotol.Data.Mark getMarksOrThrow(
+        java.lang.String key) {
+      if (key == null) { throw new java.lang.NullPointerException(); }
+      java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> map =
+          internalGetMarks().getMap();
+      if (!map.containsKey(key)) {
+        throw new java.lang.IllegalArgumentException();
+      }
+      return map.get(key);
+    }
+
+    private byte memoizedIsInitialized = -1;
+    public final boolean isInitialized() {
+      byte isInitialized = memoizedIsInitialized;
+      if (isInitialized == 1) return true;
+      if (isInitialized == 0) return false;
+
+      memoizedIsInitialized = 1;
+      return true;
+    }
+
+    public void writeTo(com.google.protobuf.CodedOutputStream output)
+                        throws java.io.IOException {
+      if (type_ != chatprotos.ChatProcotol.Data.packetType.REQUEST.getNumber()) {
+        output.writeEnum(1, type_);
+      }
+      if (seqNo_ != 0) {
+        output.writeInt32(2, seqNo_);
+      }
+      if (!data_.isEmpty()) {
+        output.writeBytes(3, data_);
+      }
+      if (isLast_ != false) {
+        output.writeBool(4, isLast_);
+      }
+      if (chunkSize_ != 0) {
+        output.writeInt32(5, chunkSize_);
+      }
+      if (mode_ != chatprotos.ChatProcotol.Data.transferMode.GO_BACK_N.getNumber()) {
+        output.writeEnum(6, mode_);
+      }
+      if (!sack_.isEmpty()) {
+        output.writeBytes(7, sack_);
+      }
+      if (since_ != 0L) {
+        output.writeInt64(8, since_);
+      }
+      if (!digest_.isEmpty()) {
+        output.writeBytes(9, digest_);
+      }
+      if (offset_ != 0) {
+        output.writeInt32(10, offset_);
+      }
+      if (length_ != 0) {
+        output.writeInt32(11, length_);
+      }
+      if (ackDelay_ != 0) {
+        output.writeInt32(12, ackDelay_);
+      }
+      if (fec_ != 0) {
+        output.writeInt32(13, fec_);
+      }
+      if (codec_ != chatprotos.ChatProcotol.Data.compression.NONE.getNumber()) {
+        output.writeEnum(14, codec_);
+      }
+      if (resume_ != 0) {
+        output.writeInt32(15, resume_);
+      }
+      if (crc_ != 0) {
+        output.writeFixed32(16, crc_);
+      }
+      if (!root_.isEmpty()) {
+        output.writeBytes(17, root_);
+      }
+      if (!proof_.isEmpty()) {
+        output.writeBytes(18, proof_);
+      }
+      if (tcpPort_ != 0) {
+        output.writeInt32(19, tcpPort_);
+      }
+      if (window_ != 0) {
+        output.writeInt32(20, window_);
+      }
+      if (session_ != 0) {
+        output.writeInt32(21, session_);
+      }
+      com.google.protobuf.GeneratedMessageV3
+        .serializeStringMapTo(
+          output,
+          internalGetMarks(),
+          MarksDefaultEntryHolder.defaultEntry,
+          22);
+      unknownFields.writeTo(output);
+    }
+
+    public int getSerializedSize() {
+      int size = memoizedSize;
+      if (size != -1) return size;
+
+      size = 0;
+      if (type_ != chatprotos.ChatProcotol.Data.packetType.REQUEST.getNumber()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeEnumSize(1, type_);
+      }
+      if (seqNo_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(2, seqNo_);
+      }
+      if (!data_.isEmpty()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(3, data_);
+      }
+      if (isLast_ != false) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(4, isLast_);
+      }
+      if (chunkSize_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(5, chunkSize_);
+      }
+      if (mode_ != chatprotos.ChatProcotol.Data.transferMode.GO_BACK_N.getNumber()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeEnumSize(6, mode_);
+      }
+      if (!sack_.isEmpty()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(7, sack_);
+      }
+      if (since_ != 0L) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(8, since_);
+      }
+      if (!digest_.isEmpty()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(9, digest_);
+      }
+      if (offset_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(10, offset_);
+      }
+      if (length_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(11, length_);
+      }
+      if (ackDelay_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(12, ackDelay_);
+      }
+      if (fec_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(13, fec_);
+      }
+      if (codec_ != chatprotos.ChatProcotol.Data.compression.NONE.getNumber()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeEnumSize(14, codec_);
+      }
+      if (resume_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(15, resume_);
+      }
+      if (crc_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeFixed32Size(16, crc_);
+      }
+      if (!root_.isEmpty()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(17, root_);
+      }
+      if (!proof_.isEmpty()) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(18, proof_);
+      }
+      if (tcpPort_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(19, tcpPort_);
+      }
+      if (window_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(20, window_);
+      }
+      if (session_ != 0) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt32Size(21, session_);
+      }
+      for (java.util.Map.Entry<java.lang.String, chatprotos.ChatProcotol.Data.Mark> entry
+           : internalGetMarks().getMap().entrySet()) {
+        com.google.protobuf.MapEntry<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+        marks__ = MarksDefaultEntryHolder.defaultEntry.newBuilderForType()
+            .setKey(entry.getKey())
+            .setValue(entry.getValue())
+            .build();
+        size += com.google.protobuf.CodedOutputStream
+            .computeMessageSize(22, marks__);
+      }
+      size += unknownFields.getSerializedSize();
+      memoizedSize = size;
+      return size;
+    }
+
+    @java.lang.Override
+    public boolean equals(final java.lang.Object obj) {
+      if (obj == this) {
+       return true;
+      }
+      if (!(obj instanceof chatprotos.ChatProcotol.Data)) {
+        return super.equals(obj);
+      }
+      chatprotos.ChatProcotol.Data other = (chatprotos.ChatProcotol.Data) obj;
+
+      boolean result = true;
+      result = result && type_ == other.type_;
+      result = result && (getSeqNo()
+          == other.getSeqNo());
+      result = result && getData()
+          .equals(other.getData());
+      result = result && (getIsLast()
+          == other.getIsLast());
+      result = result && (getChunkSize()
+          == other.getChunkSize());
+      result = result && mode_ == other.mode_;
+      result = result && getSack()
+          .equals(other.getSack());
+      result = result && (getSince()
+          == other.getSince());
+      result = result && getDigest()
+          .equals(other.getDigest());
+      result = result && (getOffset()
+          == other.getOffset());
+      result = result && (getLength()
+          == other.getLength());
+      result = result && (getAckDelay()
+          == other.getAckDelay());
+      result = result && (getFec()
+          == other.getFec());
+      result = result && codec_ == other.codec_;
+      result = result && (getResume()
+          == other.getResume());
+      result = result && (getCrc()
+          == other.getCrc());
+      result = result && getRoot()
+          .equals(other.getRoot());
+      result = result && getProof()
+          .equals(other.getProof());
+      result = result && (getTcpPort()
+          == other.getTcpPort());
+      result = result && (getWindow()
+          == other.getWindow());
+      result = result && (getSession()
+          == other.getSession());
+      result = result && internalGetMarks().equals(
+          other.internalGetMarks());
+      result = result && unknownFields.equals(other.unknownFields);
+      return result;
+    }
+
+    @java.lang.Override
+    public int hashCode() {
+      if (memoizedHashCode != 0) {
+        return memoizedHashCode;
+      }
+      int hash = 41;
+      hash = (19 * hash) + getDescriptor().hashCode();
+      hash = (37 * hash) + TYPE_FIELD_NUMBER;
+      hash = (53 * hash) + type_;
+      hash = (37 * hash) + SEQ_NO_FIELD_NUMBER;
+      hash = (53 * hash) + getSeqNo();
+      hash = (37 * hash) + DATA_FIELD_NUMBER;
+      hash = (53 * hash) + getData().hashCode();
+      hash = (37 * hash) + IS_LAST_FIELD_NUMBER;
+      hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
+          getIsLast());
+      hash = (37 * hash) + CHUNK_SIZE_FIELD_NUMBER;
+      hash = (53 * hash) + getChunkSize();
+      hash = (37 * hash) + MODE_FIELD_NUMBER;
+      hash = (53 * hash) + mode_;
+      hash = (37 * hash) + SACK_FIELD_NUMBER;
+      hash = (53 * hash) + getSack().hashCode();
+      hash = (37 * hash) + SINCE_FIELD_NUMBER;
+      hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+          getSince());
+      hash = (37 * hash) + DIGEST_FIELD_NUMBER;
+      hash = (53 * hash) + getDigest().hashCode();
+      hash = (37 * hash) + OFFSET_FIELD_NUMBER;
+      hash = (53 * hash) + getOffset();
+      hash = (37 * hash) + LENGTH_FIELD_NUMBER;
+      hash = (53 * hash) + getLength();
+      hash = (37 * hash) + ACK_DELAY_FIELD_NUMBER;
+      hash = (53 * hash) + getAckDelay();
+      hash = (37 * hash) + FEC_FIELD_NUMBER;
+      hash = (53 * hash) + getFec();
+      hash = (37 * hash) + CODEC_FIELD_NUMBER;
+      hash = (53 * hash) + codec_;
+      hash = (37 * hash) + RESUME_FIELD_NUMBER;
+      hash = (53 * hash) + getResume();
+      hash = (37 * hash) + CRC_FIELD_NUMBER;
+      hash = (53 * hash) + getCrc();
+      hash = (37 * hash) + ROOT_FIELD_NUMBER;
+      hash = (53 * hash) + getRoot().hashCode();
+      hash = (37 * hash) + PROOF_FIELD_NUMBER;
+      hash = (53 * hash) + getProof().hashCode();
+      hash = (37 * hash) + TCP_PORT_FIELD_NUMBER;
+      hash = (53 * hash) + getTcpPort();
+      hash = (37 * hash) + WINDOW_FIELD_NUMBER;
+      hash = (53 * hash) + getWindow();
+      hash = (37 * hash) + SESSION_FIELD_NUMBER;
+      hash = (53 * hash) + getSession();
+      if (!internalGetMarks().getMap().isEmpty()) {
+        hash = (37 * hash) + MARKS_FIELD_NUMBER;
+        hash = (53 * hash) + internalGetMarks().hashCode();
+      }
+      hash = (29 * hash) + unknownFields.hashCode();
+      memoizedHashCode = hash;
+      return hash;
+    }
+
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        java.nio.ByteBuffer data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        java.nio.ByteBuffer data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        com.google.protobuf.ByteString data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        com.google.protobuf.ByteString data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(byte[] data)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        byte[] data,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws com.google.protobuf.InvalidProtocolBufferException {
+      return PARSER.parseFrom(data, extensionRegistry);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return com.google.protobuf.GeneratedMessageV3
+          .parseWithIOException(PARSER, input);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return com.google.protobuf.GeneratedMessageV3
+          .parseWithIOException(PARSER, input, extensionRegistry);
+    }
+    public static chatprotos.ChatProcotol.Data parseDelimitedFrom(java.io.InputStream input)
+        throws java.io.IOException {
+      return com.google.protobuf.GeneratedMessageV3
+          .parseDelimitedWithIOException(PARSER, input);
+    }
+    public static chatprotos.ChatProcotol.Data parseDelimitedFrom(
+        java.io.InputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return com.google.protobuf.GeneratedMessageV3
+          .parseDelimitedWithIOException(PARSER, input, extensionRegistry);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        com.google.protobuf.CodedInputStream input)
+        throws java.io.IOException {
+      return com.google.protobuf.GeneratedMessageV3
+          .parseWithIOException(PARSER, input);
+    }
+    public static chatprotos.ChatProcotol.Data parseFrom(
+        com.google.protobuf.CodedInputStream input,
+        com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+        throws java.io.IOException {
+      return com.google.protobuf.GeneratedMessageV3
+          .parseWithIOException(PARSER, input, extensionRegistry);
+    }
+
+    public Builder newBuilderForType() { return newBuilder(); }
+    public static Builder newBuilder() {
+      return DEFAULT_INSTANCE.toBuilder();
+    }
+    public static Builder newBuilder(chatprotos.ChatProcotol.Data prototype) {
+      return DEFAULT_INSTANCE.toBuilder().mergeFrom(prototype);
+    }
+    public Builder toBuilder() {
+      return this == DEFAULT_INSTANCE
+          ? new Builder() : new Builder().mergeFrom(this);
+    }
+
+    @java.lang.Override
+    protected Builder newBuilderForType(
+        com.google.protobuf.GeneratedMessageV3.BuilderParent parent) {
+      Builder builder = new Builder(parent);
+      return builder;
+    }
+    /**
+     * Protobuf type {@code Data}
+     */
+    public static final class Builder extends
+        com.google.protobuf.GeneratedMessageV3.Builder<Builder> implements
+        // @@protoc_insertion_point(builder_implements:Data)
+        chatprotos.ChatProcotol.DataOrBuilder {
+      public static final com.google.protobuf.Descriptors.Descriptor
+          getDescriptor() {
+        return chatprotos.ChatProcotol.internal_static_Data_descriptor;
+      }
+
+      @SuppressWarnings({"rawtypes"})
+      protected com.google.protobuf.MapField internalGetMapField(
+          int number) {
+        switch (number) {
+          case 22:
+            return internalGetMarks();
+          default:
+            throw new RuntimeException(
+                "Invalid map field number: " + number);
+        }
+      }
+      @SuppressWarnings({"rawtypes"})
+      protected com.google.protobuf.MapField internalGetMutableMapField(
+          int number) {
+        switch (number) {
+          case 22:
+            return internalGetMutableMarks();
+          default:
+            throw new RuntimeException(
+                "Invalid map field number: " + number);
+        }
+      }
+      protected com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
+          internalGetFieldAccessorTable() {
+        return chatprotos.ChatProcotol.internal_static_Data_fieldAccessorTable
+            .ensureFieldAccessorsInitialized(
+                chatprotos.ChatProcotol.Data.class, chatprotos.ChatProcotol.Data.Builder.class);
+      }
+
+      // Construct using chatprotos.ChatProcotol.Data.newBuilder()
+      private Builder() {
+        maybeForceBuilderInitialization();
+      }
+
+      private Builder(
+          com.google.protobuf.GeneratedMessageV3.BuilderParent parent) {
+        super(parent);
+        maybeForceBuilderInitialization();
+      }
+      private void maybeForceBuilderInitialization() {
+        if (com.google.protobuf.GeneratedMessageV3
+                .alwaysUseFieldBuilders) {
+        }
+      }
+      public Builder clear() {
+        super.clear();
+        type_ = 0;
+
+        seqNo_ = 0;
+
+        data_ = com.google.protobuf.ByteString.EMPTY;
+
+        isLast_ = false;
+
+        chunkSize_ = 0;
+
+        mode_ = 0;
+
+        sack_ = com.google.protobuf.ByteString.EMPTY;
+
+        since_ = 0L;
+
+        digest_ = com.google.protobuf.ByteString.EMPTY;
+
+        offset_ = 0;
+
+        length_ = 0;
+
+        ackDelay_ = 0;
+
+        fec_ = 0;
+
+        codec_ = 0;
+
+        resume_ = 0;
+
+        crc_ = 0;
+
+        root_ = com.google.protobuf.ByteString.EMPTY;
+
+        proof_ = com.google.protobuf.ByteString.EMPTY;
+
+        tcpPort_ = 0;
+
+        window_ = 0;
+
+        session_ = 0;
+
+        internalGetMutableMarks().clear();
+        return this;
+      }
+
+      public com.google.protobuf.Descriptors.Descriptor
+          getDescriptorForType() {
+        return chatprotos.ChatProcotol.internal_static_Data_descriptor;
+      }
+
+      public chatprotos.ChatProcotol.Data getDefaultInstanceForType() {
+        return chatprotos.ChatProcotol.Data.getDefaultInstance();
+      }
+
+      public chatprotos.ChatProcotol.Data build() {
+        chatprotos.ChatProcotol.Data result = buildPartial();
+        if (!result.isInitialized()) {
+          throw newUninitializedMessageException(result);
+        }
+        return result;
+      }
+
+      public chatprotos.ChatProcotol.Data buildPartial() {
+        chatprotos.ChatProcotol.Data result = new chatprotos.ChatProcotol.Data(this);
+        int from_bitField0_ = bitField0_;
+        int to_bitField0_ = 0;
+        result.type_ = type_;
+        result.seqNo_ = seqNo_;
+        result.data_ = data_;
+        result.isLast_ = isLast_;
+        result.chunkSize_ = chunkSize_;
+        result.mode_ = mode_;
+        result.sack_ = sack_;
+        result.since_ = since_;
+        result.digest_ = digest_;
+        result.offset_ = offset_;
+        result.length_ = length_;
+        result.ackDelay_ = ackDelay_;
+        result.fec_ = fec_;
+        result.codec_ = codec_;
+        result.resume_ = resume_;
+        result.crc_ = crc_;
+        result.root_ = root_;
+        result.proof_ = proof_;
+        result.tcpPort_ = tcpPort_;
+        result.window_ = window_;
+        result.session_ = session_;
+        result.marks_ = internalGetMarks();
+        result.marks_.makeImmutable();
+        result.bitField0_ = to_bitField0_;
+        onBuilt();
+        return result;
+      }
+
+      public Builder clone() {
+        return (Builder) super.clone();
+      }
+      public Builder setField(
+          com.google.protobuf.Descriptors.FieldDescriptor field,
+          java.lang.Object value) {
+        return (Builder) super.setField(field, value);
+      }
+      public Builder clearField(
+          com.google.protobuf.Descriptors.FieldDescriptor field) {
+        return (Builder) super.clearField(field);
+      }
+      public Builder clearOneof(
+          com.google.protobuf.Descriptors.OneofDescriptor oneof) {
+        return (Builder) super.clearOneof(oneof);
+      }
+      public Builder setRepeatedField(
+          com.google.protobuf.Descriptors.FieldDescriptor field,
+          int index, java.lang.Object value) {
+        return (Builder) super.setRepeatedField(field, index, value);
+      }
+      public Builder addRepeatedField(
+          com.google.protobuf.Descriptors.FieldDescriptor field,
+          java.lang.Object value) {
+        return (Builder) super.addRepeatedField(field, value);
+      }
+      public Builder mergeFrom(com.google.protobuf.Message other) {
+        if (other instanceof chatprotos.ChatProcotol.Data) {
+          return mergeFrom((chatprotos.ChatProcotol.Data)other);
+        } else {
+          super.mergeFrom(other);
+          return this;
+        }
+      }
+
+      public Builder mergeFrom(chatprotos.ChatProcotol.Data other) {
+        if (other == chatprotos.ChatProcotol.Data.getDefaultInstance()) return this;
+        if (other.type_ != 0) {
+          setTypeValue(other.getTypeValue());
+        }
+        if (other.getSeqNo() != 0) {
+          setSeqNo(other.getSeqNo());
+        }
+        if (other.getData() != com.google.protobuf.ByteString.EMPTY) {
+          setData(other.getData());
+        }
+        if (other.getIsLast() != false) {
+          setIsLast(other.getIsLast());
+        }
+        if (other.getChunkSize() != 0) {
+          setChunkSize(other.getChunkSize());
+        }
+        if (other.mode_ != 0) {
+          setModeValue(other.getModeValue());
+        }
+        if (other.getSack() != com.google.protobuf.ByteString.EMPTY) {
+          setSack(other.getSack());
+        }
+        if (other.getSince() != 0L) {
+          setSince(other.getSince());
+        }
+        if (other.getDigest() != com.google.protobuf.ByteString.EMPTY) {
+          setDigest(other.getDigest());
+        }
+        if (other.getOffset() != 0) {
+          setOffset(other.getOffset());
+        }
+        if (other.getLength() != 0) {
+          setLength(other.getLength());
+        }
+        if (other.getAckDelay() != 0) {
+          setAckDelay(other.getAckDelay());
+        }
+        if (other.getFec() != 0) {
+          setFec(other.getFec());
+        }
+        if (other.codec_ != 0) {
+          setCodecValue(other.getCodecValue());
+        }
+        if (other.getResume() != 0) {
+          setResume(other.getResume());
+        }
+        if (other.getCrc() != 0) {
+          setCrc(other.getCrc());
+        }
+        if (other.getRoot() != com.google.protobuf.ByteString.EMPTY) {
+          setRoot(other.getRoot());
+        }
+        if (other.getProof() != com.google.protobuf.ByteString.EMPTY) {
+          setProof(other.getProof());
+        }
+        if (other.getTcpPort() != 0) {
+          setTcpPort(other.getTcpPort());
+        }
+        if (other.getWindow() != 0) {
+          setWindow(other.getWindow());
+        }
+        if (other.getSession() != 0) {
+          setSession(other.getSession());
+        }
+        internalGetMutableMarks().mergeFrom(
+            other.internalGetMarks());
+        this.mergeUnknownFields(other.unknownFields);
+        onChanged();
+        return this;
+      }
+
+      public final boolean isInitialized() {
+        return true;
+      }
+
+      public Builder mergeFrom(
+          com.google.protobuf.CodedInputStream input,
+          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
+          throws java.io.IOException {
+        chatprotos.ChatProcotol.Data parsedMessage = null;
+        try {
+          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+          parsedMessage = (chatprotos.ChatProcotol.Data) e.getUnfinishedMessage();
+          throw e.unwrapIOException();
+        } finally {
+          if (parsedMessage != null) {
+            mergeFrom(parsedMessage);
+          }
+        }
+        return this;
+      }
+      private int bitField0_;
+
+      private int type_ = 0;
+      /**
+       * <code>.Data.packetType type = 1;</code>
+       */
+      public int getTypeValue() {
+        return type_;
+      }
+      /**
+       * <code>.Data.packetType type = 1;</code>
+       */
+      public Builder setTypeValue(int value) {
+        type_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>.Data.packetType type = 1;</code>
+       */
+      public chatprotos.ChatProcotol.Data.packetType getType() {
+        chatprotos.ChatProcotol.Data.packetType result = chatprotos.ChatProcotol.Data.packetType.valueOf(type_);
+        return result == null ? chatprotos.ChatProcotol.Data.packetType.UNRECOGNIZED : result;
+      }
+      /**
+       * <code>.Data.packetType type = 1;</code>
+       */
+      public Builder setType(chatprotos.ChatProcotol.Data.packetType value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        
+        type_ = value.getNumber();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>.Data.packetType type = 1;</code>
+       */
+      public Builder clearType() {
+        
+        type_ = 0;
+        onChanged();
+        return this;
+      }
+
+      private int seqNo_ ;
+      /**
+       * <code>int32 seq_no = 2;</code>
+       */
+      public int getSeqNo() {
+        return seqNo_;
+      }
+      /**
+       * <code>int32 seq_no = 2;</code>
+       */
+      public Builder setSeqNo(int value) {
+        
+        seqNo_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>int32 seq_no = 2;</code>
+       */
+      public Builder clearSeqNo() {
+        
+        seqNo_ = 0;
+        onChanged();
+        return this;
+      }
+
+      private com.google.protobuf.ByteString data_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <code>bytes data = 3;</code>
+       */
+      public com.google.protobuf.ByteString getData() {
+        return data_;
+      }
+      /**
+       * <code>bytes data = 3;</code>
+       */
+      public Builder setData(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  
+        data_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>bytes data = 3;</code>
+       */
+      public Builder clearData() {
+        
+        data_ = getDefaultInstance().getData();
+        onChanged();
+        return this;
+      }
+
+      private boolean isLast_ ;
+      /**
+       * <code>bool is_last = 4;</code>
+       */
+      public boolean getIsLast() {
+        return isLast_;
+      }
+      /**
+       * <code>bool is_last = 4;</code>
+       */
+      public Builder setIsLast(boolean value) {
+        
+        isLast_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>bool is_last = 4;</code>
+       */
+      public Builder clearIsLast() {
+        
+        isLast_ = false;
+        onChanged();
+        return this;
+      }
+
+      private int chunkSize_ ;
+      /**
+       * <pre>
+       * REQUEST: largest data size per packet the requester can receive, INFO: data size per packet of the Merkle tree asked for
+       * </pre>
+       *
+       * <code>int32 chunk_size = 5;</code>
+       */
+      public int getChunkSize() {
+        return chunkSize_;
+      }
+      /**
+       * <pre>
+       * REQUEST: largest data size per packet the requester can receive, INFO: data size per packet of the Merkle tree asked for
+       * </pre>
+       *
+       * <code>int32 chunk_size = 5;</code>
+       */
+      public Builder setChunkSize(int value) {
+        
+        chunkSize_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: largest data size per packet the requester can receive, INFO: data size per packet of the Merkle tree asked for
+       * </pre>
+       *
+       * <code>int32 chunk_size = 5;</code>
+       */
+      public Builder clearChunkSize() {
+        
+        chunkSize_ = 0;
+        onChanged();
+        return this;
+      }
+
+      private int mode_ = 0;
+      /**
+       * <pre>
+       * REQUEST: how the sender recovers lost packets
+       * </pre>
+       *
+       * <code>.Data.transferMode mode = 6;</code>
+       */
+      public int getModeValue() {
+        return mode_;
+      }
+      /**
+       * <pre>
+       * REQUEST: how the sender recovers lost packets
+       * </pre>
+       *
+       * <code>.Data.transferMode mode = 6;</code>
+       */
+      public Builder setModeValue(int value) {
+        mode_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: how the sender recovers lost packets
+       * </pre>
+       *
+       * <code>.Data.transferMode mode = 6;</code>
+       */
+      public chatprotos.ChatProcotol.Data.transferMode getMode() {
+        chatprotos.ChatProcotol.Data.transferMode result = chatprotos.ChatProcotol.Data.transferMode.valueOf(mode_);
+        return result == null ? chatprotos.ChatProcotol.Data.transferMode.UNRECOGNIZED : result;
+      }
+      /**
+       * <pre>
+       * REQUEST: how the sender recovers lost packets
+       * </pre>
+       *
+       * <code>.Data.transferMode mode = 6;</code>
+       */
+      public Builder setMode(chatprotos.ChatProcotol.Data.transferMode value) {
+        if (value == null) {
+          throw new NullPointerException();
+        }
+        
+        mode_ = value.getNumber();
+        onChanged();
+        return this;
       }
-
-      protected com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
-          internalGetFieldAccessorTable() {
-        return chatprotos.ChatProcotol.internal_static_Data_fieldAccessorTable
-            .ensureFieldAccessorsInitialized(
-                chatprotos.ChatProcotol.Data.class, chatprotos.ChatProcotol.Data.Builder.class);
+      /**
+       * <pre>
+       * REQUEST: how the sender recovers lost packets
+       * </pre>
+       *
+       * <code>.Data.transferMode mode = 6;</code>
+       */
+      public Builder clearMode() {
+        
+        mode_ = 0;
+        onChanged();
+        return this;
       }
 
-      // Construct using chatprotos.ChatProcotol.Data.newBuilder()
-      private Builder() {
-        maybeForceBuilderInitialization();
+      private com.google.protobuf.ByteString sack_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <pre>
+       * ACK: bit i is set when packet seq_no + 2 + i has been received out of order
+       * </pre>
+       *
+       * <code>bytes sack = 7;</code>
+       */
+      public com.google.protobuf.ByteString getSack() {
+        return sack_;
       }
-
-      private Builder(
-          com.google.protobuf.GeneratedMessageV3.BuilderParent parent) {
-        super(parent);
-        maybeForceBuilderInitialization();
+      /**
+       * <pre>
+       * ACK: bit i is set when packet seq_no + 2 + i has been received out of order
+       * </pre>
+       *
+       * <code>bytes sack = 7;</code>
+       */
+      public Builder setSack(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  
+        sack_ = value;
+        onChanged();
+        return this;
       }
-      private void maybeForceBuilderInitialization() {
-        if (com.google.protobuf.GeneratedMessageV3
-                .alwaysUseFieldBuilders) {
-        }
+      /**
+       * <pre>
+       * ACK: bit i is set when packet seq_no + 2 + i has been received out of order
+       * </pre>
+       *
+       * <code>bytes sack = 7;</code>
+       */
+      public Builder clearSack() {
+        
+        sack_ = getDefaultInstance().getSack();
+        onChanged();
+        return this;
       }
-      public Builder clear() {
-        super.clear();
-        type_ = 0;
-
-        seqNo_ = 0;
-
-        data_ = com.google.protobuf.ByteString.EMPTY;
-
-        isLast_ = false;
 
+      private long since_ ;
+      /**
+       * <pre>
+       * REQUEST: only the messages with a timestamp greater than this, 0 for the entire history, the smallest of the marks for the nodes which don't know them
+       * </pre>
+       *
+       * <code>int64 since = 8;</code>
+       */
+      public long getSince() {
+        return since_;
+      }
+      /**
+       * <pre>
+       * REQUEST: only the messages with a timestamp greater than this, 0 for the entire history, the smallest of the marks for the nodes which don't know them
+       * </pre>
+       *
+       * <code>int64 since = 8;</code>
+       */
+      public Builder setSince(long value) {
+        
+        since_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: only the messages with a timestamp greater than this, 0 for the entire history, the smallest of the marks for the nodes which don't know them
+       * </pre>
+       *
+       * <code>int64 since = 8;</code>
+       */
+      public Builder clearSince() {
+        
+        since_ = 0L;
+        onChanged();
         return this;
       }
 
-      public com.google.protobuf.Descriptors.Descriptor
-          getDescriptorForType() {
-        return chatprotos.ChatProcotol.internal_static_Data_descriptor;
+      private com.google.protobuf.ByteString digest_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <pre>
+       * INFO: digest of the history, REQUEST: only a range of the history with this digest, or resume the transfer with this snapshot id, DATA and PARITY: snapshot id of the transfer, on the first packet and the first block, STREAM: snapshot id of the history to stream
+       * </pre>
+       *
+       * <code>bytes digest = 9;</code>
+       */
+      public com.google.protobuf.ByteString getDigest() {
+        return digest_;
+      }
+      /**
+       * <pre>
+       * INFO: digest of the history, REQUEST: only a range of the history with this digest, or resume the transfer with this snapshot id, DATA and PARITY: snapshot id of the transfer, on the first packet and the first block, STREAM: snapshot id of the history to stream
+       * </pre>
+       *
+       * <code>bytes digest = 9;</code>
+       */
+      public Builder setDigest(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  
+        digest_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * INFO: digest of the history, REQUEST: only a range of the history with this digest, or resume the transfer with this snapshot id, DATA and PARITY: snapshot id of the transfer, on the first packet and the first block, STREAM: snapshot id of the history to stream
+       * </pre>
+       *
+       * <code>bytes digest = 9;</code>
+       */
+      public Builder clearDigest() {
+        
+        digest_ = getDefaultInstance().getDigest();
+        onChanged();
+        return this;
       }
 
-      public chatprotos.ChatProcotol.Data getDefaultInstanceForType() {
-        return chatprotos.ChatProcotol.Data.getDefaultInstance();
+      private int offset_ ;
+      /**
+       * <pre>
+       * REQUEST: first byte of the range, STREAM in Chat: first byte to stream
+       * </pre>
+       *
+       * <code>int32 offset = 10;</code>
+       */
+      public int getOffset() {
+        return offset_;
+      }
+      /**
+       * <pre>
+       * REQUEST: first byte of the range, STREAM in Chat: first byte to stream
+       * </pre>
+       *
+       * <code>int32 offset = 10;</code>
+       */
+      public Builder setOffset(int value) {
+        
+        offset_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: first byte of the range, STREAM in Chat: first byte to stream
+       * </pre>
+       *
+       * <code>int32 offset = 10;</code>
+       */
+      public Builder clearOffset() {
+        
+        offset_ = 0;
+        onChanged();
+        return this;
       }
 
-      public chatprotos.ChatProcotol.Data build() {
-        chatprotos.ChatProcotol.Data result = buildPartial();
-        if (!result.isInitialized()) {
-          throw newUninitializedMessageException(result);
-        }
-        return result;
+      private int length_ ;
+      /**
+       * <pre>
+       * INFO: size of the history in bytes, REQUEST: size of the range, PARITY: XOR of the sizes of the chunks, STREAM: size of the history to stream
+       * </pre>
+       *
+       * <code>int32 length = 11;</code>
+       */
+      public int getLength() {
+        return length_;
+      }
+      /**
+       * <pre>
+       * INFO: size of the history in bytes, REQUEST: size of the range, PARITY: XOR of the sizes of the chunks, STREAM: size of the history to stream
+       * </pre>
+       *
+       * <code>int32 length = 11;</code>
+       */
+      public Builder setLength(int value) {
+        
+        length_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * INFO: size of the history in bytes, REQUEST: size of the range, PARITY: XOR of the sizes of the chunks, STREAM: size of the history to stream
+       * </pre>
+       *
+       * <code>int32 length = 11;</code>
+       */
+      public Builder clearLength() {
+        
+        length_ = 0;
+        onChanged();
+        return this;
       }
 
-      public chatprotos.ChatProcotol.Data buildPartial() {
-        chatprotos.ChatProcotol.Data result = new chatprotos.ChatProcotol.Data(this);
-        result.type_ = type_;
-        result.seqNo_ = seqNo_;
-        result.data_ = data_;
-        result.isLast_ = isLast_;
-        onBuilt();
-        return result;
+      private int ackDelay_ ;
+      /**
+       * <pre>
+       * REQUEST: longest time in milliseconds the requester holds an acknowledgement back
+       * </pre>
+       *
+       * <code>int32 ack_delay = 12;</code>
+       */
+      public int getAckDelay() {
+        return ackDelay_;
+      }
+      /**
+       * <pre>
+       * REQUEST: longest time in milliseconds the requester holds an acknowledgement back
+       * </pre>
+       *
+       * <code>int32 ack_delay = 12;</code>
+       */
+      public Builder setAckDelay(int value) {
+        
+        ackDelay_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: longest time in milliseconds the requester holds an acknowledgement back
+       * </pre>
+       *
+       * <code>int32 ack_delay = 12;</code>
+       */
+      public Builder clearAckDelay() {
+        
+        ackDelay_ = 0;
+        onChanged();
+        return this;
       }
 
-      public Builder clone() {
-        return (Builder) super.clone();
+      private int fec_ ;
+      /**
+       * <pre>
+       * REQUEST: number of DATA packets in a block protected by one PARITY packet, 0 for none, PARITY: number of DATA packets in its block
+       * </pre>
+       *
+       * <code>int32 fec = 13;</code>
+       */
+      public int getFec() {
+        return fec_;
       }
-      public Builder setField(
-          com.google.protobuf.Descriptors.FieldDescriptor field,
-          java.lang.Object value) {
-        return (Builder) super.setField(field, value);
+      /**
+       * <pre>
+       * REQUEST: number of DATA packets in a block protected by one PARITY packet, 0 for none, PARITY: number of DATA packets in its block
+       * </pre>
+       *
+       * <code>int32 fec = 13;</code>
+       */
+      public Builder setFec(int value) {
+        
+        fec_ = value;
+        onChanged();
+        return this;
       }
-      public Builder clearField(
-          com.google.protobuf.Descriptors.FieldDescriptor field) {
-        return (Builder) super.clearField(field);
+      /**
+       * <pre>
+       * REQUEST: number of DATA packets in a block protected by one PARITY packet, 0 for none, PARITY: number of DATA packets in its block
+       * </pre>
+       *
+       * <code>int32 fec = 13;</code>
+       */
+      public Builder clearFec() {
+        
+        fec_ = 0;
+        onChanged();
+        return this;
       }
-      public Builder clearOneof(
-          com.google.protobuf.Descriptors.OneofDescriptor oneof) {
-        return (Builder) super.clearOneof(oneof);
+
+      private int codec_ = 0;
+      /**
+       * <pre>
+       * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+       * </pre>
+       *
+       * <code>.Data.compression codec = 14;</code>
+       */
+      public int getCodecValue() {
+        return codec_;
       }
-      public Builder setRepeatedField(
-          com.google.protobuf.Descriptors.FieldDescriptor field,
-          int index, java.lang.Object value) {
-        return (Builder) super.setRepeatedField(field, index, value);
+      /**
+       * <pre>
+       * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+       * </pre>
+       *
+       * <code>.Data.compression codec = 14;</code>
+       */
+      public Builder setCodecValue(int value) {
+        codec_ = value;
+        onChanged();
+        return this;
       }
-      public Builder addRepeatedField(
-          com.google.protobuf.Descriptors.FieldDescriptor field,
-          java.lang.Object value) {
-        return (Builder) super.addRepeatedField(field, value);
+      /**
+       * <pre>
+       * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+       * </pre>
+       *
+       * <code>.Data.compression codec = 14;</code>
+       */
+      public chatprotos.ChatProcotol.Data.compression getCodec() {
+        chatprotos.ChatProcotol.Data.compression result = chatprotos.ChatProcotol.Data.compression.valueOf(codec_);
+        return result == null ? chatprotos.ChatProcotol.Data.compression.UNRECOGNIZED : result;
       }
-      public Builder mergeFrom(com.google.protobuf.Message other) {
-        if (other instanceof chatprotos.ChatProcotol.Data) {
-          return mergeFrom((chatprotos.ChatProcotol.Data)other);
-        } else {
-          super.mergeFrom(other);
-          return this;
+      /**
+       * <pre>
+       * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+       * </pre>
+       *
+       * <code>.Data.compression codec = 14;</code>
+       */
+      public Builder setCodec(chatprotos.ChatProcotol.Data.compression value) {
+        if (value == null) {
+          throw new NullPointerException();
         }
+        
+        codec_ = value.getNumber();
+        onChanged();
+        return this;
       }
-
-      public Builder mergeFrom(chatprotos.ChatProcotol.Data other) {
-        if (other == chatprotos.ChatProcotol.Data.getDefaultInstance()) return this;
-        if (other.type_ != 0) {
-          setTypeValue(other.getTypeValue());
-        }
-        if (other.getSeqNo() != 0) {
-          setSeqNo(other.getSeqNo());
-        }
-        if (other.getData() != com.google.protobuf.ByteString.EMPTY) {
-          setData(other.getData());
-        }
-        if (other.getIsLast() != false) {
-          setIsLast(other.getIsLast());
-        }
-        this.mergeUnknownFields(other.unknownFields);
+      /**
+       * <pre>
+       * REQUEST: how the requester asks the history to be compressed, STREAM: how the history to stream is compressed
+       * </pre>
+       *
+       * <code>.Data.compression codec = 14;</code>
+       */
+      public Builder clearCodec() {
+        
+        codec_ = 0;
         onChanged();
         return this;
       }
 
-      public final boolean isInitialized() {
-        return true;
+      private int resume_ ;
+      /**
+       * <pre>
+       * REQUEST: sequence number of the last packet the requester has in order, the transfer resumes after it
+       * </pre>
+       *
+       * <code>int32 resume = 15;</code>
+       */
+      public int getResume() {
+        return resume_;
+      }
+      /**
+       * <pre>
+       * REQUEST: sequence number of the last packet the requester has in order, the transfer resumes after it
+       * </pre>
+       *
+       * <code>int32 resume = 15;</code>
+       */
+      public Builder setResume(int value) {
+        
+        resume_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: sequence number of the last packet the requester has in order, the transfer resumes after it
+       * </pre>
+       *
+       * <code>int32 resume = 15;</code>
+       */
+      public Builder clearResume() {
+        
+        resume_ = 0;
+        onChanged();
+        return this;
       }
 
-      public Builder mergeFrom(
-          com.google.protobuf.CodedInputStream input,
-          com.google.protobuf.ExtensionRegistryLite extensionRegistry)
-          throws java.io.IOException {
-        chatprotos.ChatProcotol.Data parsedMessage = null;
-        try {
-          parsedMessage = PARSER.parsePartialFrom(input, extensionRegistry);
-        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
-          parsedMessage = (chatprotos.ChatProcotol.Data) e.getUnfinishedMessage();
-          throw e.unwrapIOException();
-        } finally {
-          if (parsedMessage != null) {
-            mergeFrom(parsedMessage);
-          }
-        }
+      private int crc_ ;
+      /**
+       * <pre>
+       * DATA and PARITY: CRC-32C of the data, 0 from the nodes which don't send one
+       * </pre>
+       *
+       * <code>fixed32 crc = 16;</code>
+       */
+      public int getCrc() {
+        return crc_;
+      }
+      /**
+       * <pre>
+       * DATA and PARITY: CRC-32C of the data, 0 from the nodes which don't send one
+       * </pre>
+       *
+       * <code>fixed32 crc = 16;</code>
+       */
+      public Builder setCrc(int value) {
+        
+        crc_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * DATA and PARITY: CRC-32C of the data, 0 from the nodes which don't send one
+       * </pre>
+       *
+       * <code>fixed32 crc = 16;</code>
+       */
+      public Builder clearCrc() {
+        
+        crc_ = 0;
+        onChanged();
         return this;
       }
 
-      private int type_ = 0;
+      private com.google.protobuf.ByteString root_ = com.google.protobuf.ByteString.EMPTY;
       /**
-       * <code>.Data.packetType type = 1;</code>
+       * <pre>
+       * INFO: Merkle root of the history, one leaf per packet
+       * </pre>
+       *
+       * <code>bytes root = 17;</code>
        */
-      public int getTypeValue() {
-        return type_;
+      public com.google.protobuf.ByteString getRoot() {
+        return root_;
       }
       /**
-       * <code>.Data.packetType type = 1;</code>
+       * <pre>
+       * INFO: Merkle root of the history, one leaf per packet
+       * </pre>
+       *
+       * <code>bytes root = 17;</code>
        */
-      public Builder setTypeValue(int value) {
-        type_ = value;
+      public Builder setRoot(com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  
+        root_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>.Data.packetType type = 1;</code>
+       * <pre>
+       * INFO: Merkle root of the history, one leaf per packet
+       * </pre>
+       *
+       * <code>bytes root = 17;</code>
        */
-      public chatprotos.ChatProcotol.Data.packetType getType() {
-        chatprotos.ChatProcotol.Data.packetType result = chatprotos.ChatProcotol.Data.packetType.valueOf(type_);
-        return result == null ? chatprotos.ChatProcotol.Data.packetType.UNRECOGNIZED : result;
+      public Builder clearRoot() {
+        
+        root_ = getDefaultInstance().getRoot();
+        onChanged();
+        return this;
+      }
+
+      private com.google.protobuf.ByteString proof_ = com.google.protobuf.ByteString.EMPTY;
+      /**
+       * <pre>
+       * DATA and PARITY: hashes to check a range against the Merkle root, on the first block of a range
+       * </pre>
+       *
+       * <code>bytes proof = 18;</code>
+       */
+      public com.google.protobuf.ByteString getProof() {
+        return proof_;
       }
       /**
-       * <code>.Data.packetType type = 1;</code>
+       * <pre>
+       * DATA and PARITY: hashes to check a range against the Merkle root, on the first block of a range
+       * </pre>
+       *
+       * <code>bytes proof = 18;</code>
        */
-      public Builder setType(chatprotos.ChatProcotol.Data.packetType value) {
+      public Builder setProof(com.google.protobuf.ByteString value) {
         if (value == null) {
-          throw new NullPointerException();
-        }
-        
-        type_ = value.getNumber();
+    throw new NullPointerException();
+  }
+  
+        proof_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>.Data.packetType type = 1;</code>
+       * <pre>
+       * DATA and PARITY: hashes to check a range against the Merkle root, on the first block of a range
+       * </pre>
+       *
+       * <code>bytes proof = 18;</code>
        */
-      public Builder clearType() {
+      public Builder clearProof() {
         
-        type_ = 0;
+        proof_ = getDefaultInstance().getProof();
         onChanged();
         return this;
       }
 
-      private int seqNo_ ;
+      private int tcpPort_ ;
       /**
-       * <code>int32 seq_no = 2;</code>
+       * <pre>
+       * STREAM: TCP port to stream the history from
+       * </pre>
+       *
+       * <code>int32 tcp_port = 19;</code>
        */
-      public int getSeqNo() {
-        return seqNo_;
+      public int getTcpPort() {
+        return tcpPort_;
       }
       /**
-       * <code>int32 seq_no = 2;</code>
+       * <pre>
+       * STREAM: TCP port to stream the history from
+       * </pre>
+       *
+       * <code>int32 tcp_port = 19;</code>
        */
-      public Builder setSeqNo(int value) {
+      public Builder setTcpPort(int value) {
         
-        seqNo_ = value;
+        tcpPort_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>int32 seq_no = 2;</code>
+       * <pre>
+       * STREAM: TCP port to stream the history from
+       * </pre>
+       *
+       * <code>int32 tcp_port = 19;</code>
        */
-      public Builder clearSeqNo() {
+      public Builder clearTcpPort() {
         
-        seqNo_ = 0;
+        tcpPort_ = 0;
         onChanged();
         return this;
       }
 
-      private com.google.protobuf.ByteString data_ = com.google.protobuf.ByteString.EMPTY;
+      private int window_ ;
       /**
-       * <code>bytes data = 3;</code>
+       * <pre>
+       * REQUEST and ACK: number of packets the requester can take after the last one it has in order
+       * </pre>
+       *
+       * <code>int32 window = 20;</code>
        */
-      public com.google.protobuf.ByteString getData() {
-        return data_;
+      public int getWindow() {
+        return window_;
       }
       /**
-       * <code>bytes data = 3;</code>
+       * <pre>
+       * REQUEST and ACK: number of packets the requester can take after the last one it has in order
+       * </pre>
+       *
+       * <code>int32 window = 20;</code>
        */
-      public Builder setData(com.google.protobuf.ByteString value) {
-        if (value == null) {
-    throw new NullPointerException();
-  }
-  
-        data_ = value;
+      public Builder setWindow(int value) {
+        
+        window_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>bytes data = 3;</code>
+       * <pre>
+       * REQUEST and ACK: number of packets the requester can take after the last one it has in order
+       * </pre>
+       *
+       * <code>int32 window = 20;</code>
        */
-      public Builder clearData() {
+      public Builder clearWindow() {
         
-        data_ = getDefaultInstance().getData();
+        window_ = 0;
         onChanged();
         return this;
       }
 
-      private boolean isLast_ ;
+      private int session_ ;
       /**
-       * <code>bool is_last = 4;</code>
+       * <pre>
+       * every packet of a transfer: id the requester picked for it, 0 for a node without one
+       * </pre>
+       *
+       * <code>int32 session = 21;</code>
        */
-      public boolean getIsLast() {
-        return isLast_;
+      public int getSession() {
+        return session_;
       }
       /**
-       * <code>bool is_last = 4;</code>
+       * <pre>
+       * every packet of a transfer: id the requester picked for it, 0 for a node without one
+       * </pre>
+       *
+       * <code>int32 session = 21;</code>
        */
-      public Builder setIsLast(boolean value) {
+      public Builder setSession(int value) {
         
-        isLast_ = value;
+        session_ = value;
         onChanged();
         return this;
       }
       /**
-       * <code>bool is_last = 4;</code>
+       * <pre>
+       * every packet of a transfer: id the requester picked for it, 0 for a node without one
+       * </pre>
+       *
+       * <code>int32 session = 21;</code>
        */
-      public Builder clearIsLast() {
+      public Builder clearSession() {
         
-        isLast_ = false;
+        session_ = 0;
         onChanged();
         return this;
       }
+
+      private com.google.protobuf.MapField<
+          java.lang.String, chatprotos.ChatProcotol.Data.Mark> marks_;
+      private com.google.protobuf.MapField<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+      internalGetMarks() {
+        if (marks_ == null) {
+          return com.google.protobuf.MapField.emptyMapField(
+              MarksDefaultEntryHolder.defaultEntry);
+        }
+        return marks_;
+      }
+      private com.google.protobuf.MapField<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+      internalGetMutableMarks() {
+        onChanged();;
+        if (marks_ == null) {
+          marks_ = com.google.protobuf.MapField.newMapField(
+              MarksDefaultEntryHolder.defaultEntry);
+        }
+        if (!marks_.isMutable()) {
+          marks_ = marks_.copy();
+        }
+        return marks_;
+      }
+
+      public int getMarksCount() {
+        return internalGetMarks().getMap().size();
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+
+      public boolean containsMarks(
+          java.lang.String key) {
+        if (key == null) { throw new java.lang.NullPointerException(); }
+        return internalGetMarks().getMap().containsKey(key);
+      }
+      /**
+       * Use {@link #getMarksMap()} instead.
+       */
+      @java.lang.Deprecated
+      public java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> getMarks() {
+        return getMarksMap();
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+
+      public java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> getMarksMap() {
+        return internalGetMarks().getMap();
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+
+      public chatprotos.ChatProcotol.Data.Mark getMarksOrDefault(
+          java.lang.String key,
+          chatprotos.ChatProcotol.Data.Mark defaultValue) {
+        if (key == null) { throw new java.lang.NullPointerException(); }
+        java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> map =
+            internalGetMarks().getMap();
+        return map.containsKey(key) ? map.get(key) : defaultValue;
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+
+      public chatprotos.ChatProcotol.Data.Mark getMarksOrThrow(
+          java.lang.String key) {
+        if (key == null) { throw new java.lang.NullPointerException(); }
+        java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> map =
+            internalGetMarks().getMap();
+        if (!map.containsKey(key)) {
+          throw new java.lang.IllegalArgumentException();
+        }
+        return map.get(key);
+      }
+
+      public Builder clearMarks() {
+        internalGetMutableMarks().getMutableMap()
+            .clear();
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+
+      public Builder removeMarks(
+          java.lang.String key) {
+        if (key == null) { throw new java.lang.NullPointerException(); }
+        internalGetMutableMarks().getMutableMap()
+            .remove(key);
+        return this;
+      }
+      /**
+       * Use alternate mutation accessors instead.
+       */
+      @java.lang.Deprecated
+      public java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark>
+      getMutableMarks() {
+        return internalGetMutableMarks().getMutableMap();
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+      public Builder putMarks(
+          java.lang.String key,
+          chatprotos.ChatProcotol.Data.Mark value) {
+        if (key == null) { throw new java.lang.NullPointerException(); }
+        if (value == null) { throw new java.lang.NullPointerException(); }
+        internalGetMutableMarks().getMutableMap()
+            .put(key, value);
+        return this;
+      }
+      /**
+       * <pre>
+       * REQUEST: for every sender, the latest message and the number of messages the requester has, only the newer messages are sent, or all of them if it misses some, and every message of a sender not in it, empty for the entire history
+       * </pre>
+       *
+       * <code>map&lt;string, .Data.Mark&gt; marks = 22;</code>
+       */
+
+      public Builder putAllMarks(
+          java.util.Map<java.lang.String, chatprotos.ChatProcotol.Data.Mark> values) {
+        internalGetMutableMarks().getMutableMap()
+            .putAll(values);
+        return this;
+      }
       public final Builder setUnknownFields(
           final com.google.protobuf.UnknownFieldSet unknownFields) {
         return super.setUnknownFieldsProto3(unknownFields);
@@ -1621,6 +4288,40 @@ public final class ChatProcotol {
      * <code>bool is_bcast = 3;</code>
      */
     boolean getIsBcast();
+
+    /**
+     * <pre>
+     * Lamport timestamp given by the sender, 0 if it doesn't have one
+     * </pre>
+     *
+     * <code>int64 timestamp = 4;</code>
+     */
+    long getTimestamp();
+
+    /**
+     * <pre>
+     * asks for a history snapshot to be streamed back instead of carrying a message
+     * </pre>
+     *
+     * <code>.Data stream = 5;</code>
+     */
+    boolean hasStream();
+    /**
+     * <pre>
+     * asks for a history snapshot to be streamed back instead of carrying a message
+     * </pre>
+     *
+     * <code>.Data stream = 5;</code>
+     */
+    chatprotos.ChatProcotol.Data getStream();
+    /**
+     * <pre>
+     * asks for a history snapshot to be streamed back instead of carrying a message
+     * </pre>
+     *
+     * <code>.Data stream = 5;</code>
+     */
+    chatprotos.ChatProcotol.DataOrBuilder getStreamOrBuilder();
   }
   /**
    * Protobuf type {@code Chat}
@@ -1638,6 +4339,7 @@ public final class ChatProcotol {
       from_ = "";
       message_ = "";
       isBcast_ = false;
+      timestamp_ = 0L;
     }
 
     @java.lang.Override
@@ -1688,6 +4390,24 @@ public final class ChatProcotol {
               isBcast_ = input.readBool();
               break;
             }
+            case 32: {
+
+              timestamp_ = input.readInt64();
+              break;
+            }
+            case 42: {
+              chatprotos.ChatProcotol.Data.Builder subBuilder = null;
+              if (stream_ != null) {
+                subBuilder = stream_.toBuilder();
+              }
+              stream_ = input.readMessage(chatprotos.ChatProcotol.Data.parser(), extensionRegistry);
+              if (subBuilder != null) {
+                subBuilder.mergeFrom(stream_);
+                stream_ = subBuilder.buildPartial();
+              }
+
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -1789,6 +4509,52 @@ public final class ChatProcotol {
       return isBcast_;
     }
 
+    public static final int TIMESTAMP_FIELD_NUMBER = 4;
+    private long timestamp_;
+    /**
+     * <pre>
+     * Lamport timestamp given by the sender, 0 if it doesn't have one
+     * </pre>
+     *
+     * <code>int64 timestamp = 4;</code>
+     */
+    public long getTimestamp() {
+      return timestamp_;
+    }
+
+    public static final int STREAM_FIELD_NUMBER = 5;
+    private chatprotos.ChatProcotol.Data stream_;
+    /**
+     * <pre>
+     * asks for a history snapshot to be streamed back instead of carrying a message
+     * </pre>
+     *
+     * <code>.Data stream = 5;</code>
+     */
+    public boolean hasStream() {
+      return stream_ != null;
+    }
+    /**
+     * <pre>
+     * asks for a history snapshot to be streamed back instead of carrying a message
+     * </pre>
+     *
+     * <code>.Data stream = 5;</code>
+     */
+    public chatprotos.ChatProcotol.Data getStream() {
+      return stream_ == null ? chatprotos.ChatProcotol.Data.getDefaultInstance() : stream_;
+    }
+    /**
+     * <pre>
+     * asks for a history snapshot to be streamed back instead of carrying a message
+     * </pre>
+     *
+     * <code>.Data stream = 5;</code>
+     */
+    public chatprotos.ChatProcotol.DataOrBuilder getStreamOrBuilder() {
+      return getStream();
+    }
+
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
       byte isInitialized = memoizedIsInitialized;
@@ -1810,6 +4576,12 @@ public final class ChatProcotol {
       if (isBcast_ != false) {
         output.writeBool(3, isBcast_);
       }
+      if (timestamp_ != 0L) {
+        output.writeInt64(4, timestamp_);
+      }
+      if (stream_ != null) {
+        output.writeMessage(5, getStream());
+      }
       unknownFields.writeTo(output);
     }
 
@@ -1828,6 +4600,14 @@ public final class ChatProcotol {
         size += com.google.protobuf.CodedOutputStream
           .computeBoolSize(3, isBcast_);
       }
+      if (timestamp_ != 0L) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeInt64Size(4, timestamp_);
+      }
+      if (stream_ != null) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(5, getStream());
+      }
       size += unknownFields.getSerializedSize();
       memoizedSize = size;
       return size;
@@ -1850,6 +4630,13 @@ public final class ChatProcotol {
           .equals(other.getMessage());
       result = result && (getIsBcast()
           == other.getIsBcast());
+      result = result && (getTimestamp()
+          == other.getTimestamp());
+      result = result && (hasStream() == other.hasStream());
+      if (hasStream()) {
+        result = result && getStream()
+            .equals(other.getStream());
+      }
       result = result && unknownFields.equals(other.unknownFields);
       return result;
     }
@@ -1868,6 +4655,13 @@ public final class ChatProcotol {
       hash = (37 * hash) + IS_BCAST_FIELD_NUMBER;
       hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
           getIsBcast());
+      hash = (37 * hash) + TIMESTAMP_FIELD_NUMBER;
+      hash = (53 * hash) + com.google.protobuf.Internal.hashLong(
+          getTimestamp());
+      if (hasStream()) {
+        hash = (37 * hash) + STREAM_FIELD_NUMBER;
+        hash = (53 * hash) + getStream().hashCode();
+      }
       hash = (29 * hash) + unknownFields.hashCode();
       memoizedHashCode = hash;
       return hash;
@@ -2003,6 +4797,14 @@ public final class ChatProcotol {
 
         isBcast_ = false;
 
+        timestamp_ = 0L;
+
+        if (streamBuilder_ == null) {
+          stream_ = null;
+        } else {
+          stream_ = null;
+          streamBuilder_ = null;
+        }
         return this;
       }
 
@@ -2028,6 +4830,12 @@ public final class ChatProcotol {
         result.from_ = from_;
         result.message_ = message_;
         result.isBcast_ = isBcast_;
+        result.timestamp_ = timestamp_;
+        if (streamBuilder_ == null) {
+          result.stream_ = stream_;
+        } else {
+          result.stream_ = streamBuilder_.build();
+        }
         onBuilt();
         return result;
       }
@@ -2080,6 +4888,12 @@ public final class ChatProcotol {
         if (other.getIsBcast() != false) {
           setIsBcast(other.getIsBcast());
         }
+        if (other.getTimestamp() != 0L) {
+          setTimestamp(other.getTimestamp());
+        }
+        if (other.hasStream()) {
+          mergeStream(other.getStream());
+        }
         this.mergeUnknownFields(other.unknownFields);
         onChanged();
         return this;
@@ -2270,6 +5084,197 @@ public final class ChatProcotol {
         onChanged();
         return this;
       }
+
+      private long timestamp_ ;
+      /**
+       * <pre>
+       * Lamport timestamp given by the sender, 0 if it doesn't have one
+       * </pre>
+       *
+       * <code>int64 timestamp = 4;</code>
+       */
+      public long getTimestamp() {
+        return timestamp_;
+      }
+      /**
+       * <pre>
+       * Lamport timestamp given by the sender, 0 if it doesn't have one
+       * </pre>
+       *
+       * <code>int64 timestamp = 4;</code>
+       */
+      public Builder setTimestamp(long value) {
+        
+        timestamp_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <pre>
+       * Lamport timestamp given by the sender, 0 if it doesn't have one
+       * </pre>
+       *
+       * <code>int64 timestamp = 4;</code>
+       */
+      public Builder clearTimestamp() {
+        
+        timestamp_ = 0L;
+        onChanged();
+        return this;
+      }
+
+      private chatprotos.ChatProcotol.Data stream_ = null;
+      private com.google.protobuf.SingleFieldBuilderV3<
+          chatprotos.ChatProcotol.Data, chatprotos.ChatProcotol.Data.Builder, chatprotos.ChatProcotol.DataOrBuilder> streamBuilder_;
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public boolean hasStream() {
+        return streamBuilder_ != null || stream_ != null;
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public chatprotos.ChatProcotol.Data getStream() {
+        if (streamBuilder_ == null) {
+          return stream_ == null ? chatprotos.ChatProcotol.Data.getDefaultInstance() : stream_;
+        } else {
+          return streamBuilder_.getMessage();
+        }
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public Builder setStream(chatprotos.ChatProcotol.Data value) {
+        if (streamBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          stream_ = value;
+          onChanged();
+        } else {
+          streamBuilder_.setMessage(value);
+        }
+
+        return this;
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public Builder setStream(
+          chatprotos.ChatProcotol.Data.Builder builderForValue) {
+        if (streamBuilder_ == null) {
+          stream_ = builderForValue.build();
+          onChanged();
+        } else {
+          streamBuilder_.setMessage(builderForValue.build());
+        }
+
+        return this;
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public Builder mergeStream(chatprotos.ChatProcotol.Data value) {
+        if (streamBuilder_ == null) {
+          if (stream_ != null) {
+            stream_ =
+              chatprotos.ChatProcotol.Data.newBuilder(stream_).mergeFrom(value).buildPartial();
+          } else {
+            stream_ = value;
+          }
+          onChanged();
+        } else {
+          streamBuilder_.mergeFrom(value);
+        }
+
+        return this;
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public Builder clearStream() {
+        if (streamBuilder_ == null) {
+          stream_ = null;
+          onChanged();
+        } else {
+          stream_ = null;
+          streamBuilder_ = null;
+        }
+
+        return this;
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public chatprotos.ChatProcotol.Data.Builder getStreamBuilder() {
+        
+        onChanged();
+        return getStreamFieldBuilder().getBuilder();
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      public chatprotos.ChatProcotol.DataOrBuilder getStreamOrBuilder() {
+        if (streamBuilder_ != null) {
+          return streamBuilder_.getMessageOrBuilder();
+        } else {
+          return stream_ == null ?
+              chatprotos.ChatProcotol.Data.getDefaultInstance() : stream_;
+        }
+      }
+      /**
+       * <pre>
+       * asks for a history snapshot to be streamed back instead of carrying a message
+       * </pre>
+       *
+       * <code>.Data stream = 5;</code>
+       */
+      private com.google.protobuf.SingleFieldBuilderV3<
+          chatprotos.ChatProcotol.Data, chatprotos.ChatProcotol.Data.Builder, chatprotos.ChatProcotol.DataOrBuilder> 
+          getStreamFieldBuilder() {
+        if (streamBuilder_ == null) {
+          streamBuilder_ = new com.google.protobuf.SingleFieldBuilderV3<
+              chatprotos.ChatProcotol.Data, chatprotos.ChatProcotol.Data.Builder, chatprotos.ChatProcotol.DataOrBuilder>(
+                  getStream(),
+                  getParentForChildren(),
+                  isClean());
+          stream_ = null;
+        }
+        return streamBuilder_;
+      }
       public final Builder setUnknownFields(
           final com.google.protobuf.UnknownFieldSet unknownFields) {
         return super.setUnknownFieldsProto3(unknownFields);
@@ -3674,6 +6679,16 @@ public final class ChatProcotol {
   private static final 
     com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
       internal_static_Data_fieldAccessorTable;
+  private static final com.google.protobuf.Descriptors.Descriptor
+    internal_static_Data_MarksEntry_descriptor;
+  private static final 
+    com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
+      internal_static_Data_MarksEntry_fieldAccessorTable;
+  private static final com.google.protobuf.Descriptors.Descriptor
+    internal_static_Data_Mark_descriptor;
+  private static final 
+    com.google.protobuf.GeneratedMessageV3.FieldAccessorTable
+      internal_static_Data_Mark_fieldAccessorTable;
   private static final com.google.protobuf.Descriptors.Descriptor
     internal_static_Chat_descriptor;
   private static final 
@@ -3699,15 +6714,30 @@ public final class ChatProcotol {
   static {
     java.lang.String[] descriptorData = {
       "\n\nchat.proto\"3\n\006ZKData\022\n\n\002ip\030\001 \001(\t\022\014\n\004po" +
-      "rt\030\002 \001(\t\022\017\n\007udpport\030\003 \001(\t\"\203\001\n\004Data\022\036\n\004ty" +
+      "rt\030\002 \001(\t\022\017\n\007udpport\030\003 \001(\t\"\267\005\n\004Data\022\036\n\004ty" +
       "pe\030\001 \001(\0162\020.Data.packetType\022\016\n\006seq_no\030\002 \001" +
-      "(\005\022\014\n\004data\030\003 \001(\014\022\017\n\007is_last\030\004 \001(\010\",\n\npac" +
-      "ketType\022\013\n\007REQUEST\020\000\022\007\n\003ACK\020\001\022\010\n\004DATA\020\002\"" +
-      "7\n\004Chat\022\014\n\004from\030\001 \001(\t\022\017\n\007message\030\002 \001(\t\022\020" +
-      "\n\010is_bcast\030\003 \001(\010\"(\n\005Reply\022\016\n\006status\030\001 \001(" +
-      "\005\022\017\n\007message\030\002 \001(\t\"!\n\007History\022\026\n\007history" +
-      "\030\001 \003(\0132\005.ChatB\032\n\nchatprotosB\014ChatProcoto" +
-      "lb\006proto3"
+      "(\005\022\014\n\004data\030\003 \001(\014\022\017\n\007is_last\030\004 \001(\010\022\022\n\nchu" +
+      "nk_size\030\005 \001(\005\022 \n\004mode\030\006 \001(\0162\022.Data.trans" +
+      "ferMode\022\014\n\004sack\030\007 \001(\014\022\r\n\005since\030\010 \001(\003\022\016\n\006" +
+      "digest\030\t \001(\014\022\016\n\006offset\030\n \001(\005\022\016\n\006length\030\013" +
+      " \001(\005\022\021\n\tack_delay\030\014 \001(\005\022\013\n\003fec\030\r \001(\005\022 \n\005" +
+      "codec\030\016 \001(\0162\021.Data.compression\022\016\n\006resume" +
+      "\030\017 \001(\005\022\013\n\003crc\030\020 \001(\007\022\014\n\004root\030\021 \001(\014\022\r\n\005pro" +
+      "of\030\022 \001(\014\022\020\n\010tcp_port\030\023 \001(\005\022\016\n\006window\030\024 \001" +
+      "(\005\022\017\n\007session\030\025 \001(\005\022\037\n\005marks\030\026 \003(\0132\020.Dat" +
+      "a.MarksEntry\0328\n\nMarksEntry\022\013\n\003key\030\001 \001(\t\022" +
+      "\031\n\005value\030\002 \001(\0132\n.Data.Mark:\0028\001\032(\n\004Mark\022\021" +
+      "\n\ttimestamp\030\001 \001(\003\022\r\n\005count\030\002 \001(\005\"N\n\npack" +
+      "etType\022\013\n\007REQUEST\020\000\022\007\n\003ACK\020\001\022\010\n\004DATA\020\002\022\010" +
+      "\n\004INFO\020\003\022\n\n\006PARITY\020\004\022\n\n\006STREAM\020\005\"$\n\013comp" +
+      "ression\022\010\n\004NONE\020\000\022\013\n\007DEFLATE\020\001\"3\n\014transf" +
+      "erMode\022\r\n\tGO_BACK_N\020\000\022\024\n\020SELECTIVE_REPEA" +
+      "T\020\001\"a\n\004Chat\022\014\n\004from\030\001 \001(\t\022\017\n\007message\030\002 \001" +
+      "(\t\022\020\n\010is_bcast\030\003 \001(\010\022\021\n\ttimestamp\030\004 \001(\003\022" +
+      "\025\n\006stream\030\005 \001(\0132\005.Data\"(\n\005Reply\022\016\n\006statu" +
+      "s\030\001 \001(\005\022\017\n\007message\030\002 \001(\t\"!\n\007History\022\026\n\007h" +
+      "istory\030\001 \003(\0132\005.ChatB\032\n\nchatprotosB\014ChatP" +
+      "rocotolb\006proto3"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
         new com.google.protobuf.Descriptors.FileDescriptor.    InternalDescriptorAssigner() {
@@ -3732,13 +6762,25 @@ public final class ChatProcotol {
     internal_static_Data_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_Data_descriptor,
-        new java.lang.String[] { "Type", "SeqNo", "Data", "IsLast", });
+        new java.lang.String[] { "Type", "SeqNo", "Data", "IsLast", "ChunkSize", "Mode", "Sack", "Since", "Digest", "Offset", "Length", "AckDelay", "Fec", "Codec", "Resume", "Crc", "Root", "Proof", "TcpPort", "Window", "Session", "Marks", });
+    internal_static_Data_MarksEntry_descriptor =
+      internal_static_Data_descriptor.getNestedTypes().get(0);
+    internal_static_Data_MarksEntry_fieldAccessorTable = new
+      com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
+        internal_static_Data_MarksEntry_descriptor,
+        new java.lang.String[] { "Key", "Value", });
+    internal_static_Data_Mark_descriptor =
+      internal_static_Data_descriptor.getNestedTypes().get(1);
+    internal_static_Data_Mark_fieldAccessorTable = new
+      com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
+        internal_static_Data_Mark_descriptor,
+        new java.lang.String[] { "Timestamp", "Count", });
     internal_static_Chat_descriptor =
       getDescriptor().getMessageTypes().get(2);
     internal_static_Chat_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_Chat_descriptor,
-        new java.lang.String[] { "From", "Message", "IsBcast", });
+        new java.lang.String[] { "From", "Message", "IsBcast", "Timestamp", "Stream", });
     internal_static_Reply_descriptor =
       getDescriptor().getMessageTypes().get(3);
     internal_static_Reply_fieldAccessorTable = new
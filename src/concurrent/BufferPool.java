@@ -0,0 +1,105 @@
+package concurrent;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * A thread-safe pool of ByteBuffers.
+ * A buffer is taken from the pool, filled or drained, and given back to be reused,
+ * so sending or receiving a datagram doesn't allocate a buffer.
+ * Buffers are allocated with the usual capacity, which may change, or larger if a larger one is asked for,
+ * a pooled buffer too small for what is asked is dropped and replaced.
+ * A new buffer is only allocated when every pooled one is in use,
+ * and at most the given number of buffers are kept when they come back.
+ * A bounded pool never has more than that number of buffers in use, instead of allocating another one.
+ */
+public class BufferPool {
+
+    private final IntSupplier capacity;
+    private final int size;
+    private final ArrayDeque<ByteBuffer> buffers;
+    private ReentrantLock lock;
+    private int inUse;
+
+    /**
+     * BufferPool constructor.
+     *
+     * @param capacity
+     *      - usual size of a buffer in bytes
+     * @param size
+     *      - number of buffers to keep, and to have in use at most for a bounded pool
+     */
+    public BufferPool(IntSupplier capacity, int size) {
+        this.capacity = capacity;
+        this.size = size;
+        this.buffers = new ArrayDeque<>(size);
+        this.lock = new ReentrantLock();
+        this.inUse = 0;
+    }
+
+    /**
+     * Take an empty buffer holding at least the given number of bytes from the pool,
+     * or allocate one if none of the pooled ones does.
+     *
+     * @param minimum
+     * @return ByteBuffer
+     */
+    public ByteBuffer acquire(int minimum) {
+        return take(minimum, false);
+    }
+
+    /**
+     * Take an empty buffer holding at least the given number of bytes from a bounded pool,
+     * unless every buffer it may have is in use.
+     *
+     * @param minimum
+     * @return ByteBuffer
+     *      - the buffer, or null if the pool is exhausted
+     */
+    public ByteBuffer tryAcquire(int minimum) {
+        return take(minimum, true);
+    }
+
+    /**
+     * Take a pooled buffer, replace it if it is too small, or allocate one if there is none.
+     *
+     * @param minimum
+     * @param bounded
+     *      - true to give up if the pool is exhausted
+     * @return ByteBuffer
+     */
+    private ByteBuffer take(int minimum, boolean bounded) {
+        this.lock.lock();
+        if (bounded && this.inUse >= this.size) {
+            this.lock.unlock();
+            return null;
+        }
+        ByteBuffer buffer = this.buffers.pollLast();
+        this.inUse++;
+        this.lock.unlock();
+
+        if (buffer == null || buffer.capacity() < minimum) {
+            buffer = ByteBuffer.allocate(Math.max(minimum, this.capacity.getAsInt()));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool, unless the pool is full.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+
+        this.lock.lock();
+        this.inUse--;
+        if (this.buffers.size() < this.size) {
+            this.buffers.addLast(buffer);
+        }
+        this.lock.unlock();
+    }
+}
@@ -0,0 +1,34 @@
+package concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A source of time for the transfers, the timers and the pacing, so they can run on a simulated clock
+ * as well as the system one.
+ * Only differences between two readings mean anything, like System.nanoTime().
+ */
+public interface Clock {
+
+    /**
+     * The clock of the system.
+     */
+    Clock SYSTEM = System::nanoTime;
+
+    /**
+     * Return the current time.
+     *
+     * @return long
+     *      - in nanoseconds
+     */
+    long nanoTime();
+
+    /**
+     * Return the current time.
+     *
+     * @return long
+     *      - in milliseconds
+     */
+    default long millis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanoTime());
+    }
+}
@@ -0,0 +1,94 @@
+package concurrent;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe congestion window with slow start and AIMD.
+ * Below the slow start threshold, the window grows by one packet for every packet acknowledged,
+ * which doubles it every round.
+ * Above the threshold, it grows by about one packet every round.
+ * On a timeout, the threshold drops to half of the window and the window restarts from one packet.
+ */
+public class CongestionWindow {
+
+    private static final int INITIAL_WINDOW = 4;
+    private static final int MIN_THRESHOLD = 2;
+    private final int maxWindow;
+    private ReentrantReadWriteLock lock;
+    private double window;
+    private double threshold;
+    private long lastDecrease;
+
+    /**
+     * CongestionWindow constructor.
+     *
+     * @param maxWindow
+     *      - the largest number of packets in flight
+     */
+    public CongestionWindow(int maxWindow) {
+        this.maxWindow = maxWindow;
+        this.lock = new ReentrantReadWriteLock();
+        this.window = Math.min(INITIAL_WINDOW, maxWindow);
+        this.threshold = maxWindow;
+        this.lastDecrease = Long.MIN_VALUE;
+    }
+
+    /**
+     * Return the current number of packets allowed in flight.
+     *
+     * @return int
+     */
+    public int get() {
+        this.lock.readLock().lock();
+        int window = (int) this.window;
+        this.lock.readLock().unlock();
+
+        return window;
+    }
+
+    /**
+     * Return the current slow start threshold.
+     *
+     * @return int
+     */
+    public int getThreshold() {
+        this.lock.readLock().lock();
+        int threshold = (int) this.threshold;
+        this.lock.readLock().unlock();
+
+        return threshold;
+    }
+
+    /**
+     * Grow the window for newly acknowledged packets.
+     *
+     * @param packets
+     */
+    public void onAcknowledged(int packets) {
+        this.lock.writeLock().lock();
+        for (int i = 0; i < packets; i++) {
+            this.window += (this.window < this.threshold ? 1 : 1 / this.window);
+        }
+        this.window = Math.min(this.window, this.maxWindow);
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Shrink the window for a packet which timed out.
+     * Packets sent before the last decrease were lost in the same round,
+     * so they don't shrink the window again.
+     *
+     * @param sentAt
+     *      - when the lost packet was sent
+     * @param now
+     */
+    public void onTimeout(long sentAt, long now) {
+        this.lock.writeLock().lock();
+        if (sentAt >= this.lastDecrease) {
+            this.threshold = Math.max(this.window / 2, MIN_THRESHOLD);
+            this.window = 1;
+            this.lastDecrease = now;
+        }
+        this.lock.writeLock().unlock();
+    }
+}
@@ -0,0 +1,55 @@
+package concurrent;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CRC-32C (Castagnoli) checksum of a chunk, to detect a corrupted chunk as soon as its packet arrives.
+ * Table-driven, one byte at a time, with the reflected polynomial.
+ */
+public class Crc32c {
+
+    /**
+     * The Castagnoli polynomial, reflected.
+     */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[] TABLE = initTable();
+
+    /**
+     * Compute the checksum of every possible byte.
+     *
+     * @return int[]
+     */
+    private static int[] initTable() {
+        int[] table = new int[256];
+
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = ((crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1);
+            }
+            table[i] = crc;
+        }
+
+        return table;
+    }
+
+    /**
+     * Return the checksum of a chunk.
+     *
+     * @param chunk
+     * @return int
+     */
+    public static int of(ByteString chunk) {
+        ByteBuffer buffer = chunk.asReadOnlyByteBuffer();
+        int crc = 0xFFFFFFFF;
+
+        while (buffer.hasRemaining()) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ buffer.get()) & 0xFF];
+        }
+
+        return ~crc;
+    }
+}
@@ -4,6 +4,8 @@ import chatprotos.ChatProcotol;
 import com.google.protobuf.ByteString;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -12,80 +14,227 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class Download {
 
-    private final ChatProcotol.Data.packetType type;
-    private final int windowSize;
+    /**
+     * The largest number of packets in flight.
+     */
+    private static final int MAX_WINDOW = 256;
+
+    private final ChatProcotol.Data.transferMode mode;
+    private final CongestionWindow window;
+    private final RttEstimator rtt;
+    private final Clock clock;
+    private final int chunkSize;
     private final List<ChatProcotol.Data> dataPackets;
-    private List<ChatProcotol.Chat> data;
-    private byte[] bytes;
-    private Thread currentThread;
+    private final List<ChatProcotol.Data> parityPackets;
     private ReentrantReadWriteLock lock;
+    private BitSet acknowledged;
+    private BitSet retransmitted;
+    private long[] sentAt;
+    private Runnable listener;
+    private ByteString snapshot;
+    private ByteString proof;
+    private long ackDelay;
+    private int fec;
     private int state;
-    private volatile boolean waked;
+    private int advertisedAt;
+    private int transmissions;
+    private int retransmissions;
+    private int highest;
+    private int receiveEdge;
 
     /**
-     * Download Constructor for storing current history data.
+     * Download Constructor for sending Data packets packed already.
+     * The packets are only read, so the same list can be shared by many downloads.
      *
-     * @param data
-     * @param windowSize
+     * @param dataPackets
+     * @param chunkSize
+     *      - data size of each Data packet
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     * @param rtt
+     *      - round trip time estimator of the requester
+     * @param clock
+     *      - where the packets are timed
      */
-    public Download(List<ChatProcotol.Chat> data, int windowSize) {
-        this.type = ChatProcotol.Data.packetType.DATA;
-        this.windowSize = windowSize;
-        this.dataPackets = new ArrayList<>();
-        this.data = data;
+    public Download(List<ChatProcotol.Data> dataPackets, int chunkSize, ChatProcotol.Data.transferMode mode,
+                    RttEstimator rtt, Clock clock) {
+        this.mode = mode;
+        this.window = new CongestionWindow(MAX_WINDOW);
+        this.rtt = rtt;
+        this.clock = clock;
+        this.chunkSize = chunkSize;
+        this.dataPackets = dataPackets;
+        this.parityPackets = new ArrayList<>();
+        this.snapshot = ByteString.EMPTY;
+        this.proof = ByteString.EMPTY;
 
         this.lock = new ReentrantReadWriteLock();
+        this.acknowledged = new BitSet();
+        this.retransmitted = new BitSet();
         this.state = 1;
-        this.waked = false;
+        this.advertisedAt = 0;
+        this.receiveEdge = MAX_WINDOW;
+        this.transmissions = 0;
+        this.retransmissions = 0;
+        this.highest = 0;
+        this.sentAt = new long[this.dataPackets.size() + 1];
+    }
 
-        convertIntoBytes();
-        packIntoTenBytes();
+    /**
+     * Download Constructor for storing a range of current history data.
+     *
+     * @param bytes
+     *      - serialized History
+     * @param offset
+     *      - first byte of the range
+     * @param length
+     *      - size of the range
+     * @param chunkSize
+     *      - data size of each Data packet
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     * @param rtt
+     *      - round trip time estimator of the requester
+     * @param clock
+     *      - where the packets are timed
+     */
+    public Download(byte[] bytes, int offset, int length, int chunkSize, ChatProcotol.Data.transferMode mode,
+                    RttEstimator rtt, Clock clock) {
+        this(pack(bytes, offset, length, chunkSize), chunkSize, mode, rtt, clock);
     }
 
     /**
-     * Convert all Chat messages into a History data and store it into byte array.
+     * Pack every chunk of bytes in the range into a Data packet with its checksum,
+     * and store into a read-only list for sending purpose.
+     * The last chunk could be smaller than the others,
+     * and an empty range still takes one empty packet.
+     *
+     * @param bytes
+     * @param offset
+     *      - first byte of the range
+     * @param length
+     *      - size of the range
+     * @param chunkSize
+     *      - data size of each Data packet
+     * @return List
+     *      - the list of Data packets
      */
-    private void convertIntoBytes() {
-        this.bytes = ChatProcotol.History.newBuilder().addAllHistory(this.data).build().toByteArray();
+    public static List<ChatProcotol.Data> pack(byte[] bytes, int offset, int length, int chunkSize) {
+        List<ChatProcotol.Data> dataPackets = new ArrayList<>();
+
+        for (int i = 0; i == 0 || i * chunkSize < length; i++) {
+            int start = i * chunkSize;
+            int size = Math.min(chunkSize, length - start);
+
+            ByteString chunk = ByteString.copyFrom(bytes, offset + start, size);
+            ChatProcotol.Data packet = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.DATA)
+                    .setData(chunk).setCrc(Crc32c.of(chunk)).setSeqNo(i + 1).setIsLast(start + size == length)
+                    .build();
+
+            dataPackets.add(packet);
+        }
+
+        return Collections.unmodifiableList(dataPackets);
     }
 
     /**
-     * Pack every ten bytes into a Data packet and store into ArrayList for sending purpose.
+     * Turn on forward error correction: a parity packet for every block of packets,
+     * carrying the XOR of their chunks and of their sizes, so the requester can rebuild a lost one.
+     * The last block could be smaller than the others.
+     *
+     * @param fec
+     *      - number of packets in a block
      */
-    private void packIntoTenBytes() {
-        int len = this.bytes.length;
+    public void setFec(int fec) {
+        this.fec = fec;
+        this.parityPackets.clear();
 
-        for (int i = 0, j = 10; i * 10 < len; i++) {
-            if (i * 10 + j >= len) {
-                j = len - i * 10;
+        for (int start = 1; fec > 0 && start <= this.dataPackets.size(); start += fec) {
+            int end = Math.min(start + fec - 1, this.dataPackets.size());
+            byte[] parity = new byte[this.dataPackets.get(start - 1).getData().size()];
+            int length = 0;
+
+            for (int seqNo = start; seqNo <= end; seqNo++) {
+                ByteString chunk = this.dataPackets.get(seqNo - 1).getData();
+                for (int i = 0; i < chunk.size(); i++) {
+                    parity[i] ^= chunk.byteAt(i);
+                }
+                length ^= chunk.size();
             }
 
-            ByteString tenBytes = ByteString.copyFrom(this.bytes, i * 10, j);
-            ChatProcotol.Data packet = ChatProcotol.Data.newBuilder().setType(this.type)
-                    .setData(tenBytes).setSeqNo(i + 1).setIsLast(i * 10 + j == len).build();
+            ByteString chunk = ByteString.copyFrom(parity);
+            this.parityPackets.add(ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.PARITY)
+                    .setSeqNo(start).setFec(end - start + 1).setData(chunk).setCrc(Crc32c.of(chunk)).setLength(length)
+                    .setIsLast(end == this.dataPackets.size()).build());
+        }
+    }
 
-            this.dataPackets.add(packet);
+    /**
+     * Return the parity packet of the block ending with the packet, to send right after it.
+     *
+     * @param seqNo
+     * @return ChatProcotol.Data
+     *      - null if the packet doesn't end a block, or forward error correction is off
+     */
+    public ChatProcotol.Data getParity(int seqNo) {
+        if (this.fec == 0 || (seqNo % this.fec != 0 && seqNo != this.dataPackets.size())) {
+            return null;
         }
+
+        return this.parityPackets.get((seqNo - 1) / this.fec);
     }
 
     /**
-     * Store the reference of the thread which is sending data and waiting.
-     * So we can wake it when receiving an acknowledgement.
+     * Set the id of the snapshot the packets are cut from, so the requester can resume the transfer with it.
      *
-     * @param currentThread
+     * @param snapshot
      */
-    public void setThread(Thread currentThread) {
-        this.currentThread = currentThread;
+    public void setSnapshot(ByteString snapshot) {
+        this.snapshot = snapshot;
     }
 
     /**
-     * Return the reference of current thread.
+     * Return the id of the snapshot the packets are cut from.
      *
-     * @return Thread
-     *      - a reference of a thread
+     * @return ByteString
+     *      - empty if the transfer can't be resumed
      */
-    public Thread getThread() {
-        return this.currentThread;
+    public ByteString getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Set the proof of the range the packets carry, so the requester can check it against the Merkle root
+     * of the history on its own.
+     *
+     * @param proof
+     */
+    public void setProof(ByteString proof) {
+        this.proof = proof;
+    }
+
+    /**
+     * Return the proof of the range the packets carry.
+     *
+     * @return ByteString
+     *      - empty if the range can't be checked on its own
+     */
+    public ByteString getProof() {
+        return this.proof;
+    }
+
+    /**
+     * Resume the transfer after the packets the requester has in order already,
+     * they are taken as acknowledged and never sent.
+     *
+     * @param seqNo
+     *      - sequence number of the last packet the requester has in order
+     */
+    public void resume(int seqNo) {
+        this.lock.writeLock().lock();
+        this.acknowledged.set(1, Math.min(seqNo, this.dataPackets.size()) + 1);
+        this.state = this.acknowledged.nextClearBit(1);
+        this.lock.writeLock().unlock();
     }
 
     /**
@@ -99,12 +248,191 @@ public class Download {
     }
 
     /**
-     * Return the window size for Go-Back-N algorithm.
+     * Return the transfer mode of this download.
+     *
+     * @return ChatProcotol.Data.transferMode
+     */
+    public ChatProcotol.Data.transferMode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Return the current congestion window, the number of packets allowed in flight.
      *
      * @return int
      */
     public int getWindowSize() {
-        return this.windowSize;
+        return this.window.get();
+    }
+
+    /**
+     * Set the number of packets the requester can take after a packet, as it asked for.
+     *
+     * @param seqNo
+     *      - sequence number of the last packet the requester has in order
+     * @param window
+     */
+    public void setReceiveWindow(int seqNo, int window) {
+        this.lock.writeLock().lock();
+        advertise(seqNo, window);
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Move the receive window, unless an acknowledgement after this one has moved it already.
+     * Must hold the write lock.
+     *
+     * @param seqNo
+     *      - sequence number of the last packet the requester has in order
+     * @param window
+     * @return boolean
+     *      - true if the requester can take more packets than before
+     */
+    private boolean advertise(int seqNo, int window) {
+        if (seqNo < this.advertisedAt) {
+            return false;
+        }
+
+        int edge = seqNo + Math.max(0, window);
+        boolean opened = (edge > this.receiveEdge);
+        this.advertisedAt = seqNo;
+        this.receiveEdge = edge;
+
+        return opened;
+    }
+
+    /**
+     * Return the sequence number of the last packet the requester can take at the moment.
+     *
+     * @return int
+     */
+    public int getReceiveEdge() {
+        this.lock.readLock().lock();
+        int receiveEdge = this.receiveEdge;
+        this.lock.readLock().unlock();
+
+        return receiveEdge;
+    }
+
+    /**
+     * Return the current slow start threshold of the congestion window.
+     *
+     * @return int
+     */
+    public int getThreshold() {
+        return this.window.getThreshold();
+    }
+
+    /**
+     * Return the retransmission timeout base on the round trip time to the requester,
+     * and the time it may hold an acknowledgement back.
+     *
+     * @return long
+     *      - in milliseconds
+     */
+    public long getTimeout() {
+        return this.rtt.getTimeout() + this.ackDelay;
+    }
+
+    /**
+     * Set the longest time the requester may hold an acknowledgement back.
+     * The retransmission timeout adds it to the round trip time, so a delayed acknowledgement doesn't time out.
+     * Paced packets are often far enough apart for every acknowledgement to be held back that long.
+     *
+     * @param ackDelay
+     *      - in milliseconds
+     */
+    public void setAckDelay(long ackDelay) {
+        this.ackDelay = ackDelay;
+    }
+
+    /**
+     * Return the round trip time estimator of the requester.
+     *
+     * @return RttEstimator
+     */
+    public RttEstimator getRtt() {
+        return this.rtt;
+    }
+
+    /**
+     * Record the time a packet is sent, and count it.
+     * A packet sent more than once is marked as retransmitted.
+     *
+     * @param seqNo
+     */
+    public void sent(int seqNo) {
+        this.lock.writeLock().lock();
+        if (this.sentAt[seqNo] != 0) {
+            this.retransmitted.set(seqNo);
+            this.retransmissions++;
+        }
+        this.transmissions++;
+        this.highest = Math.max(this.highest, seqNo);
+        this.sentAt[seqNo] = this.clock.nanoTime();
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Return the number of times Data packets have been sent, retransmissions included.
+     *
+     * @return int
+     */
+    public int getTransmissions() {
+        this.lock.readLock().lock();
+        int transmissions = this.transmissions;
+        this.lock.readLock().unlock();
+
+        return transmissions;
+    }
+
+    /**
+     * Return the number of times Data packets have been sent again,
+     * since they were lost, or taken as lost.
+     *
+     * @return int
+     */
+    public int getRetransmissions() {
+        this.lock.readLock().lock();
+        int retransmissions = this.retransmissions;
+        this.lock.readLock().unlock();
+
+        return retransmissions;
+    }
+
+    /**
+     * Return the time a packet was last sent.
+     *
+     * @param seqNo
+     * @return long
+     *      - in nanoseconds, 0 if it hasn't been sent
+     */
+    public long getSentAt(int seqNo) {
+        this.lock.readLock().lock();
+        long sentAt = this.sentAt[seqNo];
+        this.lock.readLock().unlock();
+
+        return sentAt;
+    }
+
+    /**
+     * A packet timed out.
+     * Shrink the congestion window and back off the retransmission timeout.
+     *
+     * @param seqNo
+     */
+    public void timeout(int seqNo) {
+        this.window.onTimeout(getSentAt(seqNo), this.clock.nanoTime());
+        this.rtt.backoff();
+    }
+
+    /**
+     * Return the data size of each Data packet.
+     *
+     * @return int
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
     }
 
     /**
@@ -122,38 +450,129 @@ public class Download {
     }
 
     /**
-     * Change the current state of sending approach.
+     * Mark every packet up to the sequence number as acknowledged,
+     * and the ones in the selective acknowledgement bitmap as well.
+     * Bit i of the bitmap stands for packet seqNo + 2 + i.
+     * Move the current state to the first packet not acknowledged yet.
+     * Sample the round trip time with the latest packet among the newly acknowledged ones,
+     * unless a retransmitted one is among them: it could be the one which triggered the acknowledgement,
+     * and we can't tell which of its transmissions was acknowledged.
+     * Either way, the timeout stops backing off since the requester is responding.
+     * Grow the congestion window for the newly acknowledged packets.
+     * Move the receive window to the number of packets the requester can take after the sequence number.
+     * Let the listener know, so the sender can proceed.
+     * An acknowledgement for a packet we haven't sent is malformed, and ignored,
+     * so are the bits of the bitmap beyond the last packet we have sent.
      *
-     * @param state
+     * @param seqNo
+     * @param sack
+     * @param window
+     * @return boolean
+     *      - true if the acknowledgement told us anything new
      */
-    public void changeState(int state) {
+    public boolean acknowledge(int seqNo, ByteString sack, int window) {
         this.lock.writeLock().lock();
-        if (state > this.state) {
-            this.state = state;
+        int size = Math.max(this.highest, this.state - 1);
+        if (seqNo < -1 || seqNo > size) {
+            this.lock.writeLock().unlock();
+            return false;
         }
+        int newly = 0;
+        long latest = 0;
+        boolean ambiguous = false;
+
+        for (int i = this.state; i <= Math.min(seqNo, size); i++) {
+            if (!this.acknowledged.get(i)) {
+                this.acknowledged.set(i);
+                newly++;
+                ambiguous |= this.retransmitted.get(i);
+                latest = latest(i, latest);
+            }
+        }
+        for (int i = 0; i < sack.size() * 8 && seqNo + 2 + i <= size; i++) {
+            int sacked = seqNo + 2 + i;
+            if ((sack.byteAt(i / 8) & (1 << (i % 8))) != 0 && !this.acknowledged.get(sacked)) {
+                this.acknowledged.set(sacked);
+                newly++;
+                ambiguous |= this.retransmitted.get(sacked);
+                latest = latest(sacked, latest);
+            }
+        }
+        this.state = this.acknowledged.nextClearBit(1);
+
+        boolean opened = advertise(seqNo, window);
+        boolean changed = (newly > 0 || opened);
+        if (newly > 0) {
+            if (latest != 0 && !ambiguous) {
+                this.rtt.sample((this.clock.nanoTime() - latest) / 1e6);
+            }
+            else {
+                this.rtt.responded();
+            }
+            this.window.onAcknowledged(newly);
+        }
+        Runnable listener = this.listener;
         this.lock.writeLock().unlock();
+
+        if (changed && listener != null) {
+            listener.run();
+        }
+
+        return changed;
+    }
+
+    /**
+     * Compare the time a packet was sent with the latest one so far.
+     *
+     * @param seqNo
+     * @param latest
+     * @return long
+     *      - the later one
+     */
+    private long latest(int seqNo, long latest) {
+        long sentAt = this.sentAt[seqNo];
+        if (sentAt == 0) {
+            return latest;
+        }
+
+        return (latest == 0 || sentAt - latest > 0 ? sentAt : latest);
     }
 
     /**
-     * Check if the thread was waked or timeout.
+     * Check if a packet has been acknowledged.
      *
+     * @param seqNo
      * @return boolean
      */
-    public boolean isWaked() {
-        return this.waked;
+    public boolean isAcknowledged(int seqNo) {
+        this.lock.readLock().lock();
+        boolean result = this.acknowledged.get(seqNo);
+        this.lock.readLock().unlock();
+
+        return result;
     }
 
     /**
-     * Set waked condition back to false.
+     * Return the number of packets acknowledged so far.
+     *
+     * @return int
      */
-    public void resetWake() {
-        this.waked = false;
+    public int acknowledged() {
+        this.lock.readLock().lock();
+        int acknowledged = this.acknowledged.cardinality();
+        this.lock.readLock().unlock();
+
+        return acknowledged;
     }
 
     /**
-     * Set waked condition.
+     * Set the task to run whenever an acknowledgement tells us anything new.
+     *
+     * @param listener
      */
-    public void setWake() {
-        this.waked = true;
+    public void setListener(Runnable listener) {
+        this.lock.writeLock().lock();
+        this.listener = listener;
+        this.lock.writeLock().unlock();
     }
 }
@@ -0,0 +1,48 @@
+package concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe Lamport clock.
+ * It ticks for every message we send, and catches up with every message we receive,
+ * so a message always has a greater timestamp than the ones its sender had seen.
+ */
+public class LamportClock {
+
+    private final AtomicLong time;
+
+    /**
+     * LamportClock constructor.
+     */
+    public LamportClock() {
+        this.time = new AtomicLong(0);
+    }
+
+    /**
+     * Tick for a message to send.
+     *
+     * @return long
+     *      - the timestamp of the message
+     */
+    public long tick() {
+        return this.time.incrementAndGet();
+    }
+
+    /**
+     * Catch up with the timestamp of a message received.
+     *
+     * @param timestamp
+     */
+    public void witness(long timestamp) {
+        this.time.accumulateAndGet(timestamp, Math::max);
+    }
+
+    /**
+     * Return the current time.
+     *
+     * @return long
+     */
+    public long get() {
+        return this.time.get();
+    }
+}
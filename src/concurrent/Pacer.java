@@ -0,0 +1,127 @@
+package concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe token bucket to pace the packets of a transfer over the round trip time,
+ * instead of sending a whole window back to back.
+ * Tokens come in at the pacing rate, the congestion window per smoothed round trip time with a gain:
+ * twice as fast in slow start, so the window can still double every round, and a bit faster afterwards,
+ * so pacing itself never holds the window back.
+ * The bucket holds enough tokens for the packets due in two ticks of the timers,
+ * since a timer can't wake the sender up any finer, and never less than two.
+ * Without a round trip time sample, the packets aren't paced.
+ */
+public class Pacer {
+
+    private static final double SLOW_START_GAIN = 2.0;
+    private static final double GAIN = 1.25;
+    private static final int MIN_BURST = 2;
+    private final long tick;
+    private final Clock clock;
+    private ReentrantLock lock;
+    private double rate;
+    private double burst;
+    private double tokens;
+    private long last;
+
+    /**
+     * Pacer constructor.
+     *
+     * @param tick
+     *      - resolution of the timers in milliseconds
+     * @param clock
+     *      - where the tokens come in
+     */
+    public Pacer(long tick, Clock clock) {
+        this.tick = TimeUnit.MILLISECONDS.toNanos(tick);
+        this.clock = clock;
+        this.lock = new ReentrantLock();
+        this.rate = 0;
+        this.burst = MIN_BURST;
+        this.tokens = MIN_BURST;
+        this.last = this.clock.nanoTime();
+    }
+
+    /**
+     * Set the pacing rate from the congestion window and the round trip time.
+     *
+     * @param window
+     *      - congestion window in packets
+     * @param threshold
+     *      - slow start threshold in packets
+     * @param rtt
+     *      - smoothed round trip time in milliseconds, 0 if there is no sample yet
+     */
+    public void setRate(int window, int threshold, double rtt) {
+        this.lock.lock();
+        refill(this.clock.nanoTime());
+        if (rtt > 0) {
+            double gain = (window < threshold ? SLOW_START_GAIN : GAIN);
+            this.rate = gain * window / TimeUnit.MICROSECONDS.toNanos((long) Math.ceil(rtt * 1000));
+            this.burst = Math.max(MIN_BURST, 2 * this.rate * this.tick);
+        }
+        else {
+            this.rate = 0;
+        }
+        this.lock.unlock();
+    }
+
+    /**
+     * Take a token for a packet, if there is one.
+     *
+     * @param now
+     *      - in nanoseconds
+     * @return boolean
+     *      - true if the packet can be sent now
+     */
+    public boolean acquire(long now) {
+        this.lock.lock();
+        boolean result = (this.rate == 0);
+        if (!result) {
+            refill(now);
+            if (this.tokens >= 1) {
+                this.tokens--;
+                result = true;
+            }
+        }
+        this.lock.unlock();
+
+        return result;
+    }
+
+    /**
+     * Return the time the next token comes in.
+     *
+     * @param now
+     *      - in nanoseconds
+     * @return long
+     *      - in nanoseconds, now if there is a token already
+     */
+    public long nextToken(long now) {
+        this.lock.lock();
+        long next = now;
+        if (this.rate > 0) {
+            refill(now);
+            next += (long) Math.ceil(Math.max(0, 1 - this.tokens) / this.rate);
+        }
+        this.lock.unlock();
+
+        return next;
+    }
+
+    /**
+     * Add the tokens coming in since the last time, up to the size of the bucket.
+     * Must hold the lock.
+     *
+     * @param now
+     *      - in nanoseconds
+     */
+    private void refill(long now) {
+        if (now - this.last > 0) {
+            this.tokens = Math.min(this.burst, this.tokens + (now - this.last) * this.rate);
+            this.last = now;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package concurrent;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe data structure to reassemble Data packets from another node in order.
+ * With Go-Back-N, only the next packet in order is accepted.
+ * With Selective Repeat, packets ahead of it are buffered until the gap is filled.
+ * Chunks in order are handed over to a consumer, and not kept afterwards.
+ * If the consumer finds them malformed, the reassembly fails and hands nothing over any more.
+ * With forward error correction, every block of packets is followed by a parity packet,
+ * the XOR of their chunks, and a single packet lost in a block is rebuilt from the others and the parity
+ * without waiting for the sender to resend it. The packets ahead of a gap in the same block are buffered
+ * for that even with Go-Back-N, and the chunks of a block are kept until every packet of it is in order.
+ */
+public class Reassembly {
+
+    private final ChatProcotol.Data.transferMode mode;
+    private final int capacity;
+    private final TreeMap<Integer, ByteString> pending;
+    private final ArrayDeque<ByteString> ready;
+    private final BiConsumer<ByteString, Boolean> consumer;
+    private final int fec;
+    private final TreeMap<Integer, ByteString> protectedChunks;
+    private final TreeMap<Integer, ChatProcotol.Data> parities;
+    private final Clock clock;
+    private ReentrantReadWriteLock lock;
+    private ReentrantLock deliverLock;
+    private int size;
+    private int last;
+    private int delivered;
+    private boolean failed;
+    private long firstArrival;
+    private ByteString snapshot;
+    private ByteString proof;
+
+    /**
+     * Reassembly constructor.
+     *
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     * @param capacity
+     *      - number of packets we can buffer ahead of the next one in order
+     * @param consumer
+     *      - takes the chunks in order, and whether it is the last one
+     * @param clock
+     *      - where the arrival of the first packet is timed
+     */
+    public Reassembly(ChatProcotol.Data.transferMode mode, int capacity, BiConsumer<ByteString, Boolean> consumer,
+                      Clock clock) {
+        this(mode, capacity, 0, consumer, clock);
+    }
+
+    /**
+     * Reassembly constructor with forward error correction.
+     *
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     * @param capacity
+     *      - number of packets we can buffer ahead of the next one in order
+     * @param fec
+     *      - number of packets in a block protected by one parity packet, 0 for none
+     * @param consumer
+     *      - takes the chunks in order, and whether it is the last one
+     * @param clock
+     *      - where the arrival of the first packet is timed
+     */
+    public Reassembly(ChatProcotol.Data.transferMode mode, int capacity, int fec,
+                      BiConsumer<ByteString, Boolean> consumer, Clock clock) {
+        this.mode = mode;
+        this.capacity = capacity;
+        this.pending = new TreeMap<>();
+        this.ready = new ArrayDeque<>();
+        this.consumer = consumer;
+        this.fec = fec;
+        this.protectedChunks = new TreeMap<>();
+        this.parities = new TreeMap<>();
+        this.clock = clock;
+        this.lock = new ReentrantReadWriteLock();
+        this.deliverLock = new ReentrantLock();
+        this.size = 0;
+        this.last = 0;
+        this.delivered = 0;
+        this.failed = false;
+        this.firstArrival = 0;
+        this.snapshot = ByteString.EMPTY;
+        this.proof = ByteString.EMPTY;
+    }
+
+    /**
+     * Thread-safe method to accept a Data packet base on its sequence number.
+     * Move the buffered packets behind it into order if it fills the gap.
+     * Chunks moving into order are queued for the consumer.
+     * With forward error correction, a packet ahead of the gap in the same block is buffered as well,
+     * and a packet completing a block but one with its parity rebuilds the missing one.
+     *
+     * @param seqNo
+     * @param chunk
+     * @param isLast
+     * @return boolean
+     *      - true if the packet is new to us
+     */
+    public boolean offer(int seqNo, ByteString chunk, boolean isLast) {
+        boolean result = false;
+
+        this.lock.writeLock().lock();
+        int next = this.size + 1;
+        boolean ahead = (seqNo > next && ((this.mode == ChatProcotol.Data.transferMode.SELECTIVE_REPEAT
+                && seqNo <= next + this.capacity) || (this.fec > 0 && seqNo <= blockStart(next) + this.fec - 1)));
+        if (seqNo == next || (ahead && !this.pending.containsKey(seqNo))) {
+            result = true;
+            accept(seqNo, chunk, isLast);
+            if (this.fec > 0) {
+                recover(blockStart(seqNo));
+            }
+        }
+        this.lock.writeLock().unlock();
+
+        return result;
+    }
+
+    /**
+     * Thread-safe method to accept a parity packet of a block, if the block isn't complete in order yet.
+     * Rebuild the missing packet if it is the only one missing in the block.
+     *
+     * @param parity
+     *      - sequence number of the first packet in the block, number of packets,
+     *        XOR of their chunks and of their sizes, and whether the block ends with the last packet
+     * @return int
+     *      - sequence number of the rebuilt packet, 0 if nothing is rebuilt
+     */
+    public int offerParity(ChatProcotol.Data parity) {
+        int rebuilt = 0;
+
+        this.lock.writeLock().lock();
+        int start = parity.getSeqNo();
+        if (this.fec > 0 && start == blockStart(start) && parity.getFec() > 0
+                && start + parity.getFec() - 1 > this.size) {
+            this.parities.put(start, parity);
+            rebuilt = recover(start);
+        }
+        this.lock.writeLock().unlock();
+
+        return rebuilt;
+    }
+
+    /**
+     * Accept a new packet, move it and the buffered packets behind it into order if it fills the gap.
+     * Keep its chunk while its block isn't complete in order.
+     * Must hold the write lock.
+     *
+     * @param seqNo
+     * @param chunk
+     * @param isLast
+     */
+    private void accept(int seqNo, ByteString chunk, boolean isLast) {
+        if (isLast) {
+            this.last = seqNo;
+        }
+        if (this.firstArrival == 0) {
+            this.firstArrival = this.clock.nanoTime();
+        }
+        if (this.fec > 0) {
+            this.protectedChunks.put(seqNo, chunk);
+        }
+
+        if (seqNo == this.size + 1) {
+            this.ready.add(chunk);
+            this.size++;
+
+            ByteString buffered;
+            while ((buffered = this.pending.remove(this.size + 1)) != null) {
+                this.ready.add(buffered);
+                this.size++;
+            }
+
+            // blocks complete in order don't need their chunks or parities any more
+            if (this.fec > 0) {
+                int open = blockStart(this.size + 1);
+                this.protectedChunks.headMap(open).clear();
+                this.parities.headMap(open).clear();
+            }
+        }
+        else {
+            this.pending.put(seqNo, chunk);
+        }
+    }
+
+    /**
+     * Rebuild the missing packet of a block from its parity and the other packets,
+     * if its parity has arrived and no other packet is missing.
+     * Must hold the write lock.
+     *
+     * @param start
+     *      - sequence number of the first packet in the block
+     * @return int
+     *      - sequence number of the rebuilt packet, 0 if nothing is rebuilt
+     */
+    private int recover(int start) {
+        ChatProcotol.Data parity = this.parities.get(start);
+        if (parity == null) {
+            return 0;
+        }
+
+        int end = start + parity.getFec() - 1;
+        int missing = 0;
+        for (int seqNo = start; seqNo <= end; seqNo++) {
+            if (!this.protectedChunks.containsKey(seqNo)) {
+                if (missing != 0) {
+                    return 0;
+                }
+                missing = seqNo;
+            }
+        }
+        this.parities.remove(start);
+        if (missing == 0) {
+            return 0;
+        }
+
+        byte[] bytes = parity.getData().toByteArray();
+        int length = parity.getLength();
+        for (ByteString chunk : this.protectedChunks.subMap(start, end + 1).values()) {
+            for (int i = 0; i < chunk.size() && i < bytes.length; i++) {
+                bytes[i] ^= chunk.byteAt(i);
+            }
+            length ^= chunk.size();
+        }
+        if (length < 0 || length > bytes.length) {
+            return 0;
+        }
+
+        accept(missing, ByteString.copyFrom(bytes, 0, length), parity.getIsLast() && missing == end);
+        return missing;
+    }
+
+    /**
+     * Return the sequence number of the first packet in the block of a packet.
+     *
+     * @param seqNo
+     * @return int
+     */
+    private int blockStart(int seqNo) {
+        return (seqNo - 1) / this.fec * this.fec + 1;
+    }
+
+    /**
+     * Hand over the chunks queued in order to the consumer, and whether it is the last one.
+     * Only one thread delivers at a time, so the consumer never sees them at the same time or out of order.
+     * It doesn't block the other threads offering packets.
+     * If the consumer can't take a chunk, since what we received is malformed, fail the reassembly.
+     */
+    public void deliver() {
+        this.deliverLock.lock();
+        try {
+            while (true) {
+                this.lock.writeLock().lock();
+                ByteString chunk = (this.failed ? null : this.ready.poll());
+                boolean isLast = (chunk != null && ++this.delivered == this.last);
+                this.lock.writeLock().unlock();
+
+                if (chunk == null) {
+                    break;
+                }
+                try {
+                    this.consumer.accept(chunk, isLast);
+                }
+                catch (UncheckedIOException uioe) {
+                    this.lock.writeLock().lock();
+                    this.failed = true;
+                    this.ready.clear();
+                    this.lock.writeLock().unlock();
+                }
+            }
+        }
+        finally {
+            this.deliverLock.unlock();
+        }
+    }
+
+    /**
+     * Return the transfer mode of this reassembly.
+     *
+     * @return ChatProcotol.Data.transferMode
+     */
+    public ChatProcotol.Data.transferMode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Return the number of packets received in order,
+     * which is also the sequence number of the last one.
+     *
+     * @return int
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        int size = this.size;
+        this.lock.readLock().unlock();
+
+        return size;
+    }
+
+    /**
+     * Return the number of packets received so far, in order or not.
+     *
+     * @return int
+     */
+    public int received() {
+        this.lock.readLock().lock();
+        int received = this.size + this.pending.size();
+        this.lock.readLock().unlock();
+
+        return received;
+    }
+
+    /**
+     * Return the number of chunks in order which haven't been handed over to the consumer yet.
+     *
+     * @return int
+     */
+    public int undelivered() {
+        this.lock.readLock().lock();
+        int undelivered = this.ready.size();
+        this.lock.readLock().unlock();
+
+        return undelivered;
+    }
+
+    /**
+     * Return the time the first packet arrived.
+     *
+     * @return long
+     *      - in nanoseconds, 0 if nothing has arrived
+     */
+    public long getFirstArrival() {
+        this.lock.readLock().lock();
+        long firstArrival = this.firstArrival;
+        this.lock.readLock().unlock();
+
+        return firstArrival;
+    }
+
+    /**
+     * Set the id of the snapshot the packets are cut from, to resume the transfer with.
+     *
+     * @param snapshot
+     */
+    public void setSnapshot(ByteString snapshot) {
+        this.lock.writeLock().lock();
+        this.snapshot = snapshot;
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Return the id of the snapshot the packets are cut from.
+     *
+     * @return ByteString
+     *      - empty if it isn't known
+     */
+    public ByteString getSnapshot() {
+        this.lock.readLock().lock();
+        ByteString snapshot = this.snapshot;
+        this.lock.readLock().unlock();
+
+        return snapshot;
+    }
+
+    /**
+     * Set the proof of the range the packets carry, to check it against the Merkle root of the history.
+     *
+     * @param proof
+     */
+    public void setProof(ByteString proof) {
+        this.lock.writeLock().lock();
+        this.proof = proof;
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Return the proof of the range the packets carry.
+     *
+     * @return ByteString
+     *      - empty if it isn't known
+     */
+    public ByteString getProof() {
+        this.lock.readLock().lock();
+        ByteString proof = this.proof;
+        this.lock.readLock().unlock();
+
+        return proof;
+    }
+
+    /**
+     * Return a bitmap of the packets received out of order.
+     * Bit i is set when packet size() + 2 + i has been received.
+     *
+     * @return ByteString
+     */
+    public ByteString sack() {
+        this.lock.readLock().lock();
+        int base = this.size + 2;
+        byte[] bitmap = new byte[this.pending.isEmpty() ? 0 : (this.pending.lastKey() - base) / 8 + 1];
+        for (int seqNo : this.pending.keySet()) {
+            int bit = seqNo - base;
+            bitmap[bit / 8] |= (1 << (bit % 8));
+        }
+        this.lock.readLock().unlock();
+
+        return ByteString.copyFrom(bitmap);
+    }
+
+    /**
+     * Check if every packet up to the last one has been received in order.
+     *
+     * @return boolean
+     */
+    public boolean isComplete() {
+        this.lock.readLock().lock();
+        boolean complete = (this.last > 0 && this.size >= this.last);
+        this.lock.readLock().unlock();
+
+        return complete;
+    }
+
+    /**
+     * Check if the consumer has found the chunks malformed.
+     *
+     * @return boolean
+     */
+    public boolean isFailed() {
+        this.lock.readLock().lock();
+        boolean failed = this.failed;
+        this.lock.readLock().unlock();
+
+        return failed;
+    }
+}
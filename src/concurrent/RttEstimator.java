@@ -0,0 +1,132 @@
+package concurrent;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A thread-safe round trip time estimator of a node, with Jacobson/Karels algorithm.
+ * Keeps the smoothed round trip time and its variation to compute the retransmission timeout,
+ * and doubles the timeout for every timeout until the node responds again.
+ * Following Karn's rule, the caller should only sample packets which were sent once.
+ */
+public class RttEstimator {
+
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final int K = 4;
+
+    /**
+     * Retransmission timeouts in milliseconds.
+     */
+    private static final long INITIAL_TIMEOUT = 1000;
+    private static final long MIN_TIMEOUT = 5;
+    private static final long MAX_TIMEOUT = 10000;
+
+    private ReentrantReadWriteLock lock;
+    private double smoothed;
+    private double variation;
+    private boolean sampled;
+    private long timeout;
+    private int backoff;
+
+    /**
+     * RttEstimator constructor.
+     * Start with a conservative timeout until the first sample arrives.
+     */
+    public RttEstimator() {
+        this.lock = new ReentrantReadWriteLock();
+        this.sampled = false;
+        this.timeout = INITIAL_TIMEOUT;
+        this.backoff = 0;
+    }
+
+    /**
+     * Update the estimation with a new round trip time sample.
+     * The first sample initializes the estimation, the following ones are smoothed in.
+     * The timeout no longer backs off.
+     *
+     * @param rtt
+     *      - in milliseconds
+     */
+    public void sample(double rtt) {
+        this.lock.writeLock().lock();
+        if (!this.sampled) {
+            this.smoothed = rtt;
+            this.variation = rtt / 2;
+            this.sampled = true;
+        }
+        else {
+            this.variation = (1 - BETA) * this.variation + BETA * Math.abs(this.smoothed - rtt);
+            this.smoothed = (1 - ALPHA) * this.smoothed + ALPHA * rtt;
+        }
+
+        long timeout = (long) Math.ceil(this.smoothed + K * this.variation);
+        this.timeout = Math.max(MIN_TIMEOUT, Math.min(timeout, MAX_TIMEOUT));
+        this.backoff = 0;
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Double the timeout since a packet has timed out.
+     */
+    public void backoff() {
+        this.lock.writeLock().lock();
+        if ((this.timeout << this.backoff) < MAX_TIMEOUT) {
+            this.backoff++;
+        }
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * The node responds again but the round trip time can't be sampled,
+     * so the timeout goes back to the estimation without backing off.
+     * Otherwise, a few retransmissions in a row keep doubling the timeout
+     * even though the node is responding.
+     */
+    public void responded() {
+        this.lock.writeLock().lock();
+        this.backoff = 0;
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * Return the current retransmission timeout.
+     *
+     * @return long
+     *      - in milliseconds
+     */
+    public long getTimeout() {
+        this.lock.readLock().lock();
+        long timeout = Math.min(this.timeout << this.backoff, MAX_TIMEOUT);
+        this.lock.readLock().unlock();
+
+        return timeout;
+    }
+
+    /**
+     * Return the smoothed round trip time.
+     *
+     * @return double
+     *      - in milliseconds, 0 if there is no sample yet
+     */
+    public double getSmoothed() {
+        this.lock.readLock().lock();
+        double smoothed = this.smoothed;
+        this.lock.readLock().unlock();
+
+        return smoothed;
+    }
+
+    /**
+     * Return the round trip time variation.
+     *
+     * @return double
+     *      - in milliseconds, 0 if there is no sample yet
+     */
+    public double getVariation() {
+        this.lock.readLock().lock();
+        double variation = this.variation;
+        this.lock.readLock().unlock();
+
+        return variation;
+    }
+}
@@ -6,6 +6,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A parameterized thread-safe data structure.
+ * Every change bumps its version, so a copy can tell whether it is still up to date.
  *
  * @param <T>
  */
@@ -13,6 +14,7 @@ public class SharedDataStructure<T> {
 
     private List<T> data;
     private ReentrantReadWriteLock lock;
+    private long version;
 
     /**
      * SharedDataStructure Constructor.
@@ -20,6 +22,7 @@ public class SharedDataStructure<T> {
     public SharedDataStructure() {
         this.data = new ArrayList<>();
         this.lock = new ReentrantReadWriteLock();
+        this.version = 0;
     }
 
     /**
@@ -30,6 +33,7 @@ public class SharedDataStructure<T> {
     public void add(T element) {
         this.lock.writeLock().lock();
         this.data.add(element);
+        this.version++;
         this.lock.writeLock().unlock();
     }
 
@@ -49,6 +53,7 @@ public class SharedDataStructure<T> {
         this.lock.writeLock().lock();
         if (seqNo == this.data.size() + 1) {
             this.data.add(element);
+            this.version++;
             result = true;
         }
         this.lock.writeLock().unlock();
@@ -96,6 +101,70 @@ public class SharedDataStructure<T> {
         this.lock.writeLock().lock();
         this.data = new ArrayList<>();
         this.data.addAll(data);
+        this.version++;
         this.lock.writeLock().unlock();
     }
+
+    /**
+     * Return the current version of the data structure.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        this.lock.readLock().lock();
+        long version = this.version;
+        this.lock.readLock().unlock();
+
+        return version;
+    }
+
+    /**
+     * Deep copy the data list into a new ArrayList, together with its version.
+     *
+     * @return Snapshot
+     */
+    public Snapshot<T> snapshot() {
+        List<T> data = new ArrayList<>();
+
+        this.lock.readLock().lock();
+        data.addAll(this.data);
+        long version = this.version;
+        this.lock.readLock().unlock();
+
+        return new Snapshot<>(data, version);
+    }
+
+    /**
+     * A copy of the data list and the version it was copied at.
+     *
+     * @param <T>
+     */
+    public static class Snapshot<T> {
+
+        private final List<T> data;
+        private final long version;
+
+        private Snapshot(List<T> data, long version) {
+            this.data = data;
+            this.version = version;
+        }
+
+        /**
+         * Return the copy of the data list.
+         *
+         * @return List
+         */
+        public List<T> get() {
+            return this.data;
+        }
+
+        /**
+         * Return the version the data list was copied at.
+         *
+         * @return long
+         */
+        public long getVersion() {
+            return this.version;
+        }
+    }
 }
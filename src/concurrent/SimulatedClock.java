@@ -0,0 +1,47 @@
+package concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe simulated clock which only moves when it is told to,
+ * so the timers, the round trip times and the pacing of a transfer are the same on every run,
+ * no matter how fast the machine running it is.
+ * A timing wheel on this clock fires its timers once the clock has been moved past them.
+ * The clock starts from one second instead of zero, since a time of zero means never to the transfers.
+ */
+public class SimulatedClock implements Clock {
+
+    private static final long EPOCH = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now;
+
+    /**
+     * SimulatedClock constructor.
+     */
+    public SimulatedClock() {
+        this.now = new AtomicLong(EPOCH);
+    }
+
+    /**
+     * Return the simulated time.
+     *
+     * @return long
+     *      - in nanoseconds
+     */
+    @Override
+    public long nanoTime() {
+        return this.now.get();
+    }
+
+    /**
+     * Move the clock forward.
+     *
+     * @param time
+     * @param unit
+     *      - unit of the time
+     */
+    public void advance(long time, TimeUnit unit) {
+        this.now.addAndGet(Math.max(0, unit.toNanos(time)));
+    }
+}
@@ -0,0 +1,164 @@
+package concurrent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe hashed timing wheel to run a large number of short timers with a single thread.
+ * Every slot of the wheel holds the timers expiring on the ticks which fall into it,
+ * so scheduling a timer costs the same no matter how many are pending.
+ * A timer further than one round away stays in its slot until the round it expires.
+ * Expired timers are handed over to an executor, so the wheel never waits for them.
+ * When no timer is pending, the thread sleeps until a new one is scheduled.
+ * The ticks are counted on a clock, on a simulated one the wheel checks it every tick and turns as it moves.
+ */
+public class TimingWheel implements Runnable {
+
+    private final long tick;
+    private final List<List<Timer>> slots;
+    private final Executor executor;
+    private final Clock clock;
+    private final long start;
+    private ReentrantLock lock;
+    private Condition scheduled;
+    private volatile boolean alive;
+    private long current;
+    private int pending;
+
+    /**
+     * TimingWheel constructor.
+     *
+     * @param tick
+     *      - resolution of the timers in milliseconds
+     * @param slots
+     *      - number of ticks in one round
+     * @param executor
+     *      - where expired timers run
+     * @param clock
+     *      - where the ticks are counted
+     */
+    public TimingWheel(long tick, int slots, Executor executor, Clock clock) {
+        this.tick = TimeUnit.MILLISECONDS.toNanos(tick);
+        this.slots = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            this.slots.add(new ArrayList<>());
+        }
+        this.executor = executor;
+        this.clock = clock;
+        this.start = clock.nanoTime();
+        this.lock = new ReentrantLock();
+        this.scheduled = this.lock.newCondition();
+        this.alive = true;
+        this.current = 0;
+        this.pending = 0;
+    }
+
+    /**
+     * Run the task after the delay, rounded up to a tick, so it never runs early.
+     *
+     * @param task
+     * @param delay
+     *      - in milliseconds
+     */
+    public void schedule(Runnable task, long delay) {
+        long elapsed = this.clock.nanoTime() - this.start;
+        long expiry = (elapsed + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)) + this.tick - 1) / this.tick;
+
+        this.lock.lock();
+        if (this.pending == 0) {
+            // nothing is pending, the ticks passed while sleeping don't need to be walked through
+            this.current = Math.max(this.current, elapsed / this.tick);
+        }
+        long deadline = Math.max(expiry, this.current + 1);
+        this.slots.get((int) (deadline % this.slots.size())).add(new Timer(deadline, task));
+        this.pending++;
+        this.scheduled.signal();
+        this.lock.unlock();
+    }
+
+    /**
+     * Keep turning the wheel tick by tick, and run the timers expired on every tick.
+     */
+    @Override
+    public void run() {
+        List<Runnable> expired = new ArrayList<>();
+
+        while (this.alive) {
+            this.lock.lock();
+            try {
+                while (this.alive && this.pending == 0) {
+                    this.scheduled.await();
+                }
+
+                long now = currentTick();
+                // one round visits every slot, so never walk through more than that
+                long last = Math.min(now, this.current + this.slots.size());
+                for (long t = this.current + 1; t <= last; t++) {
+                    Iterator<Timer> it = this.slots.get((int) (t % this.slots.size())).iterator();
+                    while (it.hasNext()) {
+                        Timer timer = it.next();
+                        if (timer.deadline <= now) {
+                            expired.add(timer.task);
+                            it.remove();
+                            this.pending--;
+                        }
+                    }
+                }
+                this.current = Math.max(this.current, now);
+
+                if (expired.isEmpty() && this.pending > 0) {
+                    this.scheduled.awaitNanos(this.start + (this.current + 1) * this.tick - this.clock.nanoTime());
+                }
+            }
+            catch (InterruptedException ie) {
+                break;
+            }
+            finally {
+                this.lock.unlock();
+            }
+
+            for (Runnable task : expired) {
+                this.executor.execute(task);
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Stop turning the wheel, pending timers are dropped.
+     */
+    public void close() {
+        this.lock.lock();
+        this.alive = false;
+        this.scheduled.signal();
+        this.lock.unlock();
+    }
+
+    /**
+     * Return the number of ticks since the wheel was created.
+     *
+     * @return long
+     */
+    private long currentTick() {
+        return (this.clock.nanoTime() - this.start) / this.tick;
+    }
+
+    /**
+     * A task and the tick it expires.
+     */
+    private static class Timer {
+
+        private final long deadline;
+        private final Runnable task;
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
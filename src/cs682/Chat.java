@@ -1,8 +1,11 @@
 package cs682;
 
 import chatprotos.ChatProcotol;
-import com.google.protobuf.ByteString;
+import concurrent.Clock;
 import concurrent.Download;
+import concurrent.LamportClock;
+import concurrent.Reassembly;
+import concurrent.RttEstimator;
 import concurrent.SharedDataStructure;
 
 import java.io.IOException;
@@ -10,8 +13,10 @@ import java.net.*;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A peer to peer chat application developed with ZooKeeper,
@@ -35,6 +40,42 @@ public class Chat {
      */
     protected static final int THREADS = 8;
 
+    /**
+     * Default data size of each Data packet when downloading history,
+     * keeps a datagram within the MTU of most paths.
+     */
+    protected static final int DEFAULT_CHUNK_SIZE = 1400;
+
+    /**
+     * Default number of Data packets in order to acknowledge together.
+     */
+    protected static final int DEFAULT_ACK_EVERY = 2;
+
+    /**
+     * Default longest time in milliseconds to hold an acknowledgement back.
+     */
+    protected static final int DEFAULT_ACK_DELAY = 10;
+
+    /**
+     * Default size in bytes of the largest history to send in Data packets, a larger one is streamed over TCP.
+     */
+    protected static final int DEFAULT_STREAM_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Number of Data packets in a block protected by one parity packet, when forward error correction is asked for.
+     */
+    protected static final int FEC_BLOCK = 8;
+
+    /**
+     * The largest data size of each Data packet we can send or receive.
+     */
+    protected static final int MAX_CHUNK_SIZE = 65000;
+
+    /**
+     * Room for the fields other than data in a Data packet.
+     */
+    protected static final int PACKET_OVERHEAD = 64;
+
     /**
      * Status of Receiver and User Interface.
      */
@@ -45,26 +86,116 @@ public class Chat {
      */
     protected static boolean debug = false;
 
+    /**
+     * Data size of each Data packet we ask for when downloading history.
+     */
+    protected static int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Number of Data packets in order we acknowledge together when downloading history.
+     */
+    protected static int ackEvery = DEFAULT_ACK_EVERY;
+
+    /**
+     * Longest time in milliseconds we hold an acknowledgement back when downloading history.
+     */
+    protected static int ackDelay = DEFAULT_ACK_DELAY;
+
+    /**
+     * Size in bytes of the largest history we send in Data packets, a larger one is streamed over TCP.
+     */
+    protected static int streamThreshold = DEFAULT_STREAM_THRESHOLD;
+
     /**
      * Thread-safe data structure for storing the history of broadcast messages.
      */
     protected static final SharedDataStructure<ChatProcotol.Chat> history = new SharedDataStructure<>();
 
+    /**
+     * Lamport clock to give every message we send a timestamp.
+     */
+    protected static final LamportClock clock = new LamportClock();
+
     /**
      * Thread-safe data structure for storing information of nodes on ZooKeeper locally.
      */
     protected static Hashtable<String, ChatProcotol.ZKData> nodes = new Hashtable<>();
 
     /**
-     * Thread-sate data structure for storing Data packets from other nodes.
+     * Session id of the latest transfer we asked for. Starts from a random one,
+     * so the transfers after a restart aren't mistaken for the ones before it.
+     */
+    protected static final AtomicInteger sessions = new AtomicInteger(new Random().nextInt(Integer.MAX_VALUE / 2));
+
+    /**
+     * Thread-sate data structure for storing Data packets from other nodes, keyed by transfer.
+     */
+    protected static final Hashtable<String, Reassembly> historyFromOthers = new Hashtable<>();
+
+    /**
+     * Thread-sate data structure for storing the downloads aborted with a part of a snapshot,
+     * and the ones resuming them until the transfer goes on, keyed by transfer.
+     */
+    protected static final Hashtable<String, UDPSender> partialDownloads = new Hashtable<>();
+
+    /**
+     * Thread-sate data structure for storing the history streams in progress, keyed by transfer.
      */
-    protected static final Hashtable<String, SharedDataStructure<ByteString>> historyFromOthers = new Hashtable<>();
+    protected static final Hashtable<String, HistoryStream> historyStreams = new Hashtable<>();
 
     /**
-     * Thread-safe data structure for storing history data to send to other nodes.
+     * Thread-sate data structure for storing the delayed acknowledgement policy of the Data packets from other nodes,
+     * keyed by transfer.
+     */
+    protected static final Hashtable<String, DelayedAck> delayedAcks = new Hashtable<>();
+
+    /**
+     * Thread-safe data structure for storing history data to send to other nodes, keyed by transfer.
      */
     protected static final Hashtable<String, Download> currentDownloads = new Hashtable<>();
 
+    /**
+     * Thread-safe data structure for storing the downloads waiting for the digest and the size of
+     * the history of other nodes, keyed by transfer.
+     */
+    protected static final Hashtable<String, MultiSourceDownload> infoRequests = new Hashtable<>();
+
+    /**
+     * Thread-safe cache of the serialized history, shared by the requests of the same version of it.
+     */
+    protected static final SnapshotCache snapshots = new SnapshotCache();
+
+    /**
+     * Compression codecs we can send or receive history data with.
+     */
+    protected static final Map<ChatProcotol.Data.compression, Codec> codecs = initCodecs();
+
+    /**
+     * Thread-safe data structure for storing round trip time estimation of each node, keyed by ip:udpport.
+     * Kept across downloads, so a new download starts with a warm estimation.
+     */
+    protected static final Hashtable<String, RttEstimator> rttEstimators = new Hashtable<>();
+
+    /**
+     * Pool of persistent TCP connections to other nodes.
+     */
+    protected static final ConnectionPool connections = new ConnectionPool();
+
+    /**
+     * Clock the UDP transfers, their timers and the pacing of their packets run on.
+     */
+    protected static Clock time = Clock.SYSTEM;
+
+    /**
+     * Scheduler driving the UDP transfers with a constant number of threads.
+     */
+    protected static TransferScheduler scheduler = new TransferScheduler(Chat.time);
+
+    /**
+     * Network impairment applied to the datagrams from other nodes, null for none.
+     */
+    protected static volatile Impairment impairment = null;
+
     /**
      * Customized ZooKeeper object.
      */
@@ -73,12 +204,17 @@ public class Chat {
     /**
      * Static TCP Receiver.
      */
-    protected static ServerSocket receiverSocket;
+    protected static TCPListener receiver;
+
+    /**
+     * Static UDP transport.
+     */
+    protected static UDPTransport udp;
 
     /**
-     * Static UDP Receiver.
+     * Static UDP dispatcher.
      */
-    protected static DatagramSocket udpSocket;
+    protected static UDPDispatcher dispatcher;
 
     /**
      * Static user interface.
@@ -103,6 +239,8 @@ public class Chat {
                 || !arguments.containsKey("port")
                 || !arguments.containsKey("udpport")) {
             System.err.println("[System] Lack of username or port.");
+            Chat.connections.close();
+            Chat.scheduler.close();
             return; // exit
         }
 
@@ -124,9 +262,15 @@ public class Chat {
         catch (Exception e) {
             System.err.println("[System] Exception happened when building ZooKeeper: " + e);
 
-            try { // shutdown
-                Chat.receiverSocket.close();
-                Chat.udpSocket.close();
+            try { // shutdown, the listeners are null if they failed to start
+                if (Chat.receiver != null) {
+                    Chat.receiver.close();
+                }
+                if (Chat.udp != null) {
+                    Chat.udp.close();
+                }
+                Chat.connections.close();
+                Chat.scheduler.close();
             }
             catch (IOException ioe) {
                 System.out.println("[System] Exception happened when shutting down.");
@@ -140,6 +284,45 @@ public class Chat {
         new Chat().startUserInterface();
     }
 
+    /**
+     * Initialize the compression codecs in HashMap, keyed by their type.
+     *
+     * @return Map
+     */
+    private static Map<ChatProcotol.Data.compression, Codec> initCodecs() {
+        Map<ChatProcotol.Data.compression, Codec> codecs = new HashMap<>();
+        Codec deflate = new DeflateCodec();
+        codecs.put(deflate.getType(), deflate);
+
+        return codecs;
+    }
+
+    /**
+     * Return the key of a transfer: ip:udpport of the node, and the session id the requester picked for it.
+     * A node can have many transfers with us at the same time, as long as they are in different sessions.
+     *
+     * @param node
+     *      - ip:udpport of the node
+     * @param session
+     * @return String
+     */
+    protected static String transfer(String node, int session) {
+        return node + "#" + session;
+    }
+
+    /**
+     * Run the UDP transfers on another clock, a simulated one for example, with a new scheduler counting on it.
+     * Must be called before any transfer starts, the timers on the old scheduler are dropped.
+     *
+     * @param clock
+     */
+    protected static void setClock(Clock clock) {
+        TransferScheduler old = Chat.scheduler;
+        Chat.time = clock;
+        Chat.scheduler = new TransferScheduler(clock);
+        old.close();
+    }
+
     /**
      * Method to parse the input arguments.
      *
@@ -161,77 +344,76 @@ public class Chat {
             else if (args[i].equals("-udpport") && i < len - 1) {
                 map.put("udpport", args[++i]);
             }
+            else if (args[i].equals("-chunk") && i < len - 1) {
+                int size = Integer.parseInt(args[++i]);
+                Chat.chunkSize = Math.max(1, Math.min(size, MAX_CHUNK_SIZE));
+            }
+            else if (args[i].equals("-ackevery") && i < len - 1) {
+                Chat.ackEvery = Math.max(1, Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-ackdelay") && i < len - 1) {
+                Chat.ackDelay = Math.max(0, Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-streamover") && i < len - 1) {
+                Chat.streamThreshold = Math.max(0, Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-impair") && i < len - 1) {
+                try {
+                    Chat.impairment = new Impairment(args[++i]);
+                }
+                catch (IllegalArgumentException iae) {
+                    System.err.println("[System] ignored the network impairment: " + iae.getMessage());
+                }
+            }
             else if (args[i].equals("-debug")) {
                 Chat.debug = true;
             }
         }
+        if (Chat.debug && Chat.impairment == null) {
+            Chat.impairment = new Impairment(Impairment.DEBUG_RULE);
+        }
 
         return map;
     }
 
     /**
-     * New thread and thread pool to start listening on TCP port.
-     * Submit new runnable into pool to handle new connection.
+     * New thread to start listening on TCP port with a selector.
+     * A single thread serves all the connections, and a thread pool handles the blocking works.
      *
      * @param port
      */
     private void startReceiver(String port) {
-        final ExecutorService receiverPool = Executors.newFixedThreadPool(THREADS);
-
-        Runnable receiverTask = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Chat.receiverSocket = new ServerSocket(Integer.parseInt(port));
+        final ExecutorService workerPool = Executors.newFixedThreadPool(THREADS);
 
-                    while (Chat.alive) {
-                        Socket listeningSocket = Chat.receiverSocket.accept();
-                        receiverPool.submit(new Receiver(listeningSocket));
-                    }
-                }
-                catch (IOException ignore) {
-                    // exception will happened when we close receiverSocket
-                    receiverPool.shutdown();
-                }
-            }
-        };
+        try {
+            Chat.receiver = new TCPListener(Integer.parseInt(port), workerPool);
 
-        Thread receiverThread = new Thread(receiverTask);
-        receiverThread.start();
+            Thread receiverThread = new Thread(Chat.receiver);
+            receiverThread.start();
+        }
+        catch (IOException ioe) {
+            System.err.println("[System] Exception happened when listening on TCP port: " + ioe);
+            workerPool.shutdown();
+        }
     }
 
     /**
-     * New thread and thread pool to start listening on UDP port.
-     * Submit new runnable into pool to handle new connection.
+     * New thread to start listening on UDP port.
+     * Receive datagrams in batches, and hand them over to the workers the senders are pinned to.
      *
      * @param udpport
      */
     private void startUDPReceiver(String udpport) {
-        final ExecutorService udpReceiverPool = Executors.newFixedThreadPool(THREADS);
-
-        Runnable receiverTask = new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Chat.udpSocket = new DatagramSocket(Integer.parseInt(udpport));
-
-                    while (Chat.alive) {
-                        // a Data packet should not exceed 32 bytes in this application
-                        byte[] empty = new byte[32];
-                        DatagramPacket packet = new DatagramPacket(empty, empty.length);
-
-                        udpSocket.receive(packet);
-                        udpReceiverPool.submit(new UDPReceiver(packet));
-                    }
-                }
-                catch (IOException ignore) {
-                    // exception will happened when we close udpSocket
-                    udpReceiverPool.shutdown();
-                }
-            }
-        };
+        try {
+            Chat.udp = new UDPTransport(Integer.parseInt(udpport));
+        }
+        catch (IOException ioe) {
+            System.err.println("[System] Exception happened when listening on UDP port: " + ioe);
+            return;
+        }
 
-        Thread receiverThread = new Thread(receiverTask);
+        Chat.dispatcher = new UDPDispatcher(Chat.udp, THREADS);
+        Thread receiverThread = new Thread(Chat.dispatcher);
         receiverThread.start();
     }
 
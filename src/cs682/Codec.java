@@ -0,0 +1,39 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A compression codec for the history data sent to other nodes.
+ * The whole serialized History is compressed before it is packed into Data packets,
+ * and decompressed on the other side while the chunks arrive in order.
+ */
+public interface Codec {
+
+    /**
+     * Return the type of compression to ask for in a REQUEST.
+     *
+     * @return ChatProcotol.Data.compression
+     */
+    ChatProcotol.Data.compression getType();
+
+    /**
+     * Compress a serialized History.
+     *
+     * @param bytes
+     * @return byte[]
+     */
+    byte[] compress(byte[] bytes);
+
+    /**
+     * Return a consumer decompressing the chunks in order and passing the decompressed ones on.
+     * A sender not knowing about compression sends the History as it is, which is passed on untouched.
+     *
+     * @param consumer
+     *      - takes the decompressed chunks in order, and whether it is the last one
+     * @return BiConsumer
+     */
+    BiConsumer<ByteString, Boolean> decompress(BiConsumer<ByteString, Boolean> consumer);
+}
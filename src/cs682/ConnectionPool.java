@@ -0,0 +1,324 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread-safe pool of persistent TCP connections to other nodes, keyed by username.
+ * Connections are reused for successive messages, evicted after being idle for a while,
+ * and replaced transparently when the ZKData of a node changes.
+ */
+public class ConnectionPool {
+
+    /**
+     * Time in milliseconds for connecting to a node.
+     */
+    private static final int CONNECT_TIMEOUT = 300;
+
+    /**
+     * Time in milliseconds for waiting a Reply from a node.
+     */
+    private static final int REPLY_TIMEOUT = 3000;
+
+    /**
+     * Time in milliseconds before an unused connection is closed.
+     * It must be shorter than the idle timeout of Receiver,
+     * so we close the connection before the other side does.
+     */
+    protected static final int IDLE_TIMEOUT = 30000;
+
+    private final Hashtable<String, Connection> connections;
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * ConnectionPool constructor.
+     * Start a scheduled task to evict idle connections.
+     */
+    public ConnectionPool() {
+        this.connections = new Hashtable<>();
+        this.evictor = Executors.newSingleThreadScheduledExecutor();
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, IDLE_TIMEOUT, IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send a message to a node and wait for its Reply.
+     * If a pooled connection turns out to be stale, it might have been
+     * closed by the other side before the message reached it, so try once more with a new connection.
+     * Any other failure, like a Reply which doesn't come in time, isn't retried,
+     * since the node may have handled the message already.
+     * A message which reached the node without a valid Reply fails with NoReplyException,
+     * so the caller can tell a busy node from one which can't be reached.
+     *
+     * @param username
+     * @param zkData
+     * @param chat
+     * @return ChatProcotol.Reply
+     *      - reply from the node
+     * @throws IOException
+     */
+    public ChatProcotol.Reply send(String username, ChatProcotol.ZKData zkData, ChatProcotol.Chat chat)
+            throws IOException {
+        Connection connection = acquire(username, zkData);
+
+        try {
+            return connection.send(chat);
+        }
+        catch (StaleConnectionException sce) {
+            invalidate(username, connection);
+            if (!connection.isReused()) {
+                throw sce;
+            }
+        }
+        catch (IOException ioe) {
+            invalidate(username, connection);
+            throw ioe;
+        }
+
+        connection = acquire(username, zkData);
+        try {
+            return connection.send(chat);
+        }
+        catch (IOException ioe) {
+            invalidate(username, connection);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Return the pooled connection of a node, or open a new one.
+     * A pooled connection with out-of-date ZKData will be closed and replaced.
+     *
+     * @param username
+     * @param zkData
+     * @return Connection
+     * @throws IOException
+     */
+    private Connection acquire(String username, ChatProcotol.ZKData zkData) throws IOException {
+        Connection connection = this.connections.get(username);
+        if (connection != null) {
+            if (connection.isFor(zkData)) {
+                return connection;
+            }
+            invalidate(username, connection);
+        }
+
+        // connect outside of the lock so one slow node won't block the others
+        Connection newConnection = new Connection(zkData);
+        synchronized (this.connections) {
+            connection = this.connections.get(username);
+            if (connection == null || !connection.isFor(zkData)) {
+                this.connections.put(username, newConnection);
+                return newConnection;
+            }
+        }
+
+        // someone else has connected to the same node at the same time
+        newConnection.close();
+        return connection;
+    }
+
+    /**
+     * Remove a connection from the pool and close it.
+     *
+     * @param username
+     * @param connection
+     */
+    private void invalidate(String username, Connection connection) {
+        this.connections.remove(username, connection);
+        connection.close();
+    }
+
+    /**
+     * Close the connections which haven't been used for a while.
+     */
+    private void evictIdle() {
+        List<Map.Entry<String, Connection>> entries;
+        synchronized (this.connections) {
+            entries = new ArrayList<>(this.connections.entrySet());
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Connection> entry : entries) {
+            if (entry.getValue().isIdle(now)) {
+                invalidate(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stop evicting and close all the connections.
+     */
+    public void close() {
+        this.evictor.shutdownNow();
+
+        synchronized (this.connections) {
+            for (Connection connection : this.connections.values()) {
+                connection.close();
+            }
+            this.connections.clear();
+        }
+    }
+
+    /**
+     * A persistent connection to a node.
+     * Only one message can be in flight on a connection at a time.
+     */
+    private static class Connection {
+
+        private final ChatProcotol.ZKData zkData;
+        private final Socket socket;
+        private final PushbackInputStream inStream;
+        private final OutputStream outStream;
+        private long lastUsed;
+        private boolean reused;
+
+        /**
+         * Connection constructor.
+         *
+         * @param zkData
+         * @throws IOException
+         */
+        private Connection(ChatProcotol.ZKData zkData) throws IOException {
+            this.zkData = zkData;
+            this.socket = new Socket();
+
+            try {
+                SocketAddress endPoint = new InetSocketAddress(zkData.getIp(), Integer.parseInt(zkData.getPort()));
+                this.socket.connect(endPoint, CONNECT_TIMEOUT); // timeout when a node has issue receiving message
+                this.socket.setSoTimeout(REPLY_TIMEOUT);
+                this.socket.setTcpNoDelay(true);
+                this.inStream = new PushbackInputStream(this.socket.getInputStream());
+                this.outStream = this.socket.getOutputStream();
+            }
+            catch (IOException ioe) {
+                this.socket.close();
+                throw ioe;
+            }
+
+            this.lastUsed = System.currentTimeMillis();
+            this.reused = false;
+        }
+
+        /**
+         * Send a message with Chat protocol and wait for the Reply.
+         *
+         * @param chat
+         * @return ChatProcotol.Reply
+         * @throws StaleConnectionException
+         *      - if the message can't be written,
+         *      or a pooled connection is closed before any byte of the Reply
+         * @throws NoReplyException
+         *      - if the message is written but the Reply doesn't come in time, breaks off or is malformed
+         */
+        private synchronized ChatProcotol.Reply send(ChatProcotol.Chat chat) throws IOException {
+            try {
+                chat.writeDelimitedTo(this.outStream);
+                this.outStream.flush();
+            }
+            catch (IOException ioe) {
+                throw new StaleConnectionException(ioe.toString());
+            }
+
+            ChatProcotol.Reply response;
+            try {
+                int first = this.inStream.read();
+                if (first < 0 && this.reused) {
+                    throw new StaleConnectionException("connection closed by peer");
+                }
+                if (first >= 0) {
+                    this.inStream.unread(first);
+                }
+                response = ChatProcotol.Reply.parseDelimitedFrom(this.inStream);
+            }
+            catch (StaleConnectionException sce) {
+                throw sce;
+            }
+            catch (IOException ioe) {
+                throw new NoReplyException(ioe.toString());
+            }
+            if (response == null) {
+                throw new NoReplyException("connection closed by peer");
+            }
+
+            this.lastUsed = System.currentTimeMillis();
+            this.reused = true;
+            return response;
+        }
+
+        /**
+         * Check if this connection was opened with the given ZKData.
+         *
+         * @param zkData
+         * @return boolean
+         */
+        private boolean isFor(ChatProcotol.ZKData zkData) {
+            return this.zkData.equals(zkData);
+        }
+
+        /**
+         * Check if this connection has been used before.
+         *
+         * @return boolean
+         */
+        private synchronized boolean isReused() {
+            return this.reused;
+        }
+
+        /**
+         * Check if this connection hasn't been used for a while.
+         *
+         * @param now
+         * @return boolean
+         */
+        private synchronized boolean isIdle(long now) {
+            return now - this.lastUsed >= IDLE_TIMEOUT;
+        }
+
+        /**
+         * Close the socket quietly.
+         */
+        private void close() {
+            try {
+                this.socket.close();
+            }
+            catch (IOException ignore) {}
+        }
+    }
+
+    /**
+     * A message has been written to a node, but no valid Reply comes back.
+     */
+    static class NoReplyException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private NoReplyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A pooled connection turns out to be closed before the message reached the other side.
+     */
+    private static class StaleConnectionException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private StaleConnectionException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A codec compressing the history with Deflate in the zlib format from the JDK.
+ * Chat messages repeat a lot, the usernames above all, so the history shrinks to a fraction of its size.
+ */
+public class DeflateCodec implements Codec {
+
+    /**
+     * Size of the buffer to decompress into, every time it fills up it is passed on as a chunk.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Return the type of compression to ask for in a REQUEST.
+     *
+     * @return ChatProcotol.Data.compression
+     */
+    @Override
+    public ChatProcotol.Data.compression getType() {
+        return ChatProcotol.Data.compression.DEFLATE;
+    }
+
+    /**
+     * Compress a serialized History, favoring speed since it is done for every request.
+     *
+     * @param bytes
+     * @return byte[]
+     */
+    @Override
+    public byte[] compress(byte[] bytes) {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream(bytes.length / 4 + 64);
+
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(outStream, new Deflater(Deflater.BEST_SPEED))) {
+            deflater.write(bytes);
+        }
+        catch (IOException ignore) {
+            // writing into a byte array doesn't throw
+        }
+
+        return outStream.toByteArray();
+    }
+
+    /**
+     * Return a consumer inflating the chunks in order and passing the inflated ones on.
+     *
+     * @param consumer
+     * @return BiConsumer
+     */
+    @Override
+    public BiConsumer<ByteString, Boolean> decompress(BiConsumer<ByteString, Boolean> consumer) {
+        return new Decompressor(consumer);
+    }
+
+    /**
+     * Inflate the chunks while they arrive in order.
+     * A serialized History starts with the tag of its first Chat, or is empty,
+     * which never looks like the header of a zlib stream, so a History sent as it is can be told apart.
+     */
+    private static class Decompressor implements BiConsumer<ByteString, Boolean> {
+
+        private final BiConsumer<ByteString, Boolean> consumer;
+        private final Inflater inflater;
+        private final byte[] buffer;
+        private boolean started;
+        private boolean plain;
+
+        private Decompressor(BiConsumer<ByteString, Boolean> consumer) {
+            this.consumer = consumer;
+            this.inflater = new Inflater();
+            this.buffer = new byte[BUFFER_SIZE];
+            this.started = false;
+            this.plain = false;
+        }
+
+        /**
+         * Inflate the chunk and pass on whatever comes out of it.
+         * Once the last chunk is inflated, the stream should have ended.
+         * If the stream turns out to be malformed, pass the failure on, so the history is requested again.
+         *
+         * @param chunk
+         * @param isLast
+         * @throws UncheckedIOException
+         *      - if the stream is malformed
+         */
+        @Override
+        public void accept(ByteString chunk, Boolean isLast) {
+            if (!this.started) {
+                this.started = true;
+                // the low four bits of a zlib header are always 8, for the Deflate method
+                this.plain = (chunk.isEmpty() || (chunk.byteAt(0) & 0x0F) != Deflater.DEFLATED);
+            }
+            if (this.plain) {
+                this.consumer.accept(chunk, isLast);
+                return;
+            }
+            try {
+                this.inflater.setInput(chunk.toByteArray());
+                int size;
+                while ((size = this.inflater.inflate(this.buffer)) > 0) {
+                    this.consumer.accept(ByteString.copyFrom(this.buffer, 0, size), false);
+                }
+
+                if (isLast) {
+                    if (!this.inflater.finished()) {
+                        throw new DataFormatException("history ends in the middle of the stream.");
+                    }
+                    this.inflater.end();
+                    this.consumer.accept(ByteString.EMPTY, true);
+                }
+            }
+            catch (DataFormatException dfe) {
+                this.inflater.end();
+                System.err.println("[System] issue occurred when decompressing a history packet.");
+                throw new UncheckedIOException(new ZipException(dfe.getMessage()));
+            }
+        }
+    }
+}
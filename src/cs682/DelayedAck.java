@@ -0,0 +1,110 @@
+package cs682;
+
+import concurrent.Reassembly;
+
+/**
+ * A delayed acknowledgement policy for the Data packets from a node.
+ * Acknowledgements are cumulative, so one of them covers every packet received in order before it.
+ * Acknowledge every few packets in order, or once the first packet not acknowledged
+ * has been held for a while, whichever comes first.
+ * Acknowledge right away when something is out of order, so the sender learns about the gap:
+ * a packet ahead of a gap, a packet filling a gap, or a duplicate.
+ * The last packet is acknowledged right away as well.
+ * Every acknowledgement advertises the number of packets we can take, so the sender doesn't outrun us.
+ */
+public class DelayedAck {
+
+    private final Reassembly reassembly;
+    private final String ip;
+    private final String port;
+    private final int session;
+    private final int every;
+    private final long delay;
+    private int size;
+    private int unacknowledged;
+    private boolean scheduled;
+
+    /**
+     * DelayedAck constructor.
+     *
+     * @param reassembly
+     * @param ip
+     * @param port
+     * @param session
+     *      - session id of the transfer
+     * @param every
+     *      - number of packets in order to acknowledge together
+     * @param delay
+     *      - longest time in milliseconds to hold an acknowledgement back
+     */
+    public DelayedAck(Reassembly reassembly, String ip, String port, int session, int every, long delay) {
+        this.reassembly = reassembly;
+        this.ip = ip;
+        this.port = port;
+        this.session = session;
+        this.every = every;
+        this.delay = delay;
+        this.size = 0;
+        this.unacknowledged = 0;
+        this.scheduled = false;
+    }
+
+    /**
+     * Return the data structure this policy acknowledges for.
+     *
+     * @return Reassembly
+     */
+    public Reassembly getReassembly() {
+        return this.reassembly;
+    }
+
+    /**
+     * A new packet has been accepted by the data structure.
+     * Acknowledge right away if it is out of order, fills a gap, is the last one or completes a group,
+     * otherwise set a timer for the delay unless one is set already.
+     *
+     * @param seqNo
+     */
+    public synchronized void received(int seqNo) {
+        int previous = this.size;
+        this.size = this.reassembly.size();
+        this.unacknowledged++;
+
+        boolean inOrder = (seqNo == previous + 1 && this.size == seqNo);
+        boolean gap = (this.reassembly.received() > this.size);
+        if (!inOrder || gap || this.reassembly.isComplete() || this.unacknowledged >= this.every) {
+            acknowledge();
+        }
+        else if (!this.scheduled) {
+            this.scheduled = true;
+            Chat.scheduler.schedule(this::expire, this.delay);
+        }
+    }
+
+    /**
+     * A duplicate has arrived, the previous acknowledgement could be lost, acknowledge right away.
+     */
+    public synchronized void duplicate() {
+        acknowledge();
+    }
+
+    /**
+     * The timer goes off, acknowledge the packets held back.
+     */
+    private synchronized void expire() {
+        this.scheduled = false;
+        if (this.unacknowledged > 0) {
+            acknowledge();
+        }
+    }
+
+    /**
+     * Send an acknowledgement of the current state of the data structure, and the number of packets we can take.
+     */
+    private void acknowledge() {
+        this.unacknowledged = 0;
+        int window = UDPSender.receiveWindow(this.ip + ":" + this.port, this.reassembly);
+        new UDPSender(this.ip, this.port, this.session, this.reassembly.size(), this.reassembly.sack(), window)
+                .run();
+    }
+}
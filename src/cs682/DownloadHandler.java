@@ -2,22 +2,48 @@ package cs682;
 
 import chatprotos.ChatProcotol;
 import concurrent.Download;
+import concurrent.Pacer;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A runnable DownloadHandler to handle the download request from other nodes.
+ * It is a state machine driven by the transfer scheduler: every run takes one step,
+ * which sends what the congestion window allows and sets a timer for the retransmission timeout.
+ * It never sends beyond the receive window the requester advertises either,
+ * but always keeps one packet in flight, so an acknowledgement tells us once a closed window opens again.
+ * Packets are paced over the round trip time instead of sent back to back,
+ * so a window doesn't arrive as a burst overflowing the buffers on the way or of the requester.
+ * A new acknowledgement or an expired timer wakes it up to take the next step.
  */
 public class DownloadHandler implements Runnable {
 
-    private final static int WINDOW_SIZE = 4;
+    /**
+     * Number of timeouts in a row before giving up.
+     * The timeout doubles every time, so this covers a few seconds even on a fast link.
+     */
+    private final static int MAX_FAILURES = 10;
+
+    private final Map<ChatProcotol.Data.transferMode, Runnable> map;
     private final Download download;
     private final String ip;
     private final String port;
+    private final int session;
+    private final InetSocketAddress address;
+    private final AtomicBoolean queued;
+    private final Pacer pacer;
+    private long start;
+    private long timer;
+    private int next;
+    private int acknowledged;
+    private int fail;
+    private boolean done;
 
     /**
      * DownloadHandler constructor.
@@ -25,82 +51,275 @@ public class DownloadHandler implements Runnable {
      * @param download
      * @param ip
      * @param port
+     * @param session
+     *      - session id the requester picked for the transfer
      */
-    public DownloadHandler(Download download, String ip, String port) {
+    public DownloadHandler(Download download, String ip, String port, int session) {
+        this.map = new HashMap<>();
         this.download = download;
         this.ip = ip;
         this.port = port;
+        this.session = session;
+        this.address = Chat.udp.address(ip, port);
+        this.queued = new AtomicBoolean(false);
+        this.pacer = new Pacer(TransferScheduler.TICK, Chat.time);
+        this.next = 1;
+        this.acknowledged = 0;
+        this.fail = 0;
+        this.done = false;
+        initMap();
+    }
+
+    /**
+     * Start the download approach.
+     * Take the next step whenever an acknowledgement tells us anything new.
+     */
+    public void start() {
+        this.start = Chat.time.millis();
+        this.download.setListener(this::wake);
+        wake();
+    }
+
+    /**
+     * Queue a step on the transfer scheduler, unless one is queued already.
+     */
+    private void wake() {
+        if (this.queued.compareAndSet(false, true)) {
+            Chat.scheduler.execute(this);
+        }
     }
 
     /**
-     * Prepare the list of Data packets.
-     * Keep sending until the state goes to the end of the list,
-     * or until failing for five times in the same state.
-     * The number of Data packets we send in each state is base on the window size.
-     * After sending all Data packets of current state, wait for waking up by
-     * an acknowledgement from target node for 200 ms.
-     * After waking or 200 ms, if the state didn't change, count a failure.
-     * If the state exceed the end of the list, sending completed.
+     * Take a step base on the transfer mode of the download, at the pacing rate of the current window.
+     * Steps never run at the same time.
      */
     @Override
-    public void run() {
-        synchronized (this) {
-            List<ChatProcotol.Data> dataPackets = this.download.get();
-            int window = this.download.getWindowSize();
-            int size = dataPackets.size();
-            int state = this.download.currentState();
-            int fail = 0;
-            int preEnd = 0;
-
-            while (state <= size) {
-                int i = (this.download.isWaked() ? preEnd + 1 : state);
-                this.download.resetWake();
-                for (; i <= size && i < state + window; i++) {
-                    send(dataPackets.get(i - 1));
-                    preEnd = i;
-                }
+    public synchronized void run() {
+        this.queued.set(false);
+        if (this.done) {
+            return;
+        }
 
-                try {
-                    this.wait(200);
-                }
-                catch (InterruptedException ignore) {}
+        int acknowledged = this.download.acknowledged();
+        if (acknowledged > this.acknowledged) {
+            this.acknowledged = acknowledged;
+            this.fail = 0;
+        }
 
-                if (state == this.download.currentState()) {
-                    fail++;
-                    if (Chat.debug) {
-                        System.out.println("[Debug] didn't get any acknowledgement, resending...");
-                    }
+        if (this.download.currentState() > this.download.get().size()) {
+            finish();
+        }
+        else {
+            this.pacer.setRate(this.download.getWindowSize(), this.download.getThreshold(),
+                    this.download.getRtt().getSmoothed());
+            this.map.get(this.download.getMode()).run();
+        }
+    }
 
-                    if (fail >= 5) {
-                        System.err.println("[System] failed to send history data.");
-                        break;
-                    }
+    /**
+     * Report the result, and remove the download from the in-progress ones.
+     */
+    private void finish() {
+        this.done = true;
+
+        int size = this.download.get().size();
+        if (this.download.currentState() > size) {
+            System.out.println("[System] history data has been successfully delivered.");
+            if (Chat.debug) {
+                System.out.println("[Debug] delivered " + size + " DATA packets in "
+                        + (Chat.time.millis() - this.start) + " ms, final window: "
+                        + this.download.getWindowSize() + ", round trip time: "
+                        + String.format("%.2f", this.download.getRtt().getSmoothed()) + " ms, retransmitted: "
+                        + this.download.getRetransmissions() + " of " + this.download.getTransmissions() + ".");
+            }
+        }
+        else {
+            System.err.println("[System] failed to send history data.");
+        }
+        Chat.currentDownloads.remove(Chat.transfer(this.ip + ":" + this.port, this.session), this.download);
+    }
+
+    /**
+     * Initialize methods in HashMap to handle different transfer modes.
+     */
+    private void initMap() {
+        this.map.put(ChatProcotol.Data.transferMode.GO_BACK_N, this::goBackN);
+        this.map.put(ChatProcotol.Data.transferMode.SELECTIVE_REPEAT, this::selectiveRepeat);
+    }
+
+    /**
+     * One step of Go-Back-N.
+     * If the first unacknowledged packet timed out, count a failure, shrink the window,
+     * back off the timeout and go back to it. Give up after failing for ten times in a row.
+     * The number of Data packets in flight is base on the congestion window and the receive window,
+     * only the packets not sent yet in the window are sent, as long as the pacer lets them.
+     * The timer is set for the first unacknowledged packet, or the next token if it is earlier.
+     */
+    private void goBackN() {
+        int size = this.download.get().size();
+        int state = this.download.currentState();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(this.download.getTimeout());
+        long sentAt = this.download.getSentAt(state);
+
+        // after going back, a packet only times out once it has been sent again
+        if (state < this.next && Chat.time.nanoTime() - sentAt >= timeout) {
+            this.fail++;
+            this.download.timeout(state);
+            if (Chat.debug) {
+                System.out.println("[Debug] didn't get any acknowledgement, resending...");
+            }
+
+            if (this.fail >= MAX_FAILURES) {
+                finish();
+                return;
+            }
+
+            this.next = state; // go back to the first unacknowledged packet
+            timeout = TimeUnit.MILLISECONDS.toNanos(this.download.getTimeout());
+        }
+
+        this.next = Math.max(this.next, state);
+        int end = windowEnd(state);
+        long now = Chat.time.nanoTime();
+        for (; this.next <= size && this.next <= end && this.pacer.acquire(now); this.next++) {
+            send(this.next);
+        }
+
+        sentAt = this.download.getSentAt(state);
+        if (this.next <= size && this.next <= end) {
+            setTimer(sentAt != 0 ? Math.min(sentAt + timeout, this.pacer.nextToken(now)) : this.pacer.nextToken(now));
+        }
+        else {
+            setTimer(sentAt + timeout);
+        }
+    }
+
+    /**
+     * One step of Selective Repeat.
+     * Every packet in the window has its own timeout
+     * base on the retransmission timeout estimated from the round trip time.
+     * Only the packets which are not acknowledged when they time out are resent,
+     * and the window shrinks and the timeout backs off once for the ones timing out together.
+     * Give up after timing out ten times in a row without any acknowledgement.
+     * Packets are only sent or resent as long as the pacer lets them, the rest wait for the next token.
+     * The timer is set for the earliest packet to time out, or the next token if it is earlier.
+     */
+    private void selectiveRepeat() {
+        int size = this.download.get().size();
+        int state = this.download.currentState();
+        int end = windowEnd(state);
+        long timeout = TimeUnit.MILLISECONDS.toNanos(this.download.getTimeout());
+        long now = Chat.time.nanoTime();
+        long nextTimeout = now + timeout;
+        boolean timedOut = false;
+
+        for (int i = state; i <= size && i <= end; i++) {
+            if (this.download.isAcknowledged(i)) {
+                continue;
+            }
+
+            long sentAt = this.download.getSentAt(i);
+            if (sentAt == 0 || now - sentAt >= timeout) {
+                if (!this.pacer.acquire(now)) {
+                    nextTimeout = Math.min(nextTimeout, this.pacer.nextToken(now));
+                    break;
                 }
-                else {
-                    state = Math.min(this.download.currentState(), state + this.WINDOW_SIZE);
-                    fail = 0;
+                if (sentAt != 0) {
+                    // packets timing out together were lost together, count them once
+                    if (!timedOut) {
+                        timedOut = true;
+                        this.fail++;
+                        this.download.timeout(i);
+                    }
+                    if (Chat.debug) {
+                        System.out.println("[Debug] didn't get acknowledgement of packet " + i + ", resending...");
+                    }
                 }
-            }
 
-            if (state > size) {
-                System.out.println("[System] history data has been successfully delivered.");
+                send(i);
+                sentAt = now;
             }
-            Chat.currentDownloads.remove(this.ip + ":" + this.port);
+            nextTimeout = Math.min(nextTimeout, sentAt + timeout);
+        }
+
+        if (this.fail >= MAX_FAILURES) {
+            finish();
+            return;
+        }
+
+        setTimer(nextTimeout);
+    }
+
+    /**
+     * Return the sequence number of the last packet in the window: the smaller of the congestion window
+     * and the receive window, but at least the first unacknowledged packet,
+     * which probes a closed receive window like any other packet would.
+     *
+     * @param state
+     *      - sequence number of the first unacknowledged packet
+     * @return int
+     */
+    private int windowEnd(int state) {
+        int end = Math.min(state + this.download.getWindowSize() - 1, this.download.getReceiveEdge());
+
+        return Math.max(state, end);
+    }
+
+    /**
+     * Wake up at the given time, unless a timer goes off earlier already.
+     * A timer going off early only takes a step which doesn't find anything timed out.
+     *
+     * @param at
+     *      - in nanoseconds
+     */
+    private void setTimer(long at) {
+        long now = Chat.time.nanoTime();
+        if (this.timer == 0 || this.timer - now <= 0 || at - this.timer < 0) {
+            this.timer = at;
+            Chat.scheduler.schedule(this::wake, (Math.max(0, at - now) + 999999) / 1000000);
+        }
+    }
+
+    /**
+     * Send a Data packet in the session of the transfer and record the time.
+     * The first time a packet ending a block is sent, send the parity packet of the block right after it.
+     * The first packet and the parity of the first block carry the snapshot id and the proof of the range,
+     * if the transfer has them.
+     *
+     * @param seqNo
+     */
+    private void send(int seqNo) {
+        ChatProcotol.Data parity = (this.download.getSentAt(seqNo) == 0 ? this.download.getParity(seqNo) : null);
+
+        send(withHeader(this.download.get().get(seqNo - 1)));
+        this.download.sent(seqNo);
+        if (parity != null) {
+            send(withHeader(parity));
         }
     }
 
+    /**
+     * Add the snapshot id and the proof to a packet of the first block,
+     * the shared packets themselves are never changed.
+     *
+     * @param data
+     * @return ChatProcotol.Data
+     */
+    private ChatProcotol.Data withHeader(ChatProcotol.Data data) {
+        if (data.getSeqNo() != 1 || (this.download.getSnapshot().isEmpty() && this.download.getProof().isEmpty())) {
+            return data;
+        }
+
+        return data.toBuilder().setDigest(this.download.getSnapshot()).setProof(this.download.getProof()).build();
+    }
+
     private void send(ChatProcotol.Data data) {
         if (Chat.debug) {
-            System.out.println("[Debug] sending DATA packet, sequence number: " + data.getSeqNo() + ".");
+            System.out.println("[Debug] sending " + data.getType() + " packet, sequence number: " + data.getSeqNo() + ".");
         }
 
-        try (ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-            data.writeDelimitedTo(outStream);
-            byte[] packet = outStream.toByteArray();
-            DatagramPacket datagramPacket = new DatagramPacket(packet, packet.length
-                    , InetAddress.getByName(this.ip), Integer.parseInt(this.port));
-
-            Chat.udpSocket.send(datagramPacket);
+        try {
+            Chat.udp.send(data, this.session, this.address);
         }
         catch (IOException ignore) {}
     }
@@ -0,0 +1,220 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A streaming decoder to import a History from other node while its chunks arrive in order.
+ * A History is a sequence of Chat entries, each of them is a tag, a varint length and the Chat itself.
+ * Every complete entry is parsed right away, only the incomplete one at the end of a chunk is kept for the next chunk.
+ * The entire history is collected aside and replaces user's history once the last chunk is decoded,
+ * so a transfer which breaks off or turns out to be malformed leaves user's history as it was.
+ * When only the messages newer than the latest ones we have from their senders are imported,
+ * they are merged into user's history as they come, skipping the ones we have already.
+ * A message is identified by its sender and its timestamp.
+ */
+public class HistoryDecoder implements BiConsumer<ByteString, Boolean> {
+
+    /**
+     * Tag of the repeated Chat field in a History, field number 1 and length-delimited.
+     */
+    private static final int HISTORY_TAG = (ChatProcotol.History.HISTORY_FIELD_NUMBER << 3) | 2;
+
+    /**
+     * The largest Chat entry we accept.
+     */
+    private static final int MAX_ENTRY_SIZE = 64 * 1024;
+
+    private final Map<String, ChatProcotol.Data.Mark> marks;
+    private final Set<String> known;
+    private final List<ChatProcotol.Chat> imported;
+    private ByteString buffer;
+    private int position;
+    private boolean started;
+
+    /**
+     * HistoryDecoder constructor.
+     *
+     * @param marks
+     *      - the latest message and the number of messages we have from every sender
+     *      if only the newer ones are imported, empty otherwise
+     */
+    public HistoryDecoder(Map<String, ChatProcotol.Data.Mark> marks) {
+        this.marks = marks;
+        this.known = new HashSet<>();
+        this.imported = new ArrayList<>();
+        this.buffer = ByteString.EMPTY;
+        this.position = 0;
+        this.started = false;
+    }
+
+    /**
+     * Remember the messages we have, to merge the newer ones into user's history.
+     * Any of them may come again, every message of a sender comes if we miss some of its older ones.
+     */
+    private void start() {
+        if (this.marks.isEmpty()) {
+            return;
+        }
+
+        for (ChatProcotol.Chat chat : Chat.history.get()) {
+            if (chat.getTimestamp() > 0) {
+                this.known.add(identify(chat));
+            }
+        }
+    }
+
+    /**
+     * Collect an imported message of the entire history,
+     * or add a newer message into user's history, unless we have it already.
+     * Catch up with its timestamp.
+     *
+     * @param chat
+     */
+    private void add(ChatProcotol.Chat chat) {
+        Chat.clock.witness(chat.getTimestamp());
+        if (this.marks.isEmpty()) {
+            this.imported.add(chat);
+        }
+        else if (this.known.add(identify(chat))) {
+            Chat.history.add(chat);
+        }
+    }
+
+    /**
+     * Identify a message by its sender and its timestamp.
+     *
+     * @param chat
+     * @return String
+     */
+    private static String identify(ChatProcotol.Chat chat) {
+        return chat.getFrom() + "@" + chat.getTimestamp();
+    }
+
+    /**
+     * Append the chunk to the incomplete entry, parse every complete entry and import it.
+     * Once the last chunk is decoded, nothing should be left, and the entire history replaces user's history.
+     * If the history turns out to be malformed, pass the failure on, so it is requested again.
+     *
+     * @param chunk
+     * @param isLast
+     * @throws UncheckedIOException
+     *      - if the history is malformed
+     */
+    @Override
+    public void accept(ByteString chunk, Boolean isLast) {
+        if (!this.started) {
+            this.started = true;
+            start();
+        }
+
+        try {
+            decode(chunk);
+            if (isLast && !this.buffer.isEmpty()) {
+                throw new InvalidProtocolBufferException("history ends in the middle of an entry.");
+            }
+        }
+        catch (InvalidProtocolBufferException ipbe) {
+            this.buffer = ByteString.EMPTY;
+            System.err.println("[System] issue occurred when parsing a history packet.");
+            throw new UncheckedIOException(ipbe);
+        }
+
+        if (isLast) {
+            if (this.marks.isEmpty()) {
+                Chat.history.replaceAll(this.imported);
+                this.imported.clear();
+            }
+            System.out.println("[System] new history has been loaded.");
+        }
+    }
+
+    /**
+     * Parse every complete entry, and keep the incomplete one.
+     * Joining the chunk to the incomplete entry doesn't copy the bytes.
+     *
+     * @param chunk
+     * @throws InvalidProtocolBufferException
+     *      - if an entry is malformed or too large
+     */
+    private void decode(ByteString chunk) throws InvalidProtocolBufferException {
+        this.buffer = this.buffer.concat(chunk);
+        CodedInputStream input = this.buffer.newCodedInput();
+
+        int start = 0;
+        while (start < this.buffer.size()) {
+            this.position = start;
+            int tag = readVarint();
+            int length = (tag < 0 ? -1 : readVarint());
+            if (length < 0) {
+                break;
+            }
+            if (tag != HISTORY_TAG) {
+                throw new InvalidProtocolBufferException("unexpected field in history: " + tag);
+            }
+            if (length > MAX_ENTRY_SIZE) {
+                throw new InvalidProtocolBufferException("history entry too large: " + length);
+            }
+            if (this.buffer.size() - this.position < length) {
+                break;
+            }
+
+            try {
+                // the header has been checked already, parse the entry right from the stream
+                input.skipRawBytes(this.position - input.getTotalBytesRead());
+                int limit = input.pushLimit(length);
+                add(ChatProcotol.Chat.parseFrom(input));
+                input.popLimit(limit);
+            }
+            catch (InvalidProtocolBufferException ipbe) {
+                throw ipbe;
+            }
+            catch (IOException ioe) {
+                throw new InvalidProtocolBufferException(ioe.getMessage());
+            }
+            start = this.position + length;
+        }
+
+        this.buffer = this.buffer.substring(start);
+    }
+
+    /**
+     * Read a varint from the buffer at the current position.
+     *
+     * @return int
+     *      - the value, or -1 if the varint is incomplete
+     * @throws InvalidProtocolBufferException
+     *      - if the varint is malformed
+     */
+    private int readVarint() throws InvalidProtocolBufferException {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (this.position >= this.buffer.size()) {
+                return -1;
+            }
+
+            byte b = this.buffer.byteAt(this.position++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+
+        throw new InvalidProtocolBufferException("malformed varint in history.");
+    }
+}
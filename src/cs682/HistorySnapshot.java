@@ -0,0 +1,223 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import concurrent.Download;
+import concurrent.SharedDataStructure;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A thread-safe snapshot of user's history at one version, serialized once.
+ * Everything derived from it, the digest, the compressed History, the Data packets
+ * for every chunk size and compression and the Merkle trees over them,
+ * is computed on the first request and shared by the later ones.
+ * Only the packets and the Merkle trees for the chunk sizes asked for most recently are kept,
+ * so requests cycling through chunk sizes can't fill the heap.
+ * A snapshot never changes, when the history changes a new snapshot replaces it.
+ */
+public class HistorySnapshot {
+
+    /**
+     * The number of chunk sizes to keep the packets and the Merkle trees for.
+     */
+    private static final int CACHED_CHUNK_SIZES = 4;
+
+    private final long version;
+    private final byte[] bytes;
+    private final Map<ChatProcotol.Data.compression, byte[]> compressed;
+    private final Map<String, List<ChatProcotol.Data>> packets;
+    private final Map<ChatProcotol.Data.compression, ByteString> digests;
+    private final Map<Integer, MerkleTree> trees;
+    private ByteString digest;
+
+    /**
+     * HistorySnapshot constructor.
+     *
+     * @param snapshot
+     *      - a copy of user's history and its version
+     */
+    public HistorySnapshot(SharedDataStructure.Snapshot<ChatProcotol.Chat> snapshot) {
+        this.version = snapshot.getVersion();
+        this.bytes = serialize(snapshot.get());
+        this.compressed = new HashMap<>();
+        this.packets = leastRecentlyUsed(CACHED_CHUNK_SIZES * (Chat.codecs.size() + 1));
+        this.digests = new HashMap<>();
+        this.trees = leastRecentlyUsed(CACHED_CHUNK_SIZES);
+    }
+
+    /**
+     * Return the version of user's history this snapshot was taken at.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Return the serialized History.
+     *
+     * @return byte[]
+     */
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Return the History compressed with the codec.
+     *
+     * @param codec
+     *      - compression, or null for none
+     * @return byte[]
+     */
+    public synchronized byte[] getBytes(Codec codec) {
+        return (codec == null ? this.bytes : compressed(codec));
+    }
+
+    /**
+     * Return a view of the History compressed with the codec to stream it from, without copying the bytes.
+     * Every stream gets its own position on the same bytes.
+     *
+     * @param codec
+     *      - compression, or null for none
+     * @return ByteBuffer
+     *      - read-only, from the first byte
+     */
+    public synchronized ByteBuffer getBuffer(Codec codec) {
+        return ByteBuffer.wrap(getBytes(codec)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Return the digest of the serialized History, compute it on the first time.
+     *
+     * @return ByteString
+     */
+    public synchronized ByteString getDigest() {
+        if (this.digest == null) {
+            this.digest = digest(this.bytes);
+        }
+
+        return this.digest;
+    }
+
+    /**
+     * Return the digest of the History compressed with the codec, compute it on the first time.
+     * It identifies the bytes a transfer of this snapshot carries, so a transfer can resume from any node
+     * which sends the same bytes.
+     *
+     * @param codec
+     *      - compression, or null for none
+     * @return ByteString
+     */
+    public synchronized ByteString getDigest(Codec codec) {
+        if (codec == null) {
+            return getDigest();
+        }
+
+        return this.digests.computeIfAbsent(codec.getType(), type -> digest(compressed(codec)));
+    }
+
+    /**
+     * Return the read-only Data packets of the History with the chunk size and the compression,
+     * pack them on the first time.
+     *
+     * @param chunkSize
+     * @param codec
+     *      - compression, or null for none
+     * @return List
+     *      - the list of Data packets
+     */
+    public synchronized List<ChatProcotol.Data> getPackets(int chunkSize, Codec codec) {
+        String key = chunkSize + (codec == null ? "" : ":" + codec.getType());
+
+        List<ChatProcotol.Data> packets = this.packets.get(key);
+        if (packets == null) {
+            byte[] bytes = getBytes(codec);
+            packets = Download.pack(bytes, 0, bytes.length, chunkSize);
+            this.packets.put(key, packets);
+        }
+
+        return packets;
+    }
+
+    /**
+     * Return the Merkle tree over the chunks of the uncompressed History with the chunk size,
+     * build it on the first time.
+     *
+     * @param chunkSize
+     * @return MerkleTree
+     */
+    public synchronized MerkleTree getTree(int chunkSize) {
+        MerkleTree tree = this.trees.get(chunkSize);
+        if (tree == null) {
+            List<ByteString> leaves = new ArrayList<>();
+            for (ChatProcotol.Data packet : getPackets(chunkSize, null)) {
+                leaves.add(MerkleTree.leaf(packet.getData()));
+            }
+            tree = new MerkleTree(leaves);
+            this.trees.put(chunkSize, tree);
+        }
+
+        return tree;
+    }
+
+    /**
+     * Return the History compressed with the codec, compress it on the first time.
+     * Must hold the lock.
+     *
+     * @param codec
+     * @return byte[]
+     */
+    private byte[] compressed(Codec codec) {
+        return this.compressed.computeIfAbsent(codec.getType(), type -> codec.compress(this.bytes));
+    }
+
+    /**
+     * Create a map dropping the least recently used entry once it holds more than the capacity.
+     *
+     * @param capacity
+     * @return Map
+     */
+    private static <K, V> Map<K, V> leastRecentlyUsed(int capacity) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Convert Chat messages into a History data and store it into byte array.
+     *
+     * @param history
+     * @return byte[]
+     */
+    protected static byte[] serialize(List<ChatProcotol.Chat> history) {
+        return ChatProcotol.History.newBuilder().addAllHistory(history).build().toByteArray();
+    }
+
+    /**
+     * Return the SHA-256 digest of a serialized history, two nodes with the same digest have the same history.
+     *
+     * @param bytes
+     * @return ByteString
+     */
+    protected static ByteString digest(byte[] bytes) {
+        try {
+            return ByteString.copyFrom(MessageDigest.getInstance("SHA-256").digest(bytes));
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
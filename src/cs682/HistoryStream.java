@@ -0,0 +1,114 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import concurrent.Reassembly;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A runnable HistoryStream to download a large history over a TCP stream instead of Data packets,
+ * once the node tells us to with a STREAM packet.
+ * The stream is cut into chunks of the same size as the Data packets, and they go into the same data structure,
+ * so the history is imported while it arrives, and a stream which breaks off can be resumed either way.
+ */
+public class HistoryStream implements Runnable {
+
+    /**
+     * Time in milliseconds for connecting to a node.
+     */
+    private static final int CONNECT_TIMEOUT = 300;
+
+    /**
+     * Time in milliseconds without any new byte before giving up, the same as waiting for Data packets.
+     */
+    private static final int READ_TIMEOUT = 15000;
+
+    /**
+     * Size in bytes of the buffer reading from the stream.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String target;
+    private final String transfer;
+    private final ChatProcotol.Data stream;
+    private final Reassembly reassembly;
+
+    /**
+     * HistoryStream constructor.
+     *
+     * @param target
+     *      - ip:udpport of the node
+     * @param stream
+     *      - the STREAM packet, with the snapshot id, the size and the compression of the history,
+     *        the TCP port to stream it from, and the session of the transfer
+     * @param reassembly
+     *      - the data structure of the download
+     */
+    public HistoryStream(String target, ChatProcotol.Data stream, Reassembly reassembly) {
+        this.target = target;
+        this.transfer = Chat.transfer(target, stream.getSession());
+        this.stream = stream;
+        this.reassembly = reassembly;
+    }
+
+    /**
+     * Connect to the TCP port of the node and ask for the history from the first byte we don't have.
+     * Read it in chunks and offer them to the data structure in order, until the last one.
+     * If the history has changed, give up the download, stop reading if what we have read is malformed,
+     * or if the requester has given up the transfer, since a later request may resume the data structure.
+     * If the stream breaks off, keep what we have, the download aborts and can be resumed later.
+     */
+    @Override
+    public void run() {
+        int chunkSize = Chat.chunkSize;
+        int seqNo = this.reassembly.size();
+        int offset = seqNo * chunkSize;
+        int length = this.stream.getLength();
+
+        ChatProcotol.Data request = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.STREAM)
+                .setDigest(this.stream.getDigest()).setCodec(this.stream.getCodec()).setOffset(offset).build();
+
+        try (Socket socket = new Socket()) {
+            String ip = this.target.split(":")[0];
+            socket.connect(new InetSocketAddress(ip, this.stream.getTcpPort()), CONNECT_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+            DataInputStream inStream = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+                    BUFFER_SIZE));
+            OutputStream outStream = socket.getOutputStream();
+
+            ChatProcotol.Chat.newBuilder().setStream(request).build().writeDelimitedTo(outStream);
+            outStream.flush();
+
+            ChatProcotol.Reply reply = ChatProcotol.Reply.parseDelimitedFrom(inStream);
+            if (reply == null || reply.getStatus() != 200) {
+                System.out.println("[System] history has changed, request again.");
+                Chat.historyFromOthers.remove(this.transfer, this.reassembly);
+                return;
+            }
+
+            byte[] chunk = new byte[chunkSize];
+            while (offset < length && !this.reassembly.isFailed()
+                    && Chat.historyFromOthers.get(this.transfer) == this.reassembly) {
+                int size = Math.min(chunkSize, length - offset);
+                inStream.readFully(chunk, 0, size);
+                offset += size;
+
+                this.reassembly.offer(++seqNo, ByteString.copyFrom(chunk, 0, size), offset == length);
+                this.reassembly.deliver();
+            }
+            Chat.historyFromOthers.remove(this.transfer, this.reassembly);
+        }
+        catch (IOException ioe) {
+            System.err.println("[System] history stream broke off: " + ioe);
+        }
+        finally {
+            Chat.historyStreams.remove(this.transfer, this);
+        }
+    }
+}
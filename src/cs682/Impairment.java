@@ -0,0 +1,182 @@
+package cs682;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe network impairment to test the transfers on a bad link without one.
+ * The datagrams from a node are dropped, duplicated, delayed with jitter and reordered
+ * by the rule of that node, or by the default rule if it has none.
+ * Every node has a random generator seeded by its rule and its ip:udpport,
+ * so the n-th datagram from a node meets the same fate on every run.
+ * A reordered datagram is held back for another delay, at least two ticks, so the ones behind it overtake it.
+ * Rules are written as "[ip:udpport@]key=value,..." separated by ";",
+ * with keys loss, dup and reorder in probability, delay and jitter in milliseconds, and seed.
+ */
+public class Impairment {
+
+    /**
+     * Rule of the debug mode, one out of seven datagrams is lost.
+     */
+    protected static final String DEBUG_RULE = "loss=0.142857";
+
+    private static final String DEFAULT = "*";
+    private static final int REORDER_HOLD = 2 * TransferScheduler.TICK;
+
+    private final Map<String, Rule> rules;
+    private final Hashtable<String, Random> randoms;
+    private final AtomicLong received;
+    private final AtomicLong dropped;
+    private final AtomicLong duplicated;
+    private final AtomicLong reordered;
+
+    /**
+     * Impairment constructor.
+     *
+     * @param spec
+     *      - the rules
+     * @throws IllegalArgumentException
+     *      - if a rule can't be parsed
+     */
+    public Impairment(String spec) {
+        this.rules = new Hashtable<>();
+        this.randoms = new Hashtable<>();
+        this.received = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.duplicated = new AtomicLong();
+        this.reordered = new AtomicLong();
+
+        for (String rule : spec.split(";")) {
+            String node = DEFAULT;
+            int at = rule.indexOf('@');
+            if (at >= 0) {
+                node = rule.substring(0, at).trim();
+                rule = rule.substring(at + 1);
+            }
+            this.rules.put(node, new Rule(rule));
+        }
+    }
+
+    /**
+     * Decide the fate of the next datagram from a node.
+     *
+     * @param from
+     *      - ip:udpport of the node
+     * @return long[]
+     *      - the delay in milliseconds of every copy to hand over, empty if the datagram is dropped
+     */
+    public long[] next(String from) {
+        Rule rule = this.rules.getOrDefault(from, this.rules.get(DEFAULT));
+        this.received.incrementAndGet();
+        if (rule == null) {
+            return new long[] {0};
+        }
+
+        Random random = this.randoms.computeIfAbsent(from, key -> new Random(rule.seed * 31 + key.hashCode()));
+        synchronized (random) {
+            if (random.nextDouble() < rule.loss) {
+                this.dropped.incrementAndGet();
+                return new long[0];
+            }
+
+            long delay = rule.delay;
+            if (rule.jitter > 0) {
+                delay = Math.max(0, delay + (long) (random.nextDouble() * (2 * rule.jitter + 1)) - rule.jitter);
+            }
+            if (random.nextDouble() < rule.reorder) {
+                this.reordered.incrementAndGet();
+                delay += Math.max(rule.delay, REORDER_HOLD);
+            }
+            if (random.nextDouble() < rule.duplicate) {
+                this.duplicated.incrementAndGet();
+                return new long[] {delay, delay};
+            }
+
+            return new long[] {delay};
+        }
+    }
+
+    /**
+     * Return what has been done to the datagrams so far.
+     *
+     * @return String
+     */
+    @Override
+    public String toString() {
+        return "received: " + this.received.get() + " dropped: " + this.dropped.get()
+                + " duplicated: " + this.duplicated.get() + " reordered: " + this.reordered.get();
+    }
+
+    /**
+     * The probabilities and delays applied to the datagrams from a node.
+     */
+    private static class Rule {
+
+        private double loss;
+        private double duplicate;
+        private double reorder;
+        private long delay;
+        private long jitter;
+        private long seed;
+
+        /**
+         * Rule constructor.
+         *
+         * @param rule
+         *      - comma separated key=value pairs
+         * @throws IllegalArgumentException
+         *      - if a key is unknown or a value is out of range
+         */
+        private Rule(String rule) {
+            for (String pair : rule.split(",")) {
+                String[] keyValue = pair.split("=");
+                if (keyValue.length != 2) {
+                    throw new IllegalArgumentException("bad parameter \"" + pair + "\"");
+                }
+                String value = keyValue[1].trim();
+
+                switch (keyValue[0].trim()) {
+                    case "loss":
+                        this.loss = probability(value);
+                        break;
+                    case "dup":
+                        this.duplicate = probability(value);
+                        break;
+                    case "reorder":
+                        this.reorder = probability(value);
+                        break;
+                    case "delay":
+                        this.delay = Math.max(0, Long.parseLong(value));
+                        break;
+                    case "jitter":
+                        this.jitter = Math.max(0, Long.parseLong(value));
+                        break;
+                    case "seed":
+                        this.seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown parameter \"" + keyValue[0] + "\"");
+                }
+            }
+        }
+
+        /**
+         * Parse a probability.
+         *
+         * @param value
+         * @return double
+         * @throws IllegalArgumentException
+         *      - if it isn't between 0 and 1
+         */
+        private static double probability(String value) {
+            double p = Double.parseDouble(value);
+            if (p < 0 || p > 1) {
+                throw new IllegalArgumentException("probability out of range \"" + value + "\"");
+            }
+
+            return p;
+        }
+    }
+}
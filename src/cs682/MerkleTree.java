@@ -0,0 +1,182 @@
+package cs682;
+
+import com.google.protobuf.ByteString;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Merkle tree over the chunks of a history, one leaf per Data packet.
+ * A leaf is the SHA-256 of its chunk, a node is the SHA-256 of its two children,
+ * and the last node of a level without a sibling moves up as it is.
+ * The root identifies every chunk, and a range of chunks can be checked against it on its own
+ * with a proof: the hashes next to the range on every level, left one first.
+ */
+public class MerkleTree {
+
+    private static final int HASH_SIZE = 32;
+
+    private final List<List<ByteString>> levels;
+
+    /**
+     * MerkleTree constructor.
+     *
+     * @param leaves
+     *      - hash of every chunk in order, at least one
+     */
+    public MerkleTree(List<ByteString> leaves) {
+        this.levels = new ArrayList<>();
+        this.levels.add(leaves);
+
+        List<ByteString> level = leaves;
+        while (level.size() > 1) {
+            List<ByteString> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                parents.add(i + 1 < level.size() ? node(level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            this.levels.add(parents);
+            level = parents;
+        }
+    }
+
+    /**
+     * Return the root of the tree.
+     *
+     * @return ByteString
+     */
+    public ByteString getRoot() {
+        return this.levels.get(this.levels.size() - 1).get(0);
+    }
+
+    /**
+     * Return the proof of a range of leaves.
+     *
+     * @param from
+     *      - index of the first leaf in the range
+     * @param to
+     *      - index after the last leaf in the range
+     * @return ByteString
+     *      - the hashes next to the range, level by level
+     */
+    public ByteString proof(int from, int to) {
+        ByteString proof = ByteString.EMPTY;
+
+        for (List<ByteString> level : this.levels) {
+            if (level.size() == 1) {
+                break;
+            }
+            if (from % 2 == 1) {
+                proof = proof.concat(level.get(from - 1));
+                from--;
+            }
+            if (to % 2 == 1 && to < level.size()) {
+                proof = proof.concat(level.get(to));
+                to++;
+            }
+            from /= 2;
+            to = (to + 1) / 2;
+        }
+
+        return proof;
+    }
+
+    /**
+     * Compute the root from a range of leaves and its proof, walking up the same way the proof was made.
+     *
+     * @param leaves
+     *      - hash of every chunk in the range
+     * @param from
+     *      - index of the first leaf in the range
+     * @param count
+     *      - number of leaves in the tree
+     * @param proof
+     * @return ByteString
+     *      - the root, or empty if the proof doesn't fit the range
+     */
+    public static ByteString root(List<ByteString> leaves, int from, int count, ByteString proof) {
+        int to = from + leaves.size();
+        if (leaves.isEmpty() || from < 0 || to > count || proof.size() % HASH_SIZE != 0) {
+            return ByteString.EMPTY;
+        }
+
+        List<ByteString> level = new ArrayList<>(leaves);
+        int used = 0;
+        while (count > 1) {
+            if (from % 2 == 1) {
+                if (used == proof.size()) {
+                    return ByteString.EMPTY;
+                }
+                level.add(0, proof.substring(used, used + HASH_SIZE));
+                used += HASH_SIZE;
+                from--;
+            }
+            if (to % 2 == 1 && to < count) {
+                if (used == proof.size()) {
+                    return ByteString.EMPTY;
+                }
+                level.add(proof.substring(used, used + HASH_SIZE));
+                used += HASH_SIZE;
+                to++;
+            }
+
+            List<ByteString> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                parents.add(i + 1 < level.size() ? node(level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            level = parents;
+            from /= 2;
+            to = (to + 1) / 2;
+            count = (count + 1) / 2;
+        }
+
+        return (used == proof.size() ? level.get(0) : ByteString.EMPTY);
+    }
+
+    /**
+     * Return the hash of a chunk as a leaf.
+     *
+     * @param chunk
+     * @return ByteString
+     */
+    public static ByteString leaf(ByteString chunk) {
+        MessageDigest sha = sha256();
+        sha.update((byte) 0);
+        sha.update(chunk.asReadOnlyByteBuffer());
+
+        return ByteString.copyFrom(sha.digest());
+    }
+
+    /**
+     * Return the hash of a node from its two children.
+     *
+     * @param left
+     * @param right
+     * @return ByteString
+     */
+    private static ByteString node(ByteString left, ByteString right) {
+        MessageDigest sha = sha256();
+        sha.update((byte) 1);
+        sha.update(left.asReadOnlyByteBuffer());
+        sha.update(right.asReadOnlyByteBuffer());
+
+        return ByteString.copyFrom(sha.digest());
+    }
+
+    /**
+     * Return a SHA-256 message digest.
+     * Leaves and nodes are hashed with a different first byte, so a node can't pass for a leaf.
+     *
+     * @return MessageDigest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import concurrent.Reassembly;
+import concurrent.RttEstimator;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Download the history from every node which has the same one in parallel.
+ * First ask every node for the digest, the size and the Merkle root of its history with an INFO packet,
+ * then split the bytes of the most common history into one range per node,
+ * and request every range from a different node at the same time.
+ * Every range is checked against the Merkle root on its own once it is complete,
+ * a range which doesn't match is requested again from another node with the same history,
+ * and so is a range whose node stops answering.
+ * Once every node with the same history has failed, the download is aborted.
+ * Every range is a transfer in a session of its own, so a node can send us many ranges at the same time,
+ * and the answers to the INFO packets are in a session of their own as well,
+ * so many downloads like this one can go on at the same time.
+ * The ranges are stitched together in order: a range is imported once it is checked
+ * and every range before it has been imported.
+ */
+public class MultiSourceDownload implements Runnable {
+
+    /**
+     * The smallest number of packets in a range, a smaller history is split into fewer ranges.
+     */
+    private static final int MIN_RANGE_PACKETS = 16;
+
+    /**
+     * Time in milliseconds for a node to digest its history, on top of the round trip time.
+     */
+    private static final int DIGEST_TIME = 2000;
+
+    private final ChatProcotol.Data.transferMode mode;
+    private final Map<String, ChatProcotol.Data> infos;
+    private int asked;
+    private boolean chosen;
+    private int session;
+    private final HistoryDecoder decoder;
+    private final Set<String> failed;
+    private List<String> group;
+    private ByteString digest;
+    private ByteString root;
+    private int length;
+    private int packets;
+    private int[] offsets;
+    private int[] lengths;
+    private String[] senders;
+    private Reassembly[] reassemblies;
+    private int[] attempts;
+    private List<List<ByteString>> leaves;
+    private ByteString[] buffered;
+    private boolean[] finished;
+    private boolean aborted;
+    private int current;
+
+    /**
+     * MultiSourceDownload constructor.
+     *
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     */
+    public MultiSourceDownload(ChatProcotol.Data.transferMode mode) {
+        this.mode = mode;
+        this.infos = new HashMap<>();
+        this.decoder = new HistoryDecoder(Collections.emptyMap());
+        this.failed = new HashSet<>();
+        this.current = 0;
+        this.asked = 0;
+        this.chosen = false;
+        this.aborted = false;
+    }
+
+    /**
+     * Ask every other node for the digest, the size and the Merkle root over the chunks we receive of its history,
+     * in a new session.
+     * Choose the ranges once every node answers, or after the longest retransmission timeout among them
+     * and the time to digest a history, a node which doesn't answer by then is left out.
+     */
+    @Override
+    public synchronized void run() {
+        this.session = Chat.sessions.incrementAndGet();
+        ChatProcotol.Data info = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.INFO)
+                .setChunkSize(Chat.chunkSize).setSession(this.session).build();
+        long wait = 0;
+
+        for (Map.Entry<String, ChatProcotol.ZKData> node : Chat.nodes.entrySet()) {
+            if (node.getKey().equals(Chat.zk.getUsername())) {
+                continue;
+            }
+
+            ChatProcotol.ZKData zkData = node.getValue();
+            String target = zkData.getIp() + ":" + zkData.getUdpport();
+            Chat.infoRequests.put(Chat.transfer(target, this.session), this);
+            this.asked++;
+            wait = Math.max(wait, Chat.rttEstimators.computeIfAbsent(target, key -> new RttEstimator()).getTimeout());
+
+            new UDPSender(zkData.getIp(), zkData.getUdpport(), info).run();
+        }
+
+        if (this.asked == 0) {
+            System.out.println("[System] no other node to request history data from.");
+            return;
+        }
+        Chat.scheduler.schedule(this::choose, wait + DIGEST_TIME);
+    }
+
+    /**
+     * Keep the answer of a node, choose the ranges if it is the last one.
+     *
+     * @param from
+     *      - ip:udpport of the node
+     * @param info
+     *      - INFO packet with the digest and the size of its history
+     */
+    public synchronized void answer(String from, ChatProcotol.Data info) {
+        if (Chat.infoRequests.get(Chat.transfer(from, this.session)) == this) {
+            this.infos.put(from, info);
+            if (this.infos.size() == this.asked) {
+                choose();
+            }
+        }
+    }
+
+    /**
+     * Stop waiting for answers, and group the nodes by the history they have.
+     * Split the most common history, or the largest one if there is a tie, into ranges,
+     * never smaller than sixteen packets and aligned to packets, one for each node in the group.
+     * Request every range from its node.
+     */
+    private synchronized void choose() {
+        if (this.chosen) {
+            return;
+        }
+        this.chosen = true;
+        Chat.infoRequests.values().removeIf(download -> download == this);
+
+        Map<ByteString, List<String>> groups = new HashMap<>();
+        for (Map.Entry<String, ChatProcotol.Data> info : this.infos.entrySet()) {
+            groups.computeIfAbsent(info.getValue().getDigest(), key -> new ArrayList<>()).add(info.getKey());
+        }
+
+        List<String> nodes = new ArrayList<>();
+        int length = 0;
+        for (List<String> group : groups.values()) {
+            int size = this.infos.get(group.get(0)).getLength();
+            if (group.size() > nodes.size() || (group.size() == nodes.size() && size > length)) {
+                nodes = group;
+                length = size;
+            }
+        }
+        if (nodes.isEmpty()) {
+            System.out.println("[System] no other node answered, aborted.");
+            return;
+        }
+        this.group = nodes;
+        this.digest = this.infos.get(nodes.get(0)).getDigest();
+        this.root = this.infos.get(nodes.get(0)).getRoot();
+        this.length = length;
+
+        this.packets = Math.max(1, (length + Chat.chunkSize - 1) / Chat.chunkSize);
+        int ranges = Math.max(1, Math.min(nodes.size(), this.packets / MIN_RANGE_PACKETS));
+
+        List<String> senders = nodes.subList(0, ranges);
+        int rangeLength = (this.packets + senders.size() - 1) / senders.size() * Chat.chunkSize;
+        this.offsets = new int[senders.size()];
+        this.lengths = new int[senders.size()];
+        this.senders = new String[senders.size()];
+        this.reassemblies = new Reassembly[senders.size()];
+        this.attempts = new int[senders.size()];
+        this.leaves = new ArrayList<>();
+        this.buffered = new ByteString[senders.size()];
+        this.finished = new boolean[senders.size()];
+        for (int i = 0; i < senders.size(); i++) {
+            this.offsets[i] = Math.min(i * rangeLength, length);
+            this.lengths[i] = Math.min(rangeLength, length - this.offsets[i]);
+            this.leaves.add(new ArrayList<>());
+            this.buffered[i] = ByteString.EMPTY;
+            request(i, senders.get(i));
+        }
+    }
+
+    /**
+     * Request a range from a node, even if the node is sending us something else already.
+     * The chunks of the range go to the consumer of this attempt,
+     * and the range is requested from another node if this attempt is aborted.
+     *
+     * @param range
+     * @param node
+     *      - ip:udpport of the node
+     */
+    private void request(int range, String node) {
+        Reassembly reassembly = new Reassembly(this.mode, UDPSender.BUFFER_PACKETS,
+                range(range, this.attempts[range]), Chat.time);
+        this.senders[range] = node;
+        this.reassemblies[range] = reassembly;
+
+        int offset = this.offsets[range];
+        System.out.println("[System] requesting bytes " + offset + " ~ " + (offset + this.lengths[range])
+                + " of " + this.length + " from " + node + ".");
+        String[] host = node.split(":");
+        UDPSender reqTask = new UDPSender(host[0], host[1], this.mode, this.digest,
+                offset, this.lengths[range], reassembly);
+        int attempt = this.attempts[range];
+        reqTask.setAbortListener(() -> aborted(range, attempt));
+        Chat.scheduler.execute(reqTask);
+    }
+
+    /**
+     * Return the consumer of the chunks of a range.
+     *
+     * @param range
+     * @param attempt
+     *      - the number of times the range has been requested again
+     * @return BiConsumer
+     */
+    private BiConsumer<ByteString, Boolean> range(int range, int attempt) {
+        return (chunk, isLast) -> accept(range, attempt, chunk, isLast);
+    }
+
+    /**
+     * Buffer a chunk of a range and hash it as a leaf of the Merkle tree.
+     * Once a range is complete, check it against the Merkle root with the proof its node sent,
+     * request it again if it doesn't match.
+     * Import the ranges checked in order, as long as every range before them has been imported,
+     * abort the download if the history they make up is malformed.
+     *
+     * @param range
+     * @param attempt
+     *      - the chunks of a previous attempt are ignored
+     * @param chunk
+     * @param isLast
+     *      - the last chunk of the range
+     */
+    private synchronized void accept(int range, int attempt, ByteString chunk, boolean isLast) {
+        if (this.aborted || attempt != this.attempts[range]) {
+            return;
+        }
+        this.buffered[range] = this.buffered[range].concat(chunk);
+        this.leaves.get(range).add(MerkleTree.leaf(chunk));
+        if (!isLast) {
+            return;
+        }
+
+        if (!verify(range)) {
+            System.out.println("[System] bytes " + this.offsets[range] + " ~ "
+                    + (this.offsets[range] + this.lengths[range]) + " from " + this.senders[range]
+                    + " don't match the history, requesting them again...");
+            retry(range);
+            return;
+        }
+        this.finished[range] = true;
+
+        while (this.current < this.buffered.length && this.finished[this.current]) {
+            try {
+                this.decoder.accept(this.buffered[this.current], this.current == this.buffered.length - 1);
+            }
+            catch (UncheckedIOException uioe) {
+                abort("[System] the history is malformed, aborted.");
+                return;
+            }
+            this.buffered[this.current] = ByteString.EMPTY;
+            this.current++;
+        }
+    }
+
+    /**
+     * Check a complete range against the Merkle root of the history.
+     * A history without a Merkle root can't be checked, its ranges are taken as they are.
+     *
+     * @param range
+     * @return boolean
+     */
+    private boolean verify(int range) {
+        if (this.root.isEmpty()) {
+            return true;
+        }
+
+        ByteString root = MerkleTree.root(this.leaves.get(range), this.offsets[range] / Chat.chunkSize,
+                this.packets, this.reassemblies[range].getProof());
+        return root.equals(this.root);
+    }
+
+    /**
+     * The node of a range has stopped answering, request the range from another node,
+     * unless the range has been requested again or completed already.
+     *
+     * @param range
+     * @param attempt
+     */
+    private synchronized void aborted(int range, int attempt) {
+        if (this.aborted || attempt != this.attempts[range] || this.finished[range]) {
+            return;
+        }
+
+        System.out.println("[System] " + this.senders[range] + " stopped sending bytes " + this.offsets[range]
+                + " ~ " + (this.offsets[range] + this.lengths[range]) + ", requesting them again...");
+        retry(range);
+    }
+
+    /**
+     * Leave the node of a range out, drop what it has sent, and request the range again.
+     *
+     * @param range
+     */
+    private void retry(int range) {
+        this.failed.add(this.senders[range]);
+        this.attempts[range]++;
+        this.buffered[range] = ByteString.EMPTY;
+        this.leaves.get(range).clear();
+        refetch(range);
+    }
+
+    /**
+     * Request a range again from a node with the same history, which hasn't failed us.
+     * If every node has, abort the download and stop the transfers of the other ranges.
+     *
+     * @param range
+     */
+    private void refetch(int range) {
+        for (String node : this.group) {
+            if (!this.failed.contains(node)) {
+                request(range, node);
+                return;
+            }
+        }
+
+        abort("[System] no other node has the same history, aborted.");
+    }
+
+    /**
+     * Abort the download and stop the transfers of every range.
+     *
+     * @param message
+     */
+    private void abort(String message) {
+        this.aborted = true;
+        for (Reassembly reassembly : this.reassemblies) {
+            Chat.historyFromOthers.values().remove(reassembly);
+        }
+        System.out.println(message);
+    }
+}
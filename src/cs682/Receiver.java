@@ -3,60 +3,368 @@ package cs682;
 import chatprotos.ChatProcotol;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
 
 /**
- * A runnable Receiver to handle single connection.
+ * A Receiver to handle single persistent non-blocking connection.
+ * Parse length-delimited messages with Chat protocol incrementally
+ * as bytes arrive, and write Reply messages back.
+ * A message asking for a history stream turns the connection into one:
+ * the Reply and the history go out together, and the connection closes once they are written.
+ * The snapshot to stream is looked up by a worker, since building it can take a while,
+ * and the connection waits without reading or writing until the worker hands it over.
  */
-public class Receiver implements Runnable {
+public class Receiver {
 
-    private final Socket listeningSocket;
+    /**
+     * Initial size of the buffers of a connection.
+     */
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * The largest message we accept, so a connection never holds more than this in memory.
+     */
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    /**
+     * What readLength returns while the length prefix hasn't arrived entirely, never a valid length.
+     */
+    private static final int INCOMPLETE = -1;
+
+    /**
+     * A Reply message with status 200, delimited and ready to be written.
+     */
+    private static final byte[] OK_REPLY = delimit(ChatProcotol.Reply.newBuilder()
+            .setStatus(200).setMessage("OK").build().toByteArray());
+
+    private final SelectionKey key;
+    private final SocketChannel channel;
+    private final ExecutorService workers;
+    private ByteBuffer inBuffer;
+    private ByteBuffer outBuffer;
+    private ByteBuffer stream;
+    private boolean streaming;
+    private ByteBuffer preparedStream;
+    private byte[] preparedReply;
+    private long lastActive;
 
     /**
      * Receiver constructor.
      *
-     * @param listeningSocket
+     * @param key
+     *      - selection key of the registered connection
+     * @param workers
+     *      - thread pool for the blocking works
+     */
+    public Receiver(SelectionKey key, ExecutorService workers) {
+        this.key = key;
+        this.channel = (SocketChannel) key.channel();
+        this.workers = workers;
+        this.inBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.outBuffer = ByteBuffer.allocate(0);
+        this.lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * Read whatever is available on the connection and handle every complete message.
+     * Stop reading from the connection while the replies haven't been written out.
+     *
+     * @return boolean
+     *      - false if the other side has closed the connection
+     * @throws IOException
+     */
+    public boolean read() throws IOException {
+        int read;
+        while ((read = this.channel.read(this.inBuffer)) > 0) {
+            this.lastActive = System.currentTimeMillis();
+            parseFrames();
+        }
+
+        if (read < 0) {
+            return false;
+        }
+
+        return write();
+    }
+
+    /**
+     * Write the pending replies, and the history after them with a gathering write if it is a history stream.
+     * Listen to write events only when the socket can't take all of them now.
+     * A history stream which isn't ready yet waits for the worker looking up its snapshot.
+     *
+     * @return boolean
+     *      - false once a history stream has been written, so the connection closes
+     * @throws IOException
+     */
+    public boolean write() throws IOException {
+        if (this.streaming && this.stream == null) {
+            takePreparedStream();
+        }
+
+        this.outBuffer.flip();
+        if (this.stream == null) {
+            this.channel.write(this.outBuffer);
+        }
+        else if (this.channel.write(new ByteBuffer[] {this.outBuffer, this.stream}) > 0) {
+            this.lastActive = System.currentTimeMillis();
+        }
+        this.outBuffer.compact();
+
+        if (this.stream != null && this.outBuffer.position() == 0 && !this.stream.hasRemaining()) {
+            return false;
+        }
+        if (this.outBuffer.position() > 0 || this.stream != null) {
+            this.key.interestOps(SelectionKey.OP_WRITE);
+        }
+        else if (this.streaming) {
+            waitForStream();
+        }
+        else {
+            this.key.interestOps(SelectionKey.OP_READ);
+            if (this.outBuffer.capacity() > BUFFER_SIZE) {
+                this.outBuffer = ByteBuffer.allocate(0);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if there is no message from this connection for a while.
+     *
+     * @param now
+     * @param timeout
+     * @return boolean
      */
-    public Receiver(Socket listeningSocket) {
-        this.listeningSocket = listeningSocket;
+    public boolean isIdle(long now, long timeout) {
+        return now - this.lastActive >= timeout;
+    }
+
+    /**
+     * Parse every complete frame in the input buffer, and keep the incomplete one for next read.
+     * Make room for a frame larger than the buffer, and give it back afterwards.
+     *
+     * @throws IOException
+     *      - if a frame is malformed or too large
+     */
+    private void parseFrames() throws IOException {
+        this.inBuffer.flip();
+
+        int required = 0;
+        // nothing else is read from a history stream
+        while (!this.streaming && this.inBuffer.hasRemaining()) {
+            int start = this.inBuffer.position();
+            int length = readLength(this.inBuffer);
+            if (length == INCOMPLETE) {
+                this.inBuffer.position(start);
+                break;
+            }
+            if (length > MAX_FRAME_SIZE) {
+                throw new IOException("frame too large: " + length);
+            }
+            if (this.inBuffer.remaining() < length) {
+                required = this.inBuffer.position() - start + length;
+                this.inBuffer.position(start);
+                break;
+            }
+
+            ByteBuffer frame = this.inBuffer.slice();
+            frame.limit(length);
+            this.inBuffer.position(this.inBuffer.position() + length);
+
+            handle(ChatProcotol.Chat.parseFrom(frame));
+        }
+
+        this.inBuffer.compact();
+
+        if (required > this.inBuffer.capacity()) {
+            this.inBuffer = resize(this.inBuffer, required);
+        }
+        else if (this.inBuffer.position() == 0 && this.inBuffer.capacity() > BUFFER_SIZE) {
+            this.inBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
     }
 
     /**
-     * Parse, receive and display a message with Chat protocol.
+     * Start a history stream if the message asks for one.
+     * Display a message with Chat protocol, and catch up with its timestamp.
      * If a message is broadcast message, store it into thread-safe data structure.
-     * Create a message with Reply protocol to send back.
+     * Queue a message with Reply protocol to send back.
      * If user received a message from someone not in the nodes list, get the list again.
+     *
+     * @param request
      */
-    @Override
-    public void run() {
-        try (InputStream inStream = this.listeningSocket.getInputStream();
-             OutputStream outStream = this.listeningSocket.getOutputStream()) {
+    private void handle(ChatProcotol.Chat request) {
+        if (request.hasStream()) {
+            stream(request.getStream());
+            return;
+        }
 
-            ChatProcotol.Chat request = ChatProcotol.Chat.parseDelimitedFrom(inStream);
-            System.out.println((request.getIsBcast() ? "Broadcast" : "Private message")
-                    + " from " + request.getFrom() + ": " + request.getMessage());
+        Chat.clock.witness(request.getTimestamp());
+        System.out.println((request.getIsBcast() ? "Broadcast" : "Private message")
+                + " from " + request.getFrom() + ": " + request.getMessage());
 
-            if (request.getIsBcast()) {
-                Chat.history.add(request);
-            }
+        if (request.getIsBcast()) {
+            Chat.history.add(request);
+        }
 
-            // if received message from unknown nodes, refresh local nodes data
-            if (!Chat.nodes.containsKey(request.getFrom())) {
-                Chat.ui.collectDetail();
+        // if received message from unknown nodes, refresh local nodes data without blocking the I/O thread
+        if (!Chat.nodes.containsKey(request.getFrom())) {
+            this.workers.submit(() -> Chat.ui.collectDetail());
+        }
+
+        if (this.outBuffer.remaining() < OK_REPLY.length) {
+            this.outBuffer = resize(this.outBuffer, this.outBuffer.position() + OK_REPLY.length);
+        }
+        this.outBuffer.put(OK_REPLY);
+    }
+
+    /**
+     * Turn the connection into a history stream, and hand the snapshot lookup over to a worker,
+     * so building the snapshot never holds the selector thread up.
+     *
+     * @param request
+     *      - the snapshot id, the compression and the first byte to stream
+     */
+    private void stream(ChatProcotol.Data request) {
+        this.streaming = true;
+        this.workers.submit(() -> prepareStream(request));
+    }
+
+    /**
+     * Prepare to stream the history from the first byte asked for, as long as our snapshot is the one asked for.
+     * The history is written straight from a view of the snapshot's bytes, it isn't copied.
+     * Otherwise only a Reply telling the history has changed is written.
+     * Listen to write events once it is ready, unless the connection has been closed meanwhile.
+     *
+     * @param request
+     *      - the snapshot id, the compression and the first byte to stream
+     */
+    private void prepareStream(ChatProcotol.Data request) {
+        HistorySnapshot snapshot = Chat.snapshots.get();
+        Codec codec = Chat.codecs.get(request.getCodec());
+        ByteBuffer history = snapshot.getBuffer(codec);
+        int offset = request.getOffset();
+
+        ChatProcotol.Reply reply;
+        if (snapshot.getDigest(codec).equals(request.getDigest()) && offset >= 0 && offset <= history.limit()) {
+            System.out.println("[System] streaming history data over TCP.");
+            reply = ChatProcotol.Reply.newBuilder().setStatus(200).setMessage("OK").build();
+            history.position(offset);
+        }
+        else {
+            reply = ChatProcotol.Reply.newBuilder().setStatus(409).setMessage("history has changed").build();
+            history = ByteBuffer.allocate(0);
+        }
+
+        synchronized (this) {
+            this.preparedStream = history;
+            this.preparedReply = delimit(reply.toByteArray());
+            try {
+                this.key.interestOps(SelectionKey.OP_WRITE);
+            }
+            catch (CancelledKeyException ignore) {
+                // the connection has been closed while preparing
+                return;
             }
+        }
+        this.key.selector().wakeup();
+    }
 
-            ChatProcotol.Reply response = ChatProcotol.Reply.newBuilder()
-                    .setStatus(200).setMessage("OK").build();
-            response.writeDelimitedTo(outStream);
+    /**
+     * Queue the Reply of a history stream after the pending replies, and stream the history after it,
+     * if the worker has prepared them.
+     */
+    private synchronized void takePreparedStream() {
+        if (this.preparedReply == null) {
+            return;
+        }
 
-            this.listeningSocket.close();
+        if (this.outBuffer.remaining() < this.preparedReply.length) {
+            this.outBuffer = resize(this.outBuffer, this.outBuffer.position() + this.preparedReply.length);
         }
-        catch (IOException ioe) {
-            System.err.println("IOException occurred to thread "
-                    + Thread.currentThread().getId() + " in Receiver: " + ioe);
+        this.outBuffer.put(this.preparedReply);
+        this.stream = this.preparedStream;
+    }
+
+    /**
+     * Stop listening to the connection until the worker has prepared the history stream,
+     * or listen to write events if it has done so already.
+     */
+    private synchronized void waitForStream() {
+        this.key.interestOps(this.preparedReply == null ? 0 : SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Read a varint length prefix.
+     *
+     * @param buffer
+     * @return int
+     *      - the length, or INCOMPLETE if the prefix is incomplete
+     * @throws IOException
+     *      - if the prefix is malformed or the length is negative
+     */
+    private static int readLength(ByteBuffer buffer) throws IOException {
+        int length = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                return INCOMPLETE;
+            }
+
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if (b >= 0 && length >= 0) {
+                return length;
+            }
+            if (b >= 0) {
+                break;
+            }
+        }
+
+        throw new IOException("malformed frame length");
+    }
+
+    /**
+     * Copy a buffer in write mode into a larger one.
+     *
+     * @param buffer
+     * @param capacity
+     * @return ByteBuffer
+     */
+    private static ByteBuffer resize(ByteBuffer buffer, int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+        buffer.flip();
+        resized.put(buffer);
+
+        return resized;
+    }
+
+    /**
+     * Prefix a message with its varint length.
+     *
+     * @param message
+     * @return byte[]
+     */
+    private static byte[] delimit(byte[] message) {
+        ByteBuffer buffer = ByteBuffer.allocate(message.length + 5);
+
+        int length = message.length;
+        while ((length & ~0x7F) != 0) {
+            buffer.put((byte) ((length & 0x7F) | 0x80));
+            length >>>= 7;
         }
+        buffer.put((byte) length);
+        buffer.put(message);
+
+        byte[] delimited = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(delimited);
+
+        return delimited;
     }
 }
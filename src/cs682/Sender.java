@@ -3,11 +3,6 @@ package cs682;
 import chatprotos.ChatProcotol;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
 
 /**
  * A runnable Sender to send message to particular host and port.
@@ -32,36 +27,25 @@ public class Sender implements Runnable {
     }
 
     /**
-     * First, create a new thread to interrupt this Sender if timeout.
-     * Send the message to a particular node with Chat protocol.
+     * Send the message to a particular node with Chat protocol
+     * through a pooled persistent connection.
      * Check if the node return a response with Reply protocol.
      * Notify user if a private message has been received by a node.
-     * Report error message to user if a message didn't send to a node.
+     * Report error message to user if a message didn't send to a node, and forget the node,
+     * a node which takes the message without replying in time is only busy and kept.
      */
     @Override
     public void run() {
-        try (Socket sendingSocket = new Socket()) {
-            SocketAddress endPoint = new InetSocketAddress(this.zkData.getIp(), Integer.parseInt(this.zkData.getPort()));
-            sendingSocket.connect(endPoint, 300); // timeout when a node has issue receiving message
+        try {
+            ChatProcotol.Reply response = Chat.connections.send(this.sendTo, this.zkData, this.chat);
 
-            OutputStream outStream = sendingSocket.getOutputStream();
-            InputStream inStream = sendingSocket.getInputStream();
-
-            this.chat.writeDelimitedTo(outStream);
-
-            try {
-                ChatProcotol.Reply response = ChatProcotol.Reply.parseDelimitedFrom(inStream);
-
-                // report if a node has received message successful
-                if (!this.chat.getIsBcast() && response.getStatus() == 200) {
-                    System.out.println("[System] " + this.sendTo + " has received your private message.");
-                }
+            // report if a node has received message successful
+            if (!this.chat.getIsBcast() && response.getStatus() == 200) {
+                System.out.println("[System] " + this.sendTo + " has received your private message.");
             }
-            catch (Exception ignore) {
-                // message has been delivered but no reply.
-            }
-
-            sendingSocket.close();
+        }
+        catch (ConnectionPool.NoReplyException nre) {
+            // message has been delivered but no reply.
         }
         catch (IOException ioe) {
             // a node's ZKData is invalid or it is no longer exist, remove it locally
@@ -0,0 +1,24 @@
+package cs682;
+
+/**
+ * A thread-safe cache of the snapshot of user's history at its current version.
+ * Requests arriving together share one snapshot, instead of serializing the same history each.
+ * The snapshot is replaced once the history changes, the downloads in progress keep the packets they have.
+ */
+public class SnapshotCache {
+
+    private HistorySnapshot snapshot;
+
+    /**
+     * Return the snapshot of the current version of user's history, take a new one if the history has changed.
+     *
+     * @return HistorySnapshot
+     */
+    public synchronized HistorySnapshot get() {
+        if (this.snapshot == null || this.snapshot.getVersion() != Chat.history.getVersion()) {
+            this.snapshot = new HistorySnapshot(Chat.history.snapshot());
+        }
+
+        return this.snapshot;
+    }
+}
@@ -0,0 +1,184 @@
+package cs682;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A runnable TCPListener to serve all the TCP connections with a single selector thread.
+ * Accept new connections and hand every readable or writable connection to its Receiver.
+ */
+public class TCPListener implements Runnable {
+
+    /**
+     * Time in milliseconds before closing a connection without any message.
+     * It must be longer than the idle timeout of ConnectionPool,
+     * so the other side closes the connection before we do.
+     */
+    private static final int IDLE_TIMEOUT = ConnectionPool.IDLE_TIMEOUT * 2;
+
+    /**
+     * Time in milliseconds between two sweeps over the connections for the idle ones.
+     */
+    private static final int SWEEP_INTERVAL = 1000;
+
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private long nextSweep;
+
+    /**
+     * TCPListener constructor.
+     *
+     * @param port
+     * @param workers
+     *      - thread pool for the blocking works
+     * @throws IOException
+     */
+    public TCPListener(int port, ExecutorService workers) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.workers = workers;
+        this.selector = Selector.open();
+        this.nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Return the port we are listening on.
+     *
+     * @return int
+     */
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Keep selecting ready channels until the server channel is closed.
+     * Close the connections which stay idle for too long on the way, sweeping them once in a while,
+     * not on every event, and waking up for it when there is no traffic.
+     */
+    @Override
+    public void run() {
+        try {
+            while (Chat.alive && this.serverChannel.isOpen()) {
+                this.selector.select(Math.max(1, this.nextSweep - System.currentTimeMillis()));
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    }
+                    else if (key.isValid()) {
+                        handle(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= this.nextSweep) {
+                    closeIdle(now);
+                    this.nextSweep = now + SWEEP_INTERVAL;
+                }
+            }
+        }
+        catch (IOException ignore) {
+            // exception will happened when we close the server channel
+        }
+        finally {
+            for (SelectionKey key : this.selector.keys()) {
+                close(key);
+            }
+
+            try {
+                this.selector.close();
+            }
+            catch (IOException ignore) {}
+            this.workers.shutdown();
+        }
+    }
+
+    /**
+     * Accept all pending connections and register them for reading.
+     *
+     * @throws IOException
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+            key.attach(new Receiver(key, this.workers));
+        }
+    }
+
+    /**
+     * Let the Receiver of a connection read or write.
+     * Close the connection if the other side closed it or something went wrong.
+     *
+     * @param key
+     */
+    private void handle(SelectionKey key) {
+        Receiver receiver = (Receiver) key.attachment();
+
+        try {
+            boolean open = (key.isReadable() ? receiver.read() : receiver.write());
+            if (!open) {
+                close(key);
+            }
+        }
+        catch (IOException ioe) {
+            System.err.println("IOException occurred in Receiver: " + ioe);
+            close(key);
+        }
+    }
+
+    /**
+     * Close the connections without any message for a while.
+     *
+     * @param now
+     */
+    private void closeIdle(long now) {
+        for (SelectionKey key : this.selector.keys()) {
+            Object receiver = key.attachment();
+            if (receiver != null && ((Receiver) receiver).isIdle(now, IDLE_TIMEOUT)) {
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Cancel a key and close its channel quietly.
+     *
+     * @param key
+     */
+    private void close(SelectionKey key) {
+        key.cancel();
+
+        try {
+            key.channel().close();
+        }
+        catch (IOException ignore) {}
+    }
+
+    /**
+     * Stop listening, and wake the selector up so the thread can close all the connections.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        this.serverChannel.close();
+        this.selector.wakeup();
+    }
+}
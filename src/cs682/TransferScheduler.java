@@ -0,0 +1,74 @@
+package cs682;
+
+import concurrent.Clock;
+import concurrent.TimingWheel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A scheduler to drive all the UDP transfers with a constant number of threads.
+ * Downloads, requests and acknowledgements are state machines which take a step
+ * on the I/O threads whenever a packet arrives or a timer expires,
+ * instead of holding a thread of their own while waiting.
+ * Timers are kept on a timing wheel turned by a single thread, on the clock the transfers run on.
+ */
+public class TransferScheduler {
+
+    /**
+     * Number of threads sending packets.
+     */
+    private static final int IO_THREADS = 2;
+
+    /**
+     * Resolution of the timers in milliseconds, and the number of ticks in one round of the wheel.
+     */
+    protected static final int TICK = 1;
+    private static final int SLOTS = 512;
+
+    private final ExecutorService io;
+    private final TimingWheel wheel;
+
+    /**
+     * TransferScheduler constructor.
+     * Start the I/O threads and the thread turning the timing wheel.
+     *
+     * @param clock
+     *      - where the timers are counted
+     */
+    public TransferScheduler(Clock clock) {
+        this.io = Executors.newFixedThreadPool(IO_THREADS);
+        this.wheel = new TimingWheel(TICK, SLOTS, this.io, clock);
+
+        Thread wheelThread = new Thread(this.wheel);
+        wheelThread.start();
+    }
+
+    /**
+     * Take a step of a transfer as soon as possible.
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        this.io.execute(task);
+    }
+
+    /**
+     * Take a step of a transfer after the delay.
+     *
+     * @param task
+     * @param delay
+     *      - in milliseconds
+     */
+    public void schedule(Runnable task, long delay) {
+        this.wheel.schedule(task, delay);
+    }
+
+    /**
+     * Stop the timers and the I/O threads.
+     */
+    public void close() {
+        this.wheel.close();
+        this.io.shutdownNow();
+    }
+}
@@ -0,0 +1,135 @@
+package cs682;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A runnable UDPDispatcher to receive datagrams in batches and hand them over to the workers.
+ * Every node is pinned to one worker by its ip:udpport, and a worker handles a batch in order,
+ * so the packets from a node are handled one at a time in the order they arrived,
+ * and a batch takes one task per worker instead of one per datagram.
+ * The datagrams handed over to a worker but not handled yet are counted,
+ * so a requester knows how far behind it is.
+ */
+public class UDPDispatcher implements Runnable {
+
+    private final UDPTransport transport;
+    private final ExecutorService[] workers;
+    private final AtomicInteger[] backlogs;
+    private List<List<UDPReceiver>> batches;
+
+    /**
+     * UDPDispatcher constructor.
+     *
+     * @param transport
+     * @param threads
+     *      - number of workers
+     */
+    public UDPDispatcher(UDPTransport transport, int threads) {
+        this.transport = transport;
+        this.workers = new ExecutorService[threads];
+        this.backlogs = new AtomicInteger[threads];
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = Executors.newSingleThreadExecutor();
+            this.backlogs[i] = new AtomicInteger();
+        }
+        this.batches = newBatches();
+    }
+
+    /**
+     * Keep draining the channel, and hand over every batch to the workers.
+     * Shut the workers down once the channel is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (Chat.alive) {
+                this.transport.drain(this::add);
+                dispatch();
+            }
+        }
+        catch (IOException | ClosedSelectorException ignore) {
+            // exception will happened when we close the channel
+        }
+        finally {
+            for (ExecutorService worker : this.workers) {
+                worker.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Add a datagram into the batch of the worker its node is pinned to.
+     *
+     * @param buffer
+     * @param from
+     */
+    private void add(ByteBuffer buffer, String from) {
+        int worker = worker(from);
+        this.batches.get(worker).add(new UDPReceiver(buffer, from));
+        this.backlogs[worker].incrementAndGet();
+    }
+
+    /**
+     * Return the worker a node is pinned to.
+     *
+     * @param from
+     *      - ip:udpport of the node
+     * @return int
+     */
+    private int worker(String from) {
+        return Math.floorMod(from.hashCode(), this.workers.length);
+    }
+
+    /**
+     * Return the number of datagrams waiting for the worker a node is pinned to.
+     *
+     * @param from
+     *      - ip:udpport of the node
+     * @return int
+     */
+    public int backlog(String from) {
+        return this.backlogs[worker(from)].get();
+    }
+
+    /**
+     * Hand over every non-empty batch to its worker, and start new batches.
+     */
+    private void dispatch() {
+        List<List<UDPReceiver>> batches = this.batches;
+        this.batches = newBatches();
+
+        for (int i = 0; i < this.workers.length; i++) {
+            List<UDPReceiver> batch = batches.get(i);
+            AtomicInteger backlog = this.backlogs[i];
+            if (!batch.isEmpty()) {
+                this.workers[i].execute(() -> {
+                    for (UDPReceiver receiver : batch) {
+                        receiver.run();
+                        backlog.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Create an empty batch for every worker.
+     *
+     * @return List
+     */
+    private List<List<UDPReceiver>> newBatches() {
+        List<List<UDPReceiver>> batches = new ArrayList<>();
+        for (int i = 0; i < this.workers.length; i++) {
+            batches.add(new ArrayList<>());
+        }
+
+        return batches;
+    }
+}
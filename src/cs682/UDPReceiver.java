@@ -2,63 +2,85 @@ package cs682;
 
 import chatprotos.ChatProcotol;
 import com.google.protobuf.ByteString;
+import concurrent.Crc32c;
 import concurrent.Download;
-import concurrent.SharedDataStructure;
+import concurrent.Reassembly;
+import concurrent.RttEstimator;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 
 /**
  * A runnable UDPReceiver to handle Datagram packets.
  */
 public class UDPReceiver implements Runnable {
 
-    private final static int WINDOW_SIZE = 4;
-    private final DatagramPacket packet;
+    /**
+     * Chunk size for the nodes which don't ask for one, they only accept ten bytes per packet.
+     */
+    private final static int LEGACY_CHUNK_SIZE = 10;
+
+    /**
+     * The largest number of packets in a block protected by one parity packet.
+     */
+    private final static int MAX_FEC = 64;
+    private final ByteBuffer buffer;
+    private final String from;
+    private String transfer;
     private final HashMap<ChatProcotol.Data.packetType, Runnable> map;
     private ChatProcotol.Data data;
-    private String from;
 
     /**
      * UDPReceiver constructor.
      *
-     * @param packet
+     * @param buffer
+     *      - the received datagram
+     * @param from
+     *      - ip:udpport of the node sent it
      */
-    public UDPReceiver(DatagramPacket packet) {
-        this.packet = packet;
+    public UDPReceiver(ByteBuffer buffer, String from) {
+        this.buffer = buffer;
+        this.from = from;
         this.map = new HashMap<>();
     }
 
     /**
-     * Parse the received packet.
-     * Create a signature for the node sent this packet.
-     * Run the method base on the type of packet.
+     * Parse the received packet, and give its buffer back.
+     * The packet belongs to the transfer of its session with the node sent it.
+     * Run the method base on the type of packet, a packet of a type we don't know is ignored.
      */
     @Override
     public void run() {
         this.data = parsePacket();
-        this.from = this.packet.getAddress().getHostAddress() + ":" + this.packet.getPort();
+        Chat.udp.release(this.buffer);
+        if (this.data == null) {
+            return;
+        }
+        this.transfer = Chat.transfer(this.from, this.data.getSession());
         initMap();
 
-        map.get(data.getType()).run();
+        Runnable handler = this.map.get(this.data.getType());
+        if (handler == null) {
+            System.err.println("[System] ignored a packet of an unknown type from " + this.from + ".");
+            return;
+        }
+        handler.run();
     }
 
     /**
-     * Parse the Datagram packet into a ChatProcotol Data object.
+     * Parse the datagram into a ChatProcotol Data object.
      *
      * @return ChatProcotol.Data
-     *      - Data in the packet
+     *      - Data in the packet, or null if it isn't one
      */
     private ChatProcotol.Data parsePacket() {
-        byte[] receivedData = this.packet.getData();
-
         ChatProcotol.Data data = null;
-        try (ByteArrayInputStream inStream = new ByteArrayInputStream(receivedData)) {
-            data = ChatProcotol.Data.parseDelimitedFrom(inStream);
+        try {
+            data = Chat.udp.decode(this.buffer);
         }
         catch (IOException ioe) {
             System.err.println("[System] having issue parsing packet.");
@@ -74,66 +96,238 @@ public class UDPReceiver implements Runnable {
         this.map.put(ChatProcotol.Data.packetType.REQUEST, this::request);
         this.map.put(ChatProcotol.Data.packetType.ACK, this::ack);
         this.map.put(ChatProcotol.Data.packetType.DATA, this::data);
+        this.map.put(ChatProcotol.Data.packetType.INFO, this::info);
+        this.map.put(ChatProcotol.Data.packetType.PARITY, this::parity);
+        this.map.put(ChatProcotol.Data.packetType.STREAM, this::stream);
     }
 
     /**
-     * Notify user that there is a download request.
+     * Notify user that there is a download request, unless it is a repeated request for a transfer started already.
+     * A node can ask for many transfers at the same time in different sessions.
      * Create a thread-save data structure storing current history data.
-     * Set the window size for Go-Back-N algorithm, let's say 4.
-     * Create a new thread to handle this download approach.
-     * Register the reference of that thread so we can wake it later.
+     * The window size starts small and adapts to the link as acknowledgements arrive,
+     * and never goes beyond the number of packets the requester says it can take.
+     * The timeout starts from what we know about the round trip time to the requester,
+     * and covers the time the requester may hold an acknowledgement back.
+     * Use the chunk size and the transfer mode the requester asked for, as long as we can send it.
+     * If the requester only asks for the messages newer than it has, only send those.
+     * If the requester asks for forward error correction, send a parity packet after every block.
+     * If the requester only asks for a range of the history, only send that range,
+     * as long as our history is still the one it asked for, with the proof to check it against the Merkle root.
+     * Otherwise, compress the history if the requester asks for a compression we know,
+     * and tag the transfer with the digest of the bytes it carries as its snapshot id.
+     * If the requester resumes a transfer, only send the packets after the ones it has,
+     * as long as our snapshot is the one it resumes, otherwise tell it what we have instead.
+     * If what is left of the history is too large for the packets, tell the requester to stream it over TCP.
+     * Create a handler to drive this download approach on the transfer scheduler.
      * Set up internal state to keep track of the in-progress download.
      * Start download approach.
      */
     private void request() {
-        // debug mode:
-        if (Chat.debug && randomlyDrop()) {
-            System.out.println("[Debug] dropping REQUEST packet.");
-            return;
-        }
-
         System.out.println("[System] someone just request a history data!");
-        if (!Chat.currentDownloads.containsKey(this.from)) {
-            Download download = new Download(Chat.history.get(), WINDOW_SIZE);
+        if (!Chat.currentDownloads.containsKey(this.transfer)) {
+            int chunkSize = this.data.getChunkSize();
+            chunkSize = (chunkSize > 0 ? Math.min(chunkSize, Chat.MAX_CHUNK_SIZE) : LEGACY_CHUNK_SIZE);
+
+            RttEstimator rtt = Chat.rttEstimators.computeIfAbsent(this.from, key -> new RttEstimator());
+            Download download;
+
+            if (this.data.getMarksCount() > 0 || this.data.getSince() > 0) {
+                byte[] bytes = HistorySnapshot.serialize(newerThan(Chat.history.get(), this.data.getMarksMap(),
+                        this.data.getSince()));
+                download = new Download(bytes, 0, bytes.length, chunkSize, this.data.getMode(), rtt, Chat.time);
+            }
+            else {
+                HistorySnapshot snapshot = Chat.snapshots.get();
+                byte[] bytes = snapshot.getBytes();
+                int offset = this.data.getOffset();
+                int length = this.data.getLength();
+                boolean range = (offset != 0 || length != 0);
+                // a range is cut from the uncompressed history
+                Codec codec = (range ? null : Chat.codecs.get(this.data.getCodec()));
+                ByteString id = snapshot.getDigest(codec);
+
+                if (!this.data.getDigest().isEmpty() && !id.equals(this.data.getDigest())) {
+                    System.out.println("[System] ignored, since the history has changed after he/she asked.");
+                    sendInfo(snapshot, 0);
+                    return;
+                }
+                if (offset < 0 || length < 0 || offset > bytes.length - length) {
+                    System.out.println("[System] ignored, since the range is out of the history.");
+                    return;
+                }
+
+                if (range) {
+                    download = new Download(bytes, offset, length, chunkSize, this.data.getMode(), rtt, Chat.time);
+                    // a range of whole chunks can be checked against the Merkle root on its own
+                    int end = offset + length;
+                    if (offset % chunkSize == 0 && (end % chunkSize == 0 || end == bytes.length)) {
+                        int from = offset / chunkSize;
+                        download.setProof(snapshot.getTree(chunkSize).proof(from,
+                                Math.max(from + 1, (end + chunkSize - 1) / chunkSize)));
+                    }
+                }
+                else {
+                    int size = snapshot.getBytes(codec).length;
+                    int resume = Math.max(0, this.data.getResume());
+                    if (Chat.receiver != null && (long) size - (long) resume * chunkSize > Chat.streamThreshold) {
+                        switchToStream(id, size);
+                        return;
+                    }
+
+                    // the packets of the current history are shared by every requester asking for the same
+                    download = new Download(snapshot.getPackets(chunkSize, codec), chunkSize,
+                            this.data.getMode(), rtt, Chat.time);
+                    download.setSnapshot(id);
+                }
+                if (this.data.getResume() < 0 || this.data.getResume() >= download.get().size()) {
+                    System.out.println("[System] ignored, since it resumes out of the history.");
+                    sendInfo(snapshot, 0);
+                    return;
+                }
+                download.resume(this.data.getResume());
+            }
+            download.setAckDelay(this.data.getAckDelay());
+            download.setReceiveWindow(Math.max(0, this.data.getResume()), this.data.getWindow());
+            download.setFec(Math.max(0, Math.min(this.data.getFec(), MAX_FEC)));
             String[] host = this.from.split(":");
 
-            Runnable dowTask = new DownloadHandler(download, host[0], host[1]);
-            Thread dowThread = new Thread(dowTask);
+            DownloadHandler handler = new DownloadHandler(download, host[0], host[1], this.data.getSession());
 
-            download.setThread(dowThread);
-            Chat.currentDownloads.put(this.from, download);
-            dowThread.start();
+            Chat.currentDownloads.put(this.transfer, download);
+            handler.start();
         }
         else {
-            System.out.println("[System] ignored, since his/her previous request hasn't finished.");
+            System.out.println("[System] ignored, since the transfer he/she asked for has started already.");
         }
     }
 
     /**
-     * Update the internal state if the sequence number in the acknowledgement
-     * is equal or larger than the current state of this download approach,
-     * and also inside the window size.
-     * Wake the in-progress download handler up to proceed.
+     * Answer an INFO packet without digest with the digest, the size and the Merkle root of our history.
+     * An INFO packet with digest is the answer to ours, pass it to the download asking for it,
+     * or it refuses to resume our download, which asks for the entire history instead.
+     */
+    private void info() {
+        if (this.data.getDigest().isEmpty()) {
+            sendInfo(Chat.snapshots.get(), Math.min(this.data.getChunkSize(), Chat.MAX_CHUNK_SIZE));
+        }
+        else if (Chat.infoRequests.containsKey(this.transfer)) {
+            Chat.infoRequests.get(this.transfer).answer(this.from, this.data);
+        }
+        else if (Chat.partialDownloads.containsKey(this.transfer)) {
+            Chat.partialDownloads.get(this.transfer).refused();
+        }
+    }
+
+    /**
+     * Tell the requester to stream the history from our TCP port instead,
+     * with the snapshot id, the size and the compression of the bytes to stream.
+     *
+     * @param id
+     * @param size
+     */
+    private void switchToStream(ByteString id, int size) {
+        System.out.println("[System] the history is large, asking him/her to stream it over TCP.");
+        ChatProcotol.Data stream = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.STREAM)
+                .setDigest(id).setLength(size).setCodec(this.data.getCodec()).setTcpPort(Chat.receiver.getPort())
+                .setSession(this.data.getSession()).build();
+        String[] host = this.from.split(":");
+
+        Chat.scheduler.execute(new UDPSender(host[0], host[1], stream));
+    }
+
+    /**
+     * The history we asked for is too large for the packets, stream it over TCP from the node instead,
+     * into the same data structure. Only one stream from a node at a time, a repeated STREAM packet is ignored.
+     */
+    private void stream() {
+        Reassembly reassembly = Chat.historyFromOthers.get(this.transfer);
+        if (reassembly == null) {
+            return;
+        }
+
+        HistoryStream stream = new HistoryStream(this.from, this.data, reassembly);
+        if (Chat.historyStreams.putIfAbsent(this.transfer, stream) == null) {
+            System.out.println("[System] the history is large, streaming it over TCP...");
+            reassembly.setSnapshot(this.data.getDigest());
+            new Thread(stream).start();
+        }
+    }
+
+    /**
+     * Send the digest and the size of the history we have with an INFO packet in the session asking for it,
+     * and the Merkle root over its chunks if a chunk size is asked for.
+     * It also answers a request we can't resume, so the requester asks for the entire history instead.
+     *
+     * @param snapshot
+     * @param chunkSize
+     *      - data size of each Data packet, 0 for no Merkle root
+     */
+    private void sendInfo(HistorySnapshot snapshot, int chunkSize) {
+        ChatProcotol.Data info = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.INFO)
+                .setDigest(snapshot.getDigest()).setLength(snapshot.getBytes().length)
+                .setRoot(chunkSize > 0 ? snapshot.getTree(chunkSize).getRoot() : ByteString.EMPTY)
+                .setSession(this.data.getSession()).build();
+        String[] host = this.from.split(":");
+
+        Chat.scheduler.execute(new UDPSender(host[0], host[1], info));
+    }
+
+    /**
+     * Filter the messages with a greater timestamp than the latest one the requester has from their sender,
+     * in the order of the history. Every message of a sender is included if the requester has nothing from it,
+     * or fewer of its messages up to that one than we have, since it misses some of them.
+     * A requester without the marks of the senders only gives one timestamp for all of them.
+     *
+     * @param history
+     * @param marks
+     *      - the latest message and the number of messages the requester has from every sender
+     * @param since
+     *      - timestamp to compare every message with if there are no marks
+     * @return List
+     *      - a list of newer messages
+     */
+    protected static List<ChatProcotol.Chat> newerThan(List<ChatProcotol.Chat> history,
+                                                       Map<String, ChatProcotol.Data.Mark> marks, long since) {
+        Map<String, Integer> older = new HashMap<>();
+        for (ChatProcotol.Chat chat : history) {
+            ChatProcotol.Data.Mark mark = marks.get(chat.getFrom());
+            if (mark != null && chat.getTimestamp() > 0 && chat.getTimestamp() <= mark.getTimestamp()) {
+                older.merge(chat.getFrom(), 1, Integer::sum);
+            }
+        }
+
+        List<ChatProcotol.Chat> newer = new ArrayList<>();
+        for (ChatProcotol.Chat chat : history) {
+            ChatProcotol.Data.Mark mark = marks.get(chat.getFrom());
+            long latest = since;
+            if (!marks.isEmpty()) {
+                boolean missing = (mark == null || older.getOrDefault(chat.getFrom(), 0) > mark.getCount());
+                latest = (missing ? 0 : mark.getTimestamp());
+            }
+            if (chat.getTimestamp() > latest) {
+                newer.add(chat);
+            }
+        }
+
+        return newer;
+    }
+
+    /**
+     * Mark the packets covered by the acknowledgement as acknowledged:
+     * every packet up to its sequence number, and the ones in its selective acknowledgement bitmap.
+     * Keep the number of packets the requester can take after them.
+     * Acknowledging new packets or opening the window wakes the in-progress download handler up
+     * to take the next step.
      */
     private void ack() {
-        if (Chat.currentDownloads.containsKey(this.from)) {
-            Download download = Chat.currentDownloads.get(this.from);
-
-            int state = this.data.getSeqNo();
-            if (state >= download.currentState() && state <= download.currentState() + this.WINDOW_SIZE) {
-                // debug mode:
-                if (Chat.debug && randomlyDrop()) {
-                    System.out.println("[Debug] dropping ACK packet, sequence number: " + this.data.getSeqNo() + ".");
-                    return;
-                }
+        if (Chat.currentDownloads.containsKey(this.transfer)) {
+            Download download = Chat.currentDownloads.get(this.transfer);
 
+            if (download.acknowledge(this.data.getSeqNo(), this.data.getSack(), this.data.getWindow())) {
                 if (Chat.debug) {
                     System.out.println("[Debug] received ACK packet, sequence number: " + this.data.getSeqNo() + ".");
                 }
-
-                download.changeState(state + 1);
-                download.setWake();
-                download.getThread().notify();
             }
             else if (Chat.debug) {
                 System.out.println("[Debug] ignore late ACK packet, sequence number: " + this.data.getSeqNo() + ".");
@@ -142,101 +336,125 @@ public class UDPReceiver implements Runnable {
     }
 
     /**
-     * If the sequence number of a new Data is the one we expected,
-     * store it into the thread-save data structure.
-     * Send back acknowledgement with same sequence number.
+     * Drop a Data which doesn't match its checksum.
+     * Offer a new Data to the thread-save data structure.
+     * With Go-Back-N, only the one we expected is stored,
+     * with Selective Repeat, the ones ahead of it are buffered as well.
      * Notify user receiving a valid Data.
-     * If the packet is the last one, build up a new history
-     * and replace user's history with this one.
+     * Acknowledge with the sequence number of the last packet in order,
+     * and the bitmap of the packets received out of order, following the delayed acknowledgement policy.
+     * Duplicates are acknowledged again right away, in case the previous acknowledgement was lost.
+     * Chunks in order are imported into user's history.
+     * If every packet up to the last one is in order, the download approach has completed,
+     * if the chunks turn out to be malformed, it has failed, and the requester asks for them again.
      */
     private void data() {
-        if (Chat.historyFromOthers.containsKey(this.from)) {
-            SharedDataStructure<ByteString> byteStrings = Chat.historyFromOthers.get(this.from);
-
-            if (this.data.getSeqNo() == byteStrings.size() + 1) {
-
-                // debug mode
-                if (Chat.debug && randomlyDrop()) {
-                    System.out.println("[Debug] dropping DATA packet, sequence number: " + this.data.getSeqNo() + ".");
-                    return;
-                }
+        if (Chat.historyFromOthers.containsKey(this.transfer)) {
+            Reassembly reassembly = Chat.historyFromOthers.get(this.transfer);
 
-                int len = this.data.getData().toByteArray().length;
-                if (len == 10 || this.data.getIsLast()) { // if not the last packet, the data size should be 10
-                    boolean success = byteStrings.addOnSeq(this.data.getSeqNo(), this.data.getData());
+            if (corrupted(this.data)) {
+                return;
+            }
 
-                    if (success) {
-                        System.out.println("[System] received DATA packet, sequence number: " + this.data.getSeqNo() + ".");
-                        sendAcknowledgement(this.data.getSeqNo());
-                    }
-                }
+            DelayedAck delayedAck = delayedAck(reassembly);
+            int seqNo = this.data.getSeqNo();
+            header(reassembly);
+            if (reassembly.offer(seqNo, this.data.getData(), this.data.getIsLast())) {
+                System.out.println("[System] received DATA packet, sequence number: " + seqNo + ".");
+                delayedAck.received(seqNo);
+                reassembly.deliver();
+            }
+            else if (seqNo <= reassembly.size()) {
+                delayedAck.duplicate();
             }
             else if (Chat.debug) {
-                System.out.println("[Debug] ignore unexpected DATA packet, sequence number: " + this.data.getSeqNo() + ".");
+                System.out.println("[Debug] ignore unexpected DATA packet, sequence number: " + seqNo + ".");
             }
 
-            if (this.data.getIsLast() && byteStrings.size() == this.data.getSeqNo()) {
-                finishData(byteStrings);
+            if (reassembly.isComplete() || reassembly.isFailed()) {
+                Chat.historyFromOthers.remove(this.transfer, reassembly);
+                Chat.delayedAcks.remove(this.transfer, delayedAck);
             }
         }
     }
 
     /**
-     * Recover the original byte array of history data we received.
-     * Parse the byte array into a list of Chat history.
-     * Replace user's history with this one.
-     * Notify user.
-     *
-     * @param byteStrings
+     * Drop a parity packet which doesn't match its checksum, the packets it rebuilds are only as good as it is.
+     * Offer a parity packet to the thread-save data structure.
+     * If it rebuilds a lost Data, notify user, acknowledge and import it like a Data which has just arrived.
      */
-    private void finishData(SharedDataStructure<ByteString> byteStrings) {
-        List<ByteString> list = byteStrings.get();
-        int len = (list.size() - 1) * 10 + this.data.getData().toByteArray().length;
-        int index = 0;
-        byte[] temp = new byte[len];
+    private void parity() {
+        if (Chat.historyFromOthers.containsKey(this.transfer)) {
+            Reassembly reassembly = Chat.historyFromOthers.get(this.transfer);
 
-        for (ByteString byteString : list) {
-            for (byte oneByte : byteString.toByteArray()) {
-                temp[index++] = oneByte;
+            if (corrupted(this.data)) {
+                return;
             }
-        }
 
-        try {
-            List<ChatProcotol.Chat> history = ChatProcotol.History.parseFrom(temp).getHistoryList();
-            Chat.history.replaceAll(history);
-            System.out.println("[System] new history has been loaded.");
-
-            Chat.historyFromOthers.remove(this.from);
-        }
-        catch (IOException ioe) {
-            System.err.println("[System] issue occurred when parsing a history packet.");
+            header(reassembly);
+            int seqNo = reassembly.offerParity(this.data);
+            if (seqNo > 0) {
+                DelayedAck delayedAck = delayedAck(reassembly);
+                System.out.println("[System] rebuilt lost DATA packet, sequence number: " + seqNo + ".");
+                delayedAck.received(seqNo);
+                reassembly.deliver();
+
+                if (reassembly.isComplete() || reassembly.isFailed()) {
+                    Chat.historyFromOthers.remove(this.transfer, reassembly);
+                    Chat.delayedAcks.remove(this.transfer, delayedAck);
+                }
+            }
         }
     }
 
     /**
-     * Create a thread to send back an acknowledgement.
+     * Check the chunk of a Data or a parity packet against its checksum.
+     * The nodes older than the checksums leave it 0, so their packets are accepted without checking.
+     * A corrupted packet is dropped without acknowledging it, so the sender resends it.
      *
-     * @param seqNo
+     * @param data
+     * @return boolean
      */
-    private void sendAcknowledgement(int seqNo) {
-        String[] host = this.from.split(":");
+    protected static boolean corrupted(ChatProcotol.Data data) {
+        if (data.getCrc() == 0 || Crc32c.of(data.getData()) == data.getCrc()) {
+            return false;
+        }
 
-        Runnable ackTask = new UDPSender(host[0], host[1], seqNo);
+        System.out.println("[System] dropping corrupted " + data.getType() + " packet, sequence number: "
+                + data.getSeqNo() + ".");
+        return true;
+    }
 
-        Thread ackThread = new Thread(ackTask);
-        ackThread.start();
+    /**
+     * Keep the snapshot id and the proof of the range a packet of the first block carries.
+     *
+     * @param reassembly
+     */
+    private void header(Reassembly reassembly) {
+        if (!this.data.getDigest().isEmpty()) {
+            reassembly.setSnapshot(this.data.getDigest());
+        }
+        if (!this.data.getProof().isEmpty()) {
+            reassembly.setProof(this.data.getProof());
+        }
     }
 
     /**
-     * Randomly generate an integer in range 1 ~ 7
-     * to drop a packet in 1 out of 7 chance when the number is 1.
+     * Return the delayed acknowledgement policy of the data structure,
+     * create one on its first packet with the policy user chose.
      *
-     * @return boolean
-     *      - drop or not
+     * @param reassembly
+     * @return DelayedAck
      */
-    private boolean randomlyDrop() {
-        Random r = new Random();
-        int chance = r.nextInt(7) + 1; // 1 out of 7 chance to lost packet
-        return (chance == 1);
+    private DelayedAck delayedAck(Reassembly reassembly) {
+        DelayedAck delayedAck = Chat.delayedAcks.get(this.transfer);
+        if (delayedAck == null || delayedAck.getReassembly() != reassembly) {
+            String[] host = this.from.split(":");
+            delayedAck = new DelayedAck(reassembly, host[0], host[1], this.data.getSession(),
+                    Chat.ackEvery, Chat.ackDelay);
+            Chat.delayedAcks.put(this.transfer, delayedAck);
+        }
+
+        return delayedAck;
     }
 }
@@ -1,26 +1,71 @@
 package cs682;
 
 import chatprotos.ChatProcotol;
-import concurrent.SharedDataStructure;
+import com.google.protobuf.ByteString;
+import concurrent.Reassembly;
+import concurrent.RttEstimator;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * A runnable UDPSender to send Datagram to other nodes.
+ * A request is a state machine driven by the transfer scheduler,
+ * it checks the progress when its timer goes off instead of waiting on a thread.
  */
 public class UDPSender implements Runnable {
 
+    /**
+     * Number of packets we can buffer ahead of the next one in order with Selective Repeat.
+     */
+    protected static final int BUFFER_PACKETS = 256;
+
+    /**
+     * Number of times to send a request before giving up.
+     */
+    private static final int MAX_REQUESTS = 6;
+
+    /**
+     * Time in milliseconds without any new packet before giving up.
+     */
+    private static final int IDLE_TIMEOUT = 15000;
+
+    /**
+     * Time in milliseconds between checking the progress.
+     */
+    private static final int IDLE_CHECK = 100;
+
     private final Map<ChatProcotol.Data.packetType, Runnable> map;
     private final ChatProcotol.Data.packetType type;
     private final String ip;
     private final String port;
+    private ChatProcotol.Data.transferMode mode;
+    private Map<String, ChatProcotol.Data.Mark> marks;
+    private int fec;
+    private ChatProcotol.Data.compression codec;
+    private ByteString digest;
+    private int offset;
+    private int length;
+    private int resume;
     private ChatProcotol.Data data;
     private int seqNo;
+    private ByteString sack;
+    private int window;
+    private String target;
+    private int session;
+    private String transfer;
+    private Reassembly reassembly;
+    private RttEstimator rtt;
+    private long sentAt;
+    private long lastProgress;
+    private int attempts;
+    private int failures;
+    private int initial;
+    private int received;
+    private Runnable abortListener;
 
     /**
      * Overloading UDPSender constructor.
@@ -28,12 +73,59 @@ public class UDPSender implements Runnable {
      *
      * @param ip
      * @param port
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     * @param marks
+     *      - the latest message and the number of messages we have from every sender,
+     *      to only ask for the newer ones, empty for the entire history
+     * @param fec
+     *      - number of packets in a block protected by one parity packet, 0 for none
+     * @param codec
+     *      - compression to ask for
      */
-    public UDPSender(String ip, String port) {
+    public UDPSender(String ip, String port, ChatProcotol.Data.transferMode mode,
+                     Map<String, ChatProcotol.Data.Mark> marks, int fec, ChatProcotol.Data.compression codec) {
         this.map = new HashMap<>();
         this.type = ChatProcotol.Data.packetType.REQUEST;
         this.ip = ip;
         this.port = port;
+        this.mode = mode;
+        this.marks = marks;
+        this.fec = fec;
+        this.codec = codec;
+        this.digest = ByteString.EMPTY;
+    }
+
+    /**
+     * Overloading UDPSender constructor.
+     * REQUEST packet type for a range of the history.
+     * The incoming data packets go into the given data structure.
+     *
+     * @param ip
+     * @param port
+     * @param mode
+     *      - Go-Back-N or Selective Repeat
+     * @param digest
+     *      - digest of the history the range belongs to
+     * @param offset
+     *      - first byte of the range
+     * @param length
+     *      - size of the range
+     * @param reassembly
+     */
+    public UDPSender(String ip, String port, ChatProcotol.Data.transferMode mode, ByteString digest,
+                     int offset, int length, Reassembly reassembly) {
+        this.map = new HashMap<>();
+        this.type = ChatProcotol.Data.packetType.REQUEST;
+        this.ip = ip;
+        this.port = port;
+        this.mode = mode;
+        this.marks = Collections.emptyMap();
+        this.digest = digest;
+        this.codec = ChatProcotol.Data.compression.NONE;
+        this.offset = offset;
+        this.length = length;
+        this.reassembly = reassembly;
     }
 
     /**
@@ -42,14 +134,42 @@ public class UDPSender implements Runnable {
      *
      * @param ip
      * @param port
+     * @param session
+     *      - session id of the transfer
      * @param seqNo
+     *      - sequence number of the last packet received in order
+     * @param sack
+     *      - bitmap of the packets received out of order
+     * @param window
+     *      - number of packets we can take after the last one in order
      */
-    public UDPSender(String ip, String port, int seqNo) {
+    public UDPSender(String ip, String port, int session, int seqNo, ByteString sack, int window) {
         this.map = new HashMap<>();
         this.type = ChatProcotol.Data.packetType.ACK;
         this.ip = ip;
         this.port = port;
+        this.session = session;
         this.seqNo = seqNo;
+        this.sack = sack;
+        this.window = window;
+    }
+
+    /**
+     * Overloading UDPSender constructor.
+     * INFO or STREAM packet type.
+     *
+     * @param ip
+     * @param port
+     * @param data
+     *      - the INFO packet, asking for or answering with the digest and the size of the history,
+     *        or the STREAM packet, telling the requester to stream the history over TCP
+     */
+    public UDPSender(String ip, String port, ChatProcotol.Data data) {
+        this.map = new HashMap<>();
+        this.type = data.getType();
+        this.ip = ip;
+        this.port = port;
+        this.data = data;
     }
 
     /**
@@ -68,86 +188,315 @@ public class UDPSender implements Runnable {
     private void initMap() {
         this.map.put(ChatProcotol.Data.packetType.REQUEST, this::request);
         this.map.put(ChatProcotol.Data.packetType.ACK, this::ack);
+        this.map.put(ChatProcotol.Data.packetType.INFO, this::info);
+        this.map.put(ChatProcotol.Data.packetType.STREAM, this::info);
     }
 
     /**
-     * Create an thread-safe data structure to store incoming data packet.
-     * Send the request to target node.
-     * Wait 5 seconds and check the result.
-     * If the data structure no longer exists, means the download approach has completed.
-     * If the data structure exists, but the size didn't increase, could be losing request.
-     * If the data structure exists and the size increased, could be in the progress.
-     * Try to check three times.
-     * If the data structure still exists, could be losing request or data, abort.
+     * Pick a new session for the transfer, so it never mixes with any other transfer from the same node.
+     * Create an thread-safe data structure to store incoming data packet,
+     * which decompresses the history if we ask for compression,
+     * and imports it into user's history while the packets arrive in order,
+     * or merges the newer messages into it, unless a range is asked for with its own data structure.
+     * If we ask for the entire history and a download with the same settings was aborted,
+     * take over its data structure and resume it after the packets it has in order, from any node,
+     * otherwise the aborted downloads which nobody resumes are dropped,
+     * since the new one replaces what they would import.
+     * Send the request with the session, the chunk size we can receive, the transfer mode,
+     * the timestamp of the latest message we have if we only ask for newer ones,
+     * the range with the digest of its history if we only ask for a part of it,
+     * the snapshot id and the last packet in order if we resume a download,
+     * how long we may hold an acknowledgement back, the number of packets we can take,
+     * the size of the blocks protected by parity packets if we ask for forward error correction,
+     * and the compression we ask for to target node.
+     * Check for the first packet after the retransmission timeout estimated from the round trip time.
      */
-    private synchronized void request() {
-        ChatProcotol.Data data = ChatProcotol.Data.newBuilder().setType(this.type).build();
+    private void request() {
+        this.target = this.ip + ":" + this.port;
+        this.session = Chat.sessions.incrementAndGet();
+        this.transfer = Chat.transfer(this.target, this.session);
+        if (this.reassembly == null && this.marks.isEmpty()) {
+            resumePartial();
+            if (this.resume == 0) {
+                dropPartials();
+            }
+        }
+        if (this.reassembly == null) {
+            this.reassembly = newReassembly();
+        }
+        Chat.historyFromOthers.put(this.transfer, this.reassembly);
+        this.rtt = Chat.rttEstimators.computeIfAbsent(this.target, key -> new RttEstimator());
+        this.initial = this.reassembly.received();
+        this.received = this.initial;
+
+        sendRequest();
+    }
 
-        String target = this.ip + ":" + this.port;
-        if (!Chat.historyFromOthers.containsKey(target)) {
-            Chat.historyFromOthers.put(target, new SharedDataStructure<>());
+    /**
+     * Create a thread-safe data structure to store incoming data packet for the entire history or newer messages.
+     *
+     * @return Reassembly
+     */
+    private Reassembly newReassembly() {
+        BiConsumer<ByteString, Boolean> consumer = new HistoryDecoder(this.marks);
+        if (Chat.codecs.containsKey(this.codec)) {
+            consumer = Chat.codecs.get(this.codec).decompress(consumer);
         }
 
-        // try three times, 15 seconds total
-        boolean success = false;
-        for (int i = 0; i < 3; i++) {
-            if (!success) {
-                send(data);
-            }
+        return new Reassembly(this.mode, BUFFER_PACKETS, this.fec, consumer, Chat.time);
+    }
 
-            try {
-                wait(5000);
+    /**
+     * Take over an aborted download with the same transfer mode, forward error correction and compression,
+     * which isn't complete or resumed by another request at the moment.
+     * Keep it for target node until the transfer goes on, so target node can refuse it.
+     */
+    private void resumePartial() {
+        synchronized (Chat.partialDownloads) {
+            for (Map.Entry<String, UDPSender> entry : Chat.partialDownloads.entrySet()) {
+                UDPSender partial = entry.getValue();
+                if (partial.mode == this.mode && partial.fec == this.fec && partial.codec == this.codec
+                        && !partial.reassembly.isComplete()
+                        && !Chat.historyFromOthers.containsValue(partial.reassembly)) {
+                    Chat.partialDownloads.remove(entry.getKey());
+                    Chat.partialDownloads.put(this.transfer, this);
+                    this.reassembly = partial.reassembly;
+                    this.digest = this.reassembly.getSnapshot();
+                    this.resume = this.reassembly.size();
+                    System.out.println("[System] resuming history download after packet " + this.resume + ".");
+                    return;
+                }
             }
-            catch (InterruptedException ignore) {}
+        }
+    }
+
+    /**
+     * Drop the aborted downloads of the entire history which aren't resumed by another request at the moment.
+     */
+    private void dropPartials() {
+        synchronized (Chat.partialDownloads) {
+            Chat.partialDownloads.values().removeIf(
+                    partial -> !Chat.historyFromOthers.containsValue(partial.reassembly));
+        }
+    }
 
-            if (!Chat.historyFromOthers.containsKey(target)) {
-                // task completed
-                break;
+    /**
+     * Return the smallest of the latest timestamps of the senders, for the nodes which only filter by one.
+     * They send every message newer than it, the ones we have already are skipped.
+     *
+     * @param marks
+     * @return long
+     *      - 0 for the entire history
+     */
+    private static long oldest(Map<String, ChatProcotol.Data.Mark> marks) {
+        long oldest = Long.MAX_VALUE;
+        for (ChatProcotol.Data.Mark mark : marks.values()) {
+            oldest = Math.min(oldest, mark.getTimestamp());
+        }
+
+        return (marks.isEmpty() ? 0 : oldest);
+    }
+
+    /**
+     * Send the request and set a timer to check for the response.
+     */
+    private void sendRequest() {
+        ChatProcotol.Data data = ChatProcotol.Data.newBuilder()
+                .setType(this.type).setSession(this.session).setChunkSize(Chat.chunkSize).setMode(this.mode)
+                .putAllMarks(this.marks).setSince(oldest(this.marks))
+                .setDigest(this.digest).setOffset(this.offset).setLength(this.length)
+                .setResume(this.resume).setAckDelay(Chat.ackDelay)
+                .setWindow(receiveWindow(this.target, this.reassembly)).setFec(this.fec).setCodec(this.codec).build();
+
+        send(data);
+        this.sentAt = Chat.time.nanoTime();
+        this.attempts++;
+        Reassembly reassembly = this.reassembly;
+        Chat.scheduler.schedule(() -> check(reassembly), this.rtt.getTimeout());
+    }
+
+    /**
+     * Check the progress of the download approach when the timer goes off.
+     * If the data structure no longer exists, means the download approach has completed,
+     * or it has been replaced, the check is for the previous one.
+     * If nothing new arrives, could be losing request, back off the timeout and resend it, up to six times.
+     * A request which is only sent once tells us the round trip time to target node,
+     * unless the download is resumed, since some packets arrived before it.
+     * Once the packets are coming in, keep checking as long as there is progress.
+     * If the data structure still exists but nothing arrives for 15 seconds, could be losing data, abort.
+     * Keep the data structure of an aborted download of the entire history if it has a part of a snapshot,
+     * to resume later.
+     * Tell the listener if there is one, so the range of a download from many nodes is requested elsewhere.
+     * If what arrived turns out to be malformed, don't wait, request it again.
+     *
+     * @param reassembly
+     *      - the data structure the timer was set for
+     */
+    private synchronized void check(Reassembly reassembly) {
+        if (reassembly != this.reassembly) {
+            return;
+        }
+        if (reassembly.isFailed()) {
+            failed(reassembly);
+            return;
+        }
+        if (Chat.historyFromOthers.get(this.transfer) != reassembly) {
+            Chat.partialDownloads.remove(this.transfer, this);
+            return;
+        }
+
+        int received = reassembly.received();
+        long now = Chat.time.millis();
+        if (received == this.initial && this.attempts < MAX_REQUESTS) {
+            this.rtt.backoff();
+            System.out.println("[System] hasn't received any response, resending request...");
+            sendRequest();
+            return;
+        }
+
+        if (received > this.initial && this.received == this.initial) {
+            // the transfer goes on, target node can't refuse it any more
+            Chat.partialDownloads.remove(this.transfer, this);
+            if (this.attempts == 1 && this.initial == 0) {
+                this.rtt.sample((reassembly.getFirstArrival() - this.sentAt) / 1e6);
             }
-            else if (Chat.historyFromOthers.containsKey(target)
-                    && Chat.historyFromOthers.get(target).size() == 0) {
-                System.out.println("[System] hasn't received any response, resending request...");
+        }
+        if (received > this.received) {
+            this.received = received;
+            this.lastProgress = now;
+        }
+
+        if (received > this.initial && now - this.lastProgress < IDLE_TIMEOUT) {
+            Chat.scheduler.schedule(() -> check(reassembly),
+                    Math.min(IDLE_CHECK, this.lastProgress + IDLE_TIMEOUT - now));
+        }
+        // if didn't finish receiving a complete history data and didn't remove the data structure
+        else if (Chat.historyFromOthers.remove(this.transfer, reassembly)) {
+            if (this.marks.isEmpty() && this.length == 0
+                    && !reassembly.getSnapshot().isEmpty() && reassembly.size() > 0) {
+                Chat.partialDownloads.put(this.transfer, this);
+                System.out.println("[System] waiting too long, aborted. Request again to resume after packet "
+                        + reassembly.size() + ".");
             }
             else {
-                // still receiving data
-                success = true;
+                Chat.partialDownloads.remove(this.transfer, this);
+                System.out.println("[System] waiting too long, aborted.");
+            }
+            if (this.abortListener != null) {
+                this.abortListener.run();
             }
         }
+    }
 
-        // if didn't finish receiving a complete history data and didn't remove the data structure
-        if (Chat.historyFromOthers.containsKey(target)) {
-            Chat.historyFromOthers.remove(target);
-            System.out.println("[System] waiting too long, aborted.");
+    /**
+     * Drop the malformed history and request it again in a new session, so the packets on the way are ignored,
+     * up to six times. A range is aborted instead, the download from many nodes requests it elsewhere.
+     *
+     * @param reassembly
+     */
+    private void failed(Reassembly reassembly) {
+        Chat.historyFromOthers.remove(this.transfer, reassembly);
+        Chat.partialDownloads.remove(this.transfer, this);
+        if (this.length == 0 && ++this.failures < MAX_REQUESTS) {
+            System.out.println("[System] history is malformed, requesting it again...");
+            this.reassembly = null;
+            this.digest = ByteString.EMPTY;
+            this.resume = 0;
+            this.attempts = 0;
+            request();
+            return;
+        }
+
+        System.out.println("[System] history is malformed, aborted.");
+        if (this.abortListener != null) {
+            this.abortListener.run();
+        }
+    }
+
+    /**
+     * Set the task to run when the download approach is aborted, since target node never answers
+     * or nothing arrives for too long.
+     *
+     * @param listener
+     */
+    public synchronized void setAbortListener(Runnable listener) {
+        this.abortListener = listener;
+    }
+
+    /**
+     * Target node can't resume the download, since its history has changed.
+     * Ask it for the entire history instead, unless the transfer has gone on already.
+     */
+    public synchronized void refused() {
+        if (this.resume == 0 || this.reassembly.received() != this.initial) {
+            return;
         }
+
+        Reassembly reassembly = newReassembly();
+        if (!Chat.historyFromOthers.replace(this.transfer, this.reassembly, reassembly)) {
+            return;
+        }
+        Chat.partialDownloads.remove(this.transfer, this);
+        System.out.println("[System] history has changed, requesting the entire history...");
+
+        this.reassembly = reassembly;
+        this.digest = ByteString.EMPTY;
+        this.resume = 0;
+        this.initial = 0;
+        this.received = 0;
+        this.attempts = 0;
+        sendRequest();
+    }
+
+    /**
+     * Return the number of packets we can take from a node after the last one in order:
+     * as many as we buffer and the receive buffer of the socket holds, so a burst survives a pause,
+     * less the chunks waiting to be imported and the datagrams waiting for the worker the node is pinned to,
+     * so the node slows down to the pace we handle its packets at.
+     *
+     * @param target
+     *      - ip:udpport of the node
+     * @param reassembly
+     *      - the data structure of the download
+     * @return int
+     */
+    protected static int receiveWindow(String target, Reassembly reassembly) {
+        int capacity = Math.min(BUFFER_PACKETS, Chat.udp.capacity(Chat.chunkSize + Chat.PACKET_OVERHEAD));
+
+        return Math.max(0, capacity - reassembly.undelivered() - Chat.dispatcher.backlog(target));
     }
 
     /**
-     * Send an acknowledgement back to target node.
+     * Send an acknowledgement back to target node, with the number of packets we can take.
      */
     private void ack() {
         ChatProcotol.Data data = ChatProcotol.Data.newBuilder()
-                .setType(this.type).setSeqNo(this.seqNo).build();
+                .setType(this.type).setSession(this.session).setSeqNo(this.seqNo).setSack(this.sack)
+                .setWindow(this.window).build();
 
         if (Chat.debug) {
-            System.out.println("[Debug] sending ACK packet, sequence number: " + data.getSeqNo() + ".");
+            System.out.println("[Debug] sending ACK packet, sequence number: " + data.getSeqNo()
+                    + ", window: " + data.getWindow() + ".");
         }
 
         send(data);
     }
 
     /**
-     * Pack data into ByteArrayOutputStream and send it via UDP.
+     * Send the INFO or STREAM packet to target node as it is.
+     */
+    private void info() {
+        send(this.data);
+    }
+
+    /**
+     * Send data to target node via UDP.
      *
      * @param data
      */
     private void send(ChatProcotol.Data data) {
-        try (ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-            data.writeDelimitedTo(outStream);
-            byte[] packet = outStream.toByteArray();
-            DatagramPacket datagramPacket = new DatagramPacket(packet, packet.length
-                    , InetAddress.getByName(this.ip), Integer.parseInt(this.port));
-
-            Chat.udpSocket.send(datagramPacket);
+        try {
+            Chat.udp.send(data, Chat.udp.address(this.ip, this.port));
         }
         catch (IOException ignore) {}
     }
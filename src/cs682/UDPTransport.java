@@ -0,0 +1,343 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import concurrent.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Hashtable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe UDP transport on a DatagramChannel.
+ * Data packets are encoded straight into pooled buffers and sent from there,
+ * and received datagrams are decoded straight out of them,
+ * so sending or receiving a packet doesn't allocate a buffer, a stream or a datagram.
+ * The pooled buffers fit a Data packet of our chunk size, a larger packet gets a buffer of its own size.
+ * They are heap buffers, since the direct buffer codec of Protocol Buffers relies on Unsafe
+ * and crashes on newer JVMs, the channel copies them through a direct buffer it keeps for every thread.
+ * Datagrams are received into one direct buffer which fits the largest one, and copied into a pooled buffer
+ * of their size, the same copy the channel makes for a heap buffer.
+ * At most a fixed number of received datagrams wait to be handled, the ones beyond are dropped,
+ * like a full receive buffer of the socket would, so a backlog never allocates buffers.
+ * The address of every node is resolved once and cached, keyed by ip:udpport.
+ * Datagrams are received in batches: wait until the channel is readable, then drain every pending one.
+ * The receive buffer of the socket tells how many datagrams can wait for us without being dropped.
+ * Under a network impairment, received datagrams may be dropped, duplicated or held back,
+ * and the ones held back are received again with the next batch once their delay is over.
+ */
+public class UDPTransport {
+
+    /**
+     * Number of buffers kept for sending, enough for every thread sending at the same time.
+     */
+    private static final int POOL_SIZE = 4 * Chat.THREADS;
+
+    /**
+     * Number of received datagrams which may wait to be handled, and buffers kept for them.
+     */
+    private static final int MAX_RECEIVED = 1024;
+
+    /**
+     * Time in microseconds to wait for room in the send buffer of the socket before trying again.
+     */
+    private static final int SEND_RETRY = 50;
+
+    /**
+     * The largest number of datagrams received in one batch.
+     */
+    private static final int MAX_BATCH = 64;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final BufferPool buffers;
+    private final BufferPool receivedBuffers;
+    private final ByteBuffer receiveBuffer;
+    private final Hashtable<String, InetSocketAddress> addresses;
+    private final Hashtable<SocketAddress, String> keys;
+    private final Queue<Datagram> delayed;
+    private final int socketBuffer;
+
+    /**
+     * UDPTransport constructor.
+     * The pooled buffers fit a Data packet of our chunk size at the moment.
+     *
+     * @param udpport
+     * @throws IOException
+     */
+    public UDPTransport(int udpport) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(udpport));
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(this.selector, SelectionKey.OP_READ);
+        this.buffers = new BufferPool(() -> Chat.chunkSize + Chat.PACKET_OVERHEAD, POOL_SIZE);
+        this.receivedBuffers = new BufferPool(() -> Chat.chunkSize + Chat.PACKET_OVERHEAD, MAX_RECEIVED);
+        this.receiveBuffer = ByteBuffer.allocateDirect(Chat.MAX_CHUNK_SIZE + Chat.PACKET_OVERHEAD);
+        this.addresses = new Hashtable<>();
+        this.keys = new Hashtable<>();
+        this.delayed = new ConcurrentLinkedQueue<>();
+        this.socketBuffer = this.channel.getOption(StandardSocketOptions.SO_RCVBUF);
+    }
+
+    /**
+     * Encode a Data packet with its length in front, and send it to a node.
+     * If the send buffer of the socket is full, wait for room like a blocking channel would.
+     *
+     * @param data
+     * @param address
+     * @throws IOException
+     */
+    public void send(ChatProcotol.Data data, InetSocketAddress address) throws IOException {
+        send(data, 0, address);
+    }
+
+    /**
+     * Encode a Data packet of a transfer with its length in front, and send it to a node.
+     * The session id is appended to the encoded packet instead of set on it, the last value of a field wins,
+     * so the packets shared by every requester are never copied.
+     * If the send buffer of the socket is full, wait for room like a blocking channel would,
+     * parking a moment between the tries.
+     *
+     * @param data
+     * @param session
+     *      - session id of the transfer, 0 to send the packet as it is
+     * @param address
+     * @throws IOException
+     */
+    public void send(ChatProcotol.Data data, int session, InetSocketAddress address) throws IOException {
+        int size = data.getSerializedSize();
+        if (session != 0) {
+            size += CodedOutputStream.computeInt32Size(ChatProcotol.Data.SESSION_FIELD_NUMBER, session);
+        }
+        ByteBuffer buffer = this.buffers.acquire(CodedOutputStream.computeUInt32SizeNoTag(size) + size);
+
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+            output.writeUInt32NoTag(size);
+            data.writeTo(output);
+            if (session != 0) {
+                output.writeInt32(ChatProcotol.Data.SESSION_FIELD_NUMBER, session);
+            }
+            output.flush();
+
+            buffer.flip();
+            while (this.channel.send(buffer, address) == 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(SEND_RETRY));
+            }
+        }
+        finally {
+            this.buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Give a buffer back after decoding the datagram in it.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        this.receivedBuffers.release(buffer);
+    }
+
+    /**
+     * Wait until a datagram arrives, then receive every pending datagram, up to sixty-four,
+     * into pooled buffers in the order they arrived, and pass each of them to the handler, ready to be decoded.
+     * The datagrams whose delay is over come first, and the new ones go through the network impairment if any.
+     * If too many received datagrams are waiting to be handled already, the new ones are dropped.
+     *
+     * @param handler
+     *      - takes the buffer holding a datagram, and ip:udpport of the node sent it
+     * @return int
+     *      - number of datagrams received
+     * @throws IOException
+     *      - if the channel is closed
+     */
+    public int drain(BiConsumer<ByteBuffer, String> handler) throws IOException {
+        this.selector.select();
+        this.selector.selectedKeys().clear();
+
+        int received = 0;
+        Datagram datagram;
+        while ((datagram = this.delayed.poll()) != null) {
+            handler.accept(datagram.buffer, datagram.from);
+            received++;
+        }
+
+        Impairment impairment = Chat.impairment;
+        while (received < MAX_BATCH) {
+            this.receiveBuffer.clear();
+            SocketAddress from = this.channel.receive(this.receiveBuffer);
+            if (from == null) {
+                break;
+            }
+
+            this.receiveBuffer.flip();
+            ByteBuffer buffer = this.receivedBuffers.tryAcquire(this.receiveBuffer.remaining());
+            if (buffer == null) {
+                if (Chat.debug) {
+                    System.out.println("[Debug] too many packets waiting, dropping a packet from " + key(from) + ".");
+                }
+                received++;
+                continue;
+            }
+            buffer.put(this.receiveBuffer);
+            buffer.flip();
+            if (impairment == null) {
+                handler.accept(buffer, key(from));
+            }
+            else {
+                impair(impairment, buffer, key(from), handler);
+            }
+            received++;
+        }
+
+        return received;
+    }
+
+    /**
+     * Drop, duplicate or delay a received datagram as the network impairment decides.
+     * Every copy but the last one is received into a buffer of its own.
+     * A delayed copy is put back to the channel's queue by the scheduler, and the channel is woken up for it.
+     *
+     * @param impairment
+     * @param buffer
+     *      - the received datagram
+     * @param from
+     *      - ip:udpport of the node sent it
+     * @param handler
+     */
+    private void impair(Impairment impairment, ByteBuffer buffer, String from, BiConsumer<ByteBuffer, String> handler) {
+        long[] delays = impairment.next(from);
+        if (delays.length == 0) {
+            this.receivedBuffers.release(buffer);
+            if (Chat.debug) {
+                System.out.println("[Debug] dropping a packet from " + from + ".");
+            }
+            return;
+        }
+
+        for (int i = 0; i < delays.length; i++) {
+            ByteBuffer copy = buffer;
+            if (i < delays.length - 1) {
+                copy = this.receivedBuffers.tryAcquire(buffer.remaining());
+                if (copy == null) {
+                    continue;
+                }
+                copy.put(buffer.duplicate());
+                copy.flip();
+            }
+
+            if (delays[i] == 0) {
+                handler.accept(copy, from);
+            }
+            else {
+                Datagram datagram = new Datagram(copy, from);
+                Chat.scheduler.schedule(() -> {
+                    this.delayed.add(datagram);
+                    this.selector.wakeup();
+                }, delays[i]);
+            }
+        }
+    }
+
+    /**
+     * Return ip:udpport of a socket address, create it on the first time.
+     *
+     * @param from
+     * @return String
+     */
+    private String key(SocketAddress from) {
+        String key = this.keys.get(from);
+        if (key == null) {
+            InetSocketAddress address = (InetSocketAddress) from;
+            key = address.getAddress().getHostAddress() + ":" + address.getPort();
+            this.keys.put(from, key);
+        }
+
+        return key;
+    }
+
+    /**
+     * Decode the Data packet with its length in front from a received datagram.
+     *
+     * @param buffer
+     * @return ChatProcotol.Data
+     * @throws IOException
+     *      - if the datagram isn't a Data packet
+     */
+    public ChatProcotol.Data decode(ByteBuffer buffer) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(buffer);
+        int limit = input.pushLimit(input.readRawVarint32());
+        ChatProcotol.Data data = ChatProcotol.Data.parseFrom(input);
+        input.popLimit(limit);
+
+        return data;
+    }
+
+    /**
+     * Return the number of datagrams of a size the receive buffer of the socket holds.
+     * The kernel accounts for about twice the size of a small datagram, so count every datagram twice.
+     *
+     * @param size
+     *      - size of a datagram in bytes
+     * @return int
+     */
+    public int capacity(int size) {
+        return this.socketBuffer / (2 * size);
+    }
+
+    /**
+     * Return the address of a node, resolve it on the first time.
+     *
+     * @param ip
+     * @param port
+     * @return InetSocketAddress
+     */
+    public InetSocketAddress address(String ip, String port) {
+        String key = ip + ":" + port;
+        InetSocketAddress address = this.addresses.get(key);
+        if (address == null) {
+            address = new InetSocketAddress(ip, Integer.parseInt(port));
+            this.addresses.put(key, address);
+        }
+
+        return address;
+    }
+
+    /**
+     * Close the channel, a thread waiting for a datagram gets an exception.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        this.channel.close();
+        this.selector.close();
+    }
+
+    /**
+     * A received datagram held back, and ip:udpport of the node sent it.
+     */
+    private static class Datagram {
+
+        private final ByteBuffer buffer;
+        private final String from;
+
+        private Datagram(ByteBuffer buffer, String from) {
+            this.buffer = buffer;
+            this.from = from;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package cs682;
 
 import chatprotos.ChatProcotol;
+import concurrent.Download;
 
 import java.io.IOException;
 import java.util.*;
@@ -15,6 +16,7 @@ import java.util.regex.Pattern;
 public class UserInterface {
 
     private final Map<String, Runnable> com;
+    private final Map<String, ChatProcotol.Data.transferMode> modes;
     private ExecutorService senderPool;
     private ExecutorService collectorPool;
     private String commandStyle = ">> ";
@@ -25,7 +27,9 @@ public class UserInterface {
      */
     public UserInterface() {
         this.com = new HashMap<>();
+        this.modes = new HashMap<>();
         createCommands();
+        createModes();
     }
 
     /**
@@ -37,13 +41,23 @@ public class UserInterface {
         this.com.put("send", this::send);
         this.com.put("broadcast", this::broadcast);
         this.com.put("request", this::request);
+        this.com.put("request-all", this::requestAll);
         this.com.put("history", this::history);
         this.com.put("mock", this::mock);
         this.com.put("style", this::style);
         this.com.put("detail", this::detail);
+        this.com.put("transfers", this::transfers);
         this.com.put("exit", this::exit);
     }
 
+    /**
+     * Initialize the transfer modes in HashMap for user to choose when requesting history.
+     */
+    private void createModes() {
+        this.modes.put("gbn", ChatProcotol.Data.transferMode.GO_BACK_N);
+        this.modes.put("sr", ChatProcotol.Data.transferMode.SELECTIVE_REPEAT);
+    }
+
     /**
      * Display welcome message and start user interface.
      * Wait for user to input commands.
@@ -122,13 +136,19 @@ public class UserInterface {
         System.out.println("(2) list");
         System.out.println("(3) send [username] \"message\"");
         System.out.println("(4) broadcast \"message\"");
-        System.out.println("(5) request [username]");
-        System.out.println("(6) history");
-        System.out.println("(7) mock <number>");
-        System.out.println("(8) style <content>");
-        System.out.println("(9) detail [username]");
-        System.out.println("(10) exit");
+        System.out.println("(5) request [username] <gbn|sr> <new> <fec> <deflate>");
+        System.out.println("(6) request-all <gbn|sr>");
+        System.out.println("(7) history");
+        System.out.println("(8) mock <number>");
+        System.out.println("(9) style <content>");
+        System.out.println("(10) detail [username]");
+        System.out.println("(11) transfers");
+        System.out.println("(12) exit");
         System.out.println("* message example: send [csung4] \"hello!\"");
+        System.out.println("* request example: request [csung4] sr");
+        System.out.println("* request example: request [csung4] new");
+        System.out.println("* request example: request [csung4] gbn fec");
+        System.out.println("* request example: request [csung4] sr deflate");
     }
 
     /**
@@ -201,18 +221,49 @@ public class UserInterface {
     /**
      * Create a Data with a type of REQUEST to send to a node
      * to request a history download approach using UDP.
+     * Lost packets are recovered with Go-Back-N unless Selective Repeat is asked for.
+     * With "new", only ask for the messages newer than the latest one we have from their sender,
+     * or all of a sender's messages if we miss some of the older ones, and merge them into our history.
+     * With "fec", ask for a parity packet after every few packets, so a single lost packet among them is rebuilt.
+     * With "deflate", ask for the history to be compressed, so it takes fewer packets.
      */
     private void request() {
-        if (this.inputArgs.size() == 2) {
+        int size = this.inputArgs.size();
+        ChatProcotol.Data.transferMode mode = ChatProcotol.Data.transferMode.GO_BACK_N;
+        boolean newOnly = false;
+        int fec = 0;
+        ChatProcotol.Data.compression codec = ChatProcotol.Data.compression.NONE;
+        boolean valid = (size >= 2 && size <= 6);
+
+        for (int i = 2; valid && i < size; i++) {
+            String option = this.inputArgs.get(i);
+            if (this.modes.containsKey(option)) {
+                mode = this.modes.get(option);
+            }
+            else if (option.equals("new") && !newOnly) {
+                newOnly = true;
+            }
+            else if (option.equals("fec") && fec == 0) {
+                fec = Chat.FEC_BLOCK;
+            }
+            else if (option.equals("deflate") && codec == ChatProcotol.Data.compression.NONE) {
+                codec = ChatProcotol.Data.compression.DEFLATE;
+            }
+            else {
+                valid = false;
+            }
+        }
+
+        if (valid) {
             String requestUser = this.inputArgs.get(1);
             requestUser = requestUser.substring(1, requestUser.length() - 1);
+            Map<String, ChatProcotol.Data.Mark> marks = (newOnly ? marks() : Collections.emptyMap());
 
             try {
                 ChatProcotol.ZKData zkData = Chat.nodes.get(requestUser);
 
-                Runnable reqTask = new UDPSender(zkData.getIp(), zkData.getUdpport());
-                Thread reqThread = new Thread(reqTask);
-                reqThread.start();
+                Runnable reqTask = new UDPSender(zkData.getIp(), zkData.getUdpport(), mode, marks, fec, codec);
+                Chat.scheduler.execute(reqTask);
             }
             catch (NullPointerException npe) {
                 System.err.println("[System] no such user: " + requestUser + ".");
@@ -223,6 +274,51 @@ public class UserInterface {
         }
     }
 
+    /**
+     * Download the history from every node which has the same one in parallel, a range from each of them.
+     * Lost packets are recovered with Go-Back-N unless Selective Repeat is asked for.
+     */
+    private void requestAll() {
+        int size = this.inputArgs.size();
+
+        if (size == 1 || (size == 2 && this.modes.containsKey(this.inputArgs.get(1)))) {
+            ChatProcotol.Data.transferMode mode = (size == 2 ?
+                    this.modes.get(this.inputArgs.get(1)) : ChatProcotol.Data.transferMode.GO_BACK_N);
+
+            Chat.scheduler.execute(new MultiSourceDownload(mode));
+        }
+        else {
+            errorMessage();
+        }
+    }
+
+    /**
+     * Return the latest timestamp and the number of messages of every sender among the messages in our history.
+     * The timestamps of one sender only grow, but the ones of different senders don't tell which came first,
+     * so a message is only known to be older than what we have when compared with the same sender,
+     * and the number tells the node we ask whether we miss any of the older ones.
+     *
+     * @return Map
+     */
+    private Map<String, ChatProcotol.Data.Mark> marks() {
+        Map<String, Long> latest = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (ChatProcotol.Chat chat : Chat.history.get()) {
+            if (chat.getTimestamp() > 0) {
+                latest.merge(chat.getFrom(), chat.getTimestamp(), Math::max);
+                counts.merge(chat.getFrom(), 1, Integer::sum);
+            }
+        }
+
+        Map<String, ChatProcotol.Data.Mark> marks = new HashMap<>();
+        for (Map.Entry<String, Long> entry : latest.entrySet()) {
+            marks.put(entry.getKey(), ChatProcotol.Data.Mark.newBuilder().setTimestamp(entry.getValue())
+                    .setCount(counts.get(entry.getKey())).build());
+        }
+
+        return marks;
+    }
+
     /**
      * Display all broadcast message received by the user in order.
      */
@@ -251,8 +347,8 @@ public class UserInterface {
             boolean isBcast = true;
 
             for (int i = 1; i <= number; i++) {
-                ChatProcotol.Chat mockData = ChatProcotol.Chat.newBuilder()
-                        .setFrom(username).setMessage(mockMessage + i).setIsBcast(isBcast).build();
+                ChatProcotol.Chat mockData = ChatProcotol.Chat.newBuilder().setFrom(username)
+                        .setMessage(mockMessage + i).setIsBcast(isBcast).setTimestamp(Chat.clock.tick()).build();
 
                 Chat.history.add(mockData);
             }
@@ -299,6 +395,39 @@ public class UserInterface {
         }
     }
 
+    /**
+     * Display the history data in delivery to other nodes,
+     * with the progress, the congestion window, the receive window and the retransmissions of each,
+     * and what the network impairment has done to the datagrams we received, if any.
+     */
+    private void transfers() {
+        if (this.inputArgs.size() == 1) {
+            Map<String, Download> downloads;
+            synchronized (Chat.currentDownloads) {
+                downloads = new HashMap<>(Chat.currentDownloads);
+            }
+
+            System.out.println("[System] History data in delivery:");
+            for (Map.Entry<String, Download> entry : downloads.entrySet()) {
+                Download download = entry.getValue();
+                System.out.println(entry.getKey() + " acknowledged: " + download.acknowledged()
+                        + "/" + download.get().size() + " window: " + download.getWindowSize()
+                        + " threshold: " + download.getThreshold()
+                        + " receive window: " + Math.max(0, download.getReceiveEdge() - download.currentState() + 1)
+                        + " timeout: " + download.getTimeout() + " ms"
+                        + " retransmitted: " + download.getRetransmissions() + "/" + download.getTransmissions());
+            }
+
+            Impairment impairment = Chat.impairment;
+            if (impairment != null) {
+                System.out.println("[System] Network impairment: " + impairment);
+            }
+        }
+        else {
+            errorMessage();
+        }
+    }
+
     /**
      * Close the connections and interrupt the threads, then exit this program.
      */
@@ -308,8 +437,10 @@ public class UserInterface {
 
             Chat.alive = false;
             Chat.zk.deleteMe();
-            Chat.receiverSocket.close();
-            Chat.udpSocket.close();
+            Chat.receiver.close();
+            Chat.udp.close();
+            Chat.connections.close();
+            Chat.scheduler.close();
             this.collectorPool.shutdown();
             this.senderPool.shutdown();
 
@@ -349,7 +480,7 @@ public class UserInterface {
     }
 
     /**
-     * Create a message with Chat protocol.
+     * Create a message with Chat protocol, with a timestamp from the Lamport clock.
      *
      * @param message
      * @param isBcast
@@ -358,7 +489,7 @@ public class UserInterface {
      */
     private ChatProcotol.Chat createChat(String message, boolean isBcast) {
         return ChatProcotol.Chat.newBuilder().setFrom(Chat.zk.getUsername())
-                .setMessage(message).setIsBcast(isBcast).build();
+                .setMessage(message).setIsBcast(isBcast).setTimestamp(Chat.clock.tick()).build();
     }
 
     /**
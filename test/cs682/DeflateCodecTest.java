@@ -0,0 +1,68 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import concurrent.Reassembly;
+import concurrent.SimulatedClock;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Tests of decompressing the history while its chunks arrive in order.
+ */
+public class DeflateCodecTest extends TestCase {
+
+    private static final byte[] HISTORY = ChatProcotol.Chat.newBuilder().setFrom("bench")
+            .setMessage("This is Grrrr, This is Grrrr, This is Grrrr").build().toByteArray();
+
+    private List<ByteString> inflated;
+    private Reassembly reassembly;
+
+    @Override
+    protected void setUp() {
+        this.inflated = new ArrayList<>();
+        BiConsumer<ByteString, Boolean> consumer = new DeflateCodec().decompress((chunk, isLast) -> {
+            this.inflated.add(chunk);
+        });
+        this.reassembly = new Reassembly(ChatProcotol.Data.transferMode.GO_BACK_N, 8, consumer,
+                new SimulatedClock());
+    }
+
+    /**
+     * A compressed history split into chunks is inflated back in order.
+     */
+    public void testCompressedHistoryIsInflated() {
+        byte[] compressed = new DeflateCodec().compress(HISTORY);
+        int half = compressed.length / 2;
+
+        this.reassembly.offer(1, ByteString.copyFrom(compressed, 0, half), false);
+        this.reassembly.offer(2, ByteString.copyFrom(compressed, half, compressed.length - half), true);
+        this.reassembly.deliver();
+
+        assertFalse(this.reassembly.isFailed());
+        assertEquals(ByteString.copyFrom(HISTORY), ByteString.copyFrom(this.inflated));
+    }
+
+    /**
+     * A malformed stream fails the reassembly, and nothing after it is handed over.
+     */
+    public void testMalformedStreamFailsReassembly() {
+        byte[] compressed = new DeflateCodec().compress(HISTORY);
+        byte[] malformed = compressed.clone();
+        for (int i = 2; i < malformed.length; i++) {
+            malformed[i] = (byte) 0xFF;
+        }
+
+        this.reassembly.offer(1, ByteString.copyFrom(malformed, 0, compressed.length / 2), false);
+        this.reassembly.deliver();
+        this.reassembly.offer(2, ByteString.copyFrom(compressed, compressed.length / 2,
+                compressed.length - compressed.length / 2), true);
+        this.reassembly.deliver();
+
+        assertTrue(this.reassembly.isFailed());
+        assertTrue(this.inflated.isEmpty());
+    }
+}
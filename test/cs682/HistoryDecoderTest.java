@@ -0,0 +1,73 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import junit.framework.TestCase;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of importing the entire history while its chunks arrive.
+ */
+public class HistoryDecoderTest extends TestCase {
+
+    private static final ChatProcotol.Chat OLD = message("old", 1);
+
+    private ByteString imported;
+
+    @Override
+    protected void setUp() {
+        Chat.history.replaceAll(Collections.singletonList(OLD));
+        List<ChatProcotol.Chat> history = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            history.add(message("new", i));
+        }
+        this.imported = ByteString.copyFrom(HistorySnapshot.serialize(history));
+    }
+
+    /**
+     * Create a broadcast message.
+     *
+     * @param from
+     * @param timestamp
+     * @return ChatProcotol.Chat
+     */
+    private static ChatProcotol.Chat message(String from, long timestamp) {
+        return ChatProcotol.Chat.newBuilder().setFrom(from).setMessage("This is Grrrr " + timestamp)
+                .setIsBcast(true).setTimestamp(timestamp).build();
+    }
+
+    /**
+     * The imported history replaces user's history once the last chunk is decoded.
+     */
+    public void testHistoryIsReplacedAfterLastChunk() {
+        HistoryDecoder decoder = new HistoryDecoder(Collections.<String, ChatProcotol.Data.Mark>emptyMap());
+        int half = this.imported.size() / 2;
+
+        decoder.accept(this.imported.substring(0, half), false);
+        assertEquals(Collections.singletonList(OLD), Chat.history.get());
+
+        decoder.accept(this.imported.substring(half), true);
+        assertEquals(100, Chat.history.size());
+        assertEquals(message("new", 100), Chat.history.get().get(99));
+    }
+
+    /**
+     * A malformed history leaves user's history as it was.
+     */
+    public void testMalformedHistoryKeepsUserHistory() {
+        HistoryDecoder decoder = new HistoryDecoder(Collections.<String, ChatProcotol.Data.Mark>emptyMap());
+
+        decoder.accept(this.imported.substring(0, this.imported.size() / 2), false);
+        try {
+            decoder.accept(ByteString.copyFrom(new byte[] {(byte) 0xFF, (byte) 0xFF}), true);
+            fail("a malformed history is passed on");
+        }
+        catch (UncheckedIOException expected) {
+            assertEquals(Collections.singletonList(OLD), Chat.history.get());
+        }
+    }
+}
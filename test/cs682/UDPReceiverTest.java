@@ -0,0 +1,114 @@
+package cs682;
+
+import chatprotos.ChatProcotol;
+import com.google.protobuf.ByteString;
+import concurrent.Crc32c;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of the checksum check on the Data packets we receive, and of the messages a delta pull sends.
+ */
+public class UDPReceiverTest extends TestCase {
+
+    private static final ByteString CHUNK = ByteString.copyFromUtf8("This is Grrrr");
+
+    /**
+     * A Data packet from a node older than the checksums has none, and is still accepted.
+     */
+    public void testLegacyPacketWithoutCrcIsAccepted() {
+        ChatProcotol.Data data = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.DATA)
+                .setSeqNo(1).setData(CHUNK).build();
+
+        assertFalse(UDPReceiver.corrupted(data));
+    }
+
+    /**
+     * A Data packet matching its checksum is accepted.
+     */
+    public void testPacketWithMatchingCrcIsAccepted() {
+        ChatProcotol.Data data = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.DATA)
+                .setSeqNo(1).setData(CHUNK).setCrc(Crc32c.of(CHUNK)).build();
+
+        assertFalse(UDPReceiver.corrupted(data));
+    }
+
+    /**
+     * A Data packet not matching its checksum is dropped.
+     */
+    public void testPacketWithWrongCrcIsDropped() {
+        ChatProcotol.Data data = ChatProcotol.Data.newBuilder().setType(ChatProcotol.Data.packetType.DATA)
+                .setSeqNo(1).setData(CHUNK).setCrc(Crc32c.of(CHUNK) ^ 1).build();
+
+        assertTrue(UDPReceiver.corrupted(data));
+    }
+
+    /**
+     * A message we don't have, with a lower timestamp than the latest one from another sender, is still sent.
+     */
+    public void testConcurrentMessageFromOtherSenderIsSent() {
+        ChatProcotol.Chat fromAlice = message("alice", 10);
+        ChatProcotol.Chat fromBob = message("bob", 5);
+        ChatProcotol.Chat fromCarol = message("carol", 2);
+        List<ChatProcotol.Chat> history = Arrays.asList(message("alice", 9), fromBob, fromAlice, fromCarol);
+        Map<String, ChatProcotol.Data.Mark> marks = new HashMap<>();
+        marks.put("alice", mark(9, 1));
+        marks.put("bob", mark(4, 1));
+
+        assertEquals(Arrays.asList(fromBob, fromAlice, fromCarol), UDPReceiver.newerThan(history, marks, 0));
+    }
+
+    /**
+     * Every message of a sender is sent if the requester has fewer of them up to its latest one than we have.
+     */
+    public void testMissingOlderMessageResendsSender() {
+        ChatProcotol.Chat first = message("alice", 1);
+        ChatProcotol.Chat second = message("alice", 3);
+        ChatProcotol.Chat third = message("alice", 5);
+        List<ChatProcotol.Chat> history = Arrays.asList(first, message("bob", 2), second, third);
+        Map<String, ChatProcotol.Data.Mark> marks = new HashMap<>();
+        marks.put("alice", mark(5, 2));
+        marks.put("bob", mark(2, 1));
+
+        assertEquals(Arrays.asList(first, second, third), UDPReceiver.newerThan(history, marks, 0));
+    }
+
+    /**
+     * A requester without the timestamps of the senders gets the messages newer than its one timestamp.
+     */
+    public void testSingleTimestampFiltersEverySender() {
+        ChatProcotol.Chat fromAlice = message("alice", 10);
+        List<ChatProcotol.Chat> history = Arrays.asList(message("bob", 5), fromAlice);
+
+        assertEquals(Collections.singletonList(fromAlice),
+                UDPReceiver.newerThan(history, Collections.<String, ChatProcotol.Data.Mark>emptyMap(), 9));
+    }
+
+    /**
+     * Create a broadcast message.
+     *
+     * @param from
+     * @param timestamp
+     * @return ChatProcotol.Chat
+     */
+    private static ChatProcotol.Chat message(String from, long timestamp) {
+        return ChatProcotol.Chat.newBuilder().setFrom(from).setMessage("This is Grrrr " + timestamp)
+                .setIsBcast(true).setTimestamp(timestamp).build();
+    }
+
+    /**
+     * Create the mark of a sender.
+     *
+     * @param timestamp
+     * @param count
+     * @return ChatProcotol.Data.Mark
+     */
+    private static ChatProcotol.Data.Mark mark(long timestamp, int count) {
+        return ChatProcotol.Data.Mark.newBuilder().setTimestamp(timestamp).setCount(count).build();
+    }
+}